@@ -1,7 +1,39 @@
 package com.samcod3.alldebrid
 
 import android.app.Application
+import androidx.lifecycle.DefaultLifecycleObserver
+import androidx.lifecycle.LifecycleOwner
+import androidx.lifecycle.ProcessLifecycleOwner
+import com.samcod3.alldebrid.data.datastore.DeviceRegistryStore
+import com.samcod3.alldebrid.data.datastore.SettingsDataStore
+import com.samcod3.alldebrid.data.repository.DlnaQueueManager
+import com.samcod3.alldebrid.di.ApplicationScope
 import dagger.hilt.android.HiltAndroidApp
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.launch
+import javax.inject.Inject
 
 @HiltAndroidApp
-class AllDebridApp : Application()
+class AllDebridApp : Application() {
+    
+    @Inject lateinit var settingsDataStore: SettingsDataStore
+    @Inject lateinit var deviceRegistry: DeviceRegistryStore
+    @Inject lateinit var dlnaQueue: DlnaQueueManager
+    @Inject @ApplicationScope lateinit var appScope: CoroutineScope
+    
+    override fun onCreate() {
+        super.onCreate()
+        
+        // Buffered settings/device/queue edits must not wait for their debounce
+        // once the app leaves the foreground and may be killed
+        ProcessLifecycleOwner.get().lifecycle.addObserver(object : DefaultLifecycleObserver {
+            override fun onStop(owner: LifecycleOwner) {
+                appScope.launch {
+                    settingsDataStore.flush()
+                    deviceRegistry.flush()
+                    dlnaQueue.flush()
+                }
+            }
+        })
+    }
+}
@@ -1,6 +1,8 @@
 package com.samcod3.alldebrid.data.api
 
 import com.samcod3.alldebrid.data.model.BaseResponse
+import com.samcod3.alldebrid.data.model.MagnetFilesResponse
+import com.samcod3.alldebrid.data.model.MagnetStatusResponse
 import com.samcod3.alldebrid.data.model.MagnetUploadResponse
 import com.samcod3.alldebrid.data.model.MagnetsResponse
 import com.samcod3.alldebrid.data.model.UnlockResponse
@@ -17,6 +19,7 @@ interface AllDebridApi {
     
     companion object {
         const val BASE_URL = "https://api.alldebrid.com/v4/"
+        const val BASE_URL_V41 = "https://api.alldebrid.com/v4.1/"
         const val AGENT = "AllDebridManager"
     }
     
@@ -26,12 +29,35 @@ interface AllDebridApi {
         @Query("apikey") apiKey: String
     ): Response<UserResponse>
     
-    @GET("magnet/status")
+    /**
+     * Headline fields only: v4.1 leaves the file lists out, see [getMagnetFiles].
+     * [status] narrows the listing to `active`, `ready`, `expired` or `error`
+     * magnets; null lists them all.
+     */
+    @GET("${BASE_URL_V41}magnet/status")
     suspend fun getMagnets(
         @Query("agent") agent: String = AGENT,
-        @Query("apikey") apiKey: String
+        @Query("apikey") apiKey: String,
+        @Query("status") status: String? = null
     ): Response<MagnetsResponse>
     
+    @GET("${BASE_URL_V41}magnet/status")
+    suspend fun getMagnetStatus(
+        @Query("agent") agent: String = AGENT,
+        @Query("apikey") apiKey: String,
+        @Query("id") id: Long
+    ): Response<MagnetStatusResponse>
+    
+    /**
+     * File trees of several magnets in one call.
+     */
+    @GET("magnet/files")
+    suspend fun getMagnetFiles(
+        @Query("agent") agent: String = AGENT,
+        @Query("apikey") apiKey: String,
+        @Query("id[]") ids: List<Long>
+    ): Response<MagnetFilesResponse>
+    
     @GET("magnet/upload")
     suspend fun uploadMagnet(
         @Query("agent") agent: String = AGENT,
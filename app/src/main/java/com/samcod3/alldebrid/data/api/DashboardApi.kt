@@ -1,30 +1,62 @@
 package com.samcod3.alldebrid.data.api
 
+import android.os.SystemClock
 import android.util.Log
 import android.webkit.CookieManager
+import com.samcod3.alldebrid.di.StreamingHttpClient
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
+import okhttp3.FormBody
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okio.BufferedSource
 import org.json.JSONArray
-import java.io.OutputStreamWriter
-import java.net.HttpURLConnection
-import java.net.URL
-import java.net.URLEncoder
 import javax.inject.Inject
 import javax.inject.Singleton
 
 /**
  * API for managing AllDebrid API keys using dashboard session cookies.
  * This replicates the DashboardAPI from the Chrome extension.
+ *
+ * Requests go through the shared OkHttp pool, so a list + create + list
+ * sequence reuses one connection. The `/apikeys` page is scanned as it
+ * streams and the download stops as soon as the `var keys` array is closed.
+ * Mutations redirect back to `/apikeys`; that page refreshes the key cache,
+ * so no extra fetch is needed afterwards.
  */
 @Singleton
-class DashboardApi @Inject constructor() {
-    
+class DashboardApi @Inject constructor(
+    @StreamingHttpClient private val httpClient: OkHttpClient
+) {
+
     companion object {
         private const val TAG = "DashboardApi"
         private const val BASE_URL = "https://alldebrid.com"
         private const val APIKEYS_URL = "$BASE_URL/apikeys"
+        private const val USER_AGENT = "Mozilla/5.0 (Linux; Android) AllDebridManager/1.0"
+        private const val KEYS_MARKER = "var keys = "
+        private const val LOGIN_MARKER = "name=\"login\""
+        private const val CACHE_TTL_MS = 5 * 60_000L
+    }
+
+    private class CachedKeys(
+        val cookies: String,
+        val keys: List<ApiKeyData>,
+        val fetchedAt: Long
+    )
+
+    // Keys of the current dashboard session; replaced whenever a page is parsed
+    @Volatile
+    private var cache: CachedKeys? = null
+
+    private sealed class PageResult {
+        data class Keys(val keys: List<ApiKeyData>) : PageResult()
+        object LoginForm : PageResult()
+        object NoKeys : PageResult()
     }
-    
+
     /**
      * Check if user is logged in by checking for session cookies
      */
@@ -32,198 +64,240 @@ class DashboardApi @Inject constructor() {
         val cookies = CookieManager.getInstance().getCookie(BASE_URL)
         return cookies?.contains("uid=") == true
     }
-    
+
     /**
-     * Fetch all API keys from the dashboard
+     * Fetch all API keys from the dashboard. Served from cache unless
+     * [forceRefresh] is set, the session changed or the cache is stale.
      */
-    suspend fun fetchKeys(): Result<List<ApiKeyData>> = withContext(Dispatchers.IO) {
+    suspend fun fetchKeys(forceRefresh: Boolean = false): Result<List<ApiKeyData>> = withContext(Dispatchers.IO) {
         try {
-            val cookies = CookieManager.getInstance().getCookie(BASE_URL)
-            if (cookies.isNullOrEmpty()) {
-                return@withContext Result.failure(Exception("Not logged in"))
-            }
-            
-            val url = URL(APIKEYS_URL)
-            val connection = url.openConnection() as HttpURLConnection
-            connection.apply {
-                requestMethod = "GET"
-                setRequestProperty("Cookie", cookies)
-                setRequestProperty("User-Agent", "Mozilla/5.0 (Linux; Android) AllDebridManager/1.0")
-                connectTimeout = 10000
-                readTimeout = 10000
-            }
-            
-            val responseCode = connection.responseCode
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                return@withContext Result.failure(Exception("HTTP error: $responseCode"))
-            }
-            
-            val responseText = connection.inputStream.bufferedReader().use { it.readText() }
-            connection.disconnect()
-            
-            // Check if logged in
-            if (responseText.contains("name=\"login\"")) {
-                return@withContext Result.failure(Exception("Not logged in"))
-            }
-            
-            // Parse keys from JavaScript variable: var keys = [...];
-            val keysRegex = Regex("""var keys = (\[[\s\S]*?\]);""")
-            val match = keysRegex.find(responseText)
-            
-            if (match == null) {
-                Log.w(TAG, "Could not find keys variable in response")
-                return@withContext Result.success(emptyList())
+            val cookies = sessionCookies()
+                ?: return@withContext Result.failure(Exception("Not logged in"))
+
+            if (!forceRefresh) {
+                cachedKeys(cookies)?.let { return@withContext Result.success(it) }
             }
-            
-            val keysJson = match.groupValues[1]
-            val keys = mutableListOf<ApiKeyData>()
-            
-            try {
-                val jsonArray = JSONArray(keysJson)
-                for (i in 0 until jsonArray.length()) {
-                    val obj = jsonArray.getJSONObject(i)
-                    keys.add(
-                        ApiKeyData(
-                            name = obj.optString("name", "Unnamed"),
-                            apikey = obj.getString("apikey")
-                        )
-                    )
+
+            val request = dashboardRequest(APIKEYS_URL, cookies).build()
+            httpClient.newCall(request).execute().use { response ->
+                if (response.code != 200) {
+                    return@withContext Result.failure(Exception("HTTP error: ${response.code}"))
+                }
+                when (val page = scanKeysPage(response.body!!.source())) {
+                    is PageResult.Keys -> {
+                        storeKeys(cookies, page.keys)
+                        Result.success(page.keys)
+                    }
+                    PageResult.LoginForm -> {
+                        cache = null
+                        Result.failure(Exception("Not logged in"))
+                    }
+                    PageResult.NoKeys -> {
+                        Log.w(TAG, "Could not find keys variable in response")
+                        storeKeys(cookies, emptyList())
+                        Result.success(emptyList())
+                    }
                 }
-            } catch (e: Exception) {
-                Log.e(TAG, "Error parsing keys JSON", e)
-                return@withContext Result.failure(Exception("Error parsing keys: ${e.message}"))
             }
-            
-            Result.success(keys)
         } catch (e: Exception) {
             Log.e(TAG, "Error fetching keys", e)
             Result.failure(e)
         }
     }
-    
+
     /**
      * Create a new API key
      */
-    suspend fun createKey(name: String): Result<Unit> = withContext(Dispatchers.IO) {
+    suspend fun createKey(name: String): Result<Unit> {
+        val form = FormBody.Builder().add("name", name).build()
+        return postForm(form, "create key")
+    }
+
+    /**
+     * Delete an API key
+     */
+    suspend fun deleteKey(apikey: String): Result<Unit> {
+        val form = FormBody.Builder().add("delete", apikey).build()
+        return postForm(form, "delete key")
+    }
+
+    /**
+     * Rename an API key
+     */
+    suspend fun renameKey(apikey: String, newName: String): Result<Unit> = withContext(Dispatchers.IO) {
         try {
-            val cookies = CookieManager.getInstance().getCookie(BASE_URL)
-            if (cookies.isNullOrEmpty()) {
-                return@withContext Result.failure(Exception("Not logged in"))
-            }
-            
-            val url = URL("$APIKEYS_URL/")
-            val connection = url.openConnection() as HttpURLConnection
-            connection.apply {
-                requestMethod = "POST"
-                doOutput = true
-                setRequestProperty("Cookie", cookies)
-                setRequestProperty("Content-Type", "application/x-www-form-urlencoded")
-                setRequestProperty("User-Agent", "Mozilla/5.0 (Linux; Android) AllDebridManager/1.0")
-                connectTimeout = 10000
-                readTimeout = 10000
-            }
-            
-            // Send form data
-            val postData = "name=${URLEncoder.encode(name, "UTF-8")}"
-            OutputStreamWriter(connection.outputStream).use { writer ->
-                writer.write(postData)
-                writer.flush()
+            val cookies = sessionCookies()
+                ?: return@withContext Result.failure(Exception("Not logged in"))
+
+            val url = APIKEYS_URL.toHttpUrl().newBuilder()
+                .addQueryParameter("apikey", apikey)
+                .addQueryParameter("newName", newName)
+                .build()
+
+            val request = dashboardRequest(url.toString(), cookies).build()
+            val responseText = httpClient.newCall(request).execute().use { response ->
+                if (response.code == 200) response.body?.string().orEmpty() else ""
             }
-            
-            val responseCode = connection.responseCode
-            connection.disconnect()
-            
-            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
+
+            if (responseText == "Updated") {
+                // The endpoint only answers "Updated"; patch the cached entry in place
+                cache?.let { cached ->
+                    cache = CachedKeys(
+                        cookies = cached.cookies,
+                        keys = cached.keys.map {
+                            if (it.apikey == apikey) it.copy(name = newName) else it
+                        },
+                        fetchedAt = cached.fetchedAt
+                    )
+                }
                 Result.success(Unit)
             } else {
-                Result.failure(Exception("Failed to create key: HTTP $responseCode"))
+                Result.failure(Exception("Failed to rename: $responseText"))
             }
         } catch (e: Exception) {
-            Log.e(TAG, "Error creating key", e)
+            Log.e(TAG, "Error renaming key", e)
             Result.failure(e)
         }
     }
-    
+
     /**
-     * Delete an API key
+     * POST a dashboard form. The server answers with a redirect to `/apikeys`,
+     * which OkHttp follows on the same connection; the resulting page is used
+     * to refresh the key cache.
      */
-    suspend fun deleteKey(apikey: String): Result<Unit> = withContext(Dispatchers.IO) {
+    private suspend fun postForm(form: RequestBody, action: String): Result<Unit> = withContext(Dispatchers.IO) {
         try {
-            val cookies = CookieManager.getInstance().getCookie(BASE_URL)
-            if (cookies.isNullOrEmpty()) {
-                return@withContext Result.failure(Exception("Not logged in"))
-            }
-            
-            val url = URL("$APIKEYS_URL/")
-            val connection = url.openConnection() as HttpURLConnection
-            connection.apply {
-                requestMethod = "POST"
-                doOutput = true
-                setRequestProperty("Cookie", cookies)
-                setRequestProperty("Content-Type", "application/x-www-form-urlencoded")
-                setRequestProperty("User-Agent", "Mozilla/5.0 (Linux; Android) AllDebridManager/1.0")
-                connectTimeout = 10000
-                readTimeout = 10000
-            }
-            
-            // Send form data with delete parameter
-            val postData = "delete=${URLEncoder.encode(apikey, "UTF-8")}"
-            OutputStreamWriter(connection.outputStream).use { writer ->
-                writer.write(postData)
-                writer.flush()
-            }
-            
-            val responseCode = connection.responseCode
-            connection.disconnect()
-            
-            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
-                Result.success(Unit)
-            } else {
-                Result.failure(Exception("Failed to delete key: HTTP $responseCode"))
+            val cookies = sessionCookies()
+                ?: return@withContext Result.failure(Exception("Not logged in"))
+
+            val request = dashboardRequest("$APIKEYS_URL/", cookies)
+                .post(form)
+                .build()
+
+            httpClient.newCall(request).execute().use { response ->
+                // 302 only surfaces if redirects are disabled; the POST itself succeeded
+                if (response.code != 200 && response.code != 302) {
+                    cache = null
+                    return@withContext Result.failure(Exception("Failed to $action: HTTP ${response.code}"))
+                }
+                // The mutation already happened; an unreadable page only costs the cache
+                val page = if (response.code == 200) {
+                    runCatching { scanKeysPage(response.body!!.source()) }.getOrNull()
+                } else null
+                if (page is PageResult.Keys) {
+                    storeKeys(cookies, page.keys)
+                } else {
+                    cache = null
+                }
             }
+            Result.success(Unit)
         } catch (e: Exception) {
-            Log.e(TAG, "Error deleting key", e)
+            Log.e(TAG, "Error trying to $action", e)
+            cache = null
             Result.failure(e)
         }
     }
-    
+
+    private fun sessionCookies(): String? {
+        return CookieManager.getInstance().getCookie(BASE_URL)?.takeIf { it.isNotEmpty() }
+    }
+
+    private fun dashboardRequest(url: String, cookies: String): Request.Builder {
+        return Request.Builder()
+            .url(url)
+            .header("Cookie", cookies)
+            .header("User-Agent", USER_AGENT)
+    }
+
+    private fun cachedKeys(cookies: String): List<ApiKeyData>? {
+        val cached = cache ?: return null
+        val fresh = SystemClock.elapsedRealtime() - cached.fetchedAt < CACHE_TTL_MS
+        return if (cached.cookies == cookies && fresh) cached.keys else null
+    }
+
+    private fun storeKeys(cookies: String, keys: List<ApiKeyData>) {
+        cache = CachedKeys(cookies, keys, SystemClock.elapsedRealtime())
+    }
+
     /**
-     * Rename an API key
+     * Read the page line by line until the `var keys = [...]` literal is
+     * complete (or a login form shows up) and leave the rest unread.
      */
-    suspend fun renameKey(apikey: String, newName: String): Result<Unit> = withContext(Dispatchers.IO) {
-        try {
-            val cookies = CookieManager.getInstance().getCookie(BASE_URL)
-            if (cookies.isNullOrEmpty()) {
-                return@withContext Result.failure(Exception("Not logged in"))
-            }
-            
-            val encodedKey = URLEncoder.encode(apikey, "UTF-8")
-            val encodedName = URLEncoder.encode(newName, "UTF-8")
-            val url = URL("$APIKEYS_URL?apikey=$encodedKey&newName=$encodedName")
-            
-            val connection = url.openConnection() as HttpURLConnection
-            connection.apply {
-                requestMethod = "GET"
-                setRequestProperty("Cookie", cookies)
-                setRequestProperty("User-Agent", "Mozilla/5.0 (Linux; Android) AllDebridManager/1.0")
-                connectTimeout = 10000
-                readTimeout = 10000
+    private fun scanKeysPage(source: BufferedSource): PageResult {
+        while (true) {
+            val line = source.readUtf8Line() ?: return PageResult.NoKeys
+            if (line.contains(LOGIN_MARKER)) return PageResult.LoginForm
+
+            val markerAt = line.indexOf(KEYS_MARKER)
+            if (markerAt < 0) continue
+
+            val json = StringBuilder()
+            val scanner = JsonArrayScanner()
+            var chunk: String = line.substring(markerAt + KEYS_MARKER.length)
+            while (true) {
+                val end = scanner.feed(chunk)
+                if (end >= 0) {
+                    json.append(chunk, 0, end + 1)
+                    return PageResult.Keys(parseKeys(json.toString()))
+                }
+                json.append(chunk).append('\n')
+                chunk = source.readUtf8Line()
+                    ?: throw Exception("Error parsing keys: unterminated keys array")
             }
-            
-            val responseCode = connection.responseCode
-            val responseText = if (responseCode == HttpURLConnection.HTTP_OK) {
-                connection.inputStream.bufferedReader().use { it.readText() }
-            } else ""
-            connection.disconnect()
-            
-            if (responseText == "Updated") {
-                Result.success(Unit)
-            } else {
-                Result.failure(Exception("Failed to rename: $responseText"))
+        }
+    }
+
+    private fun parseKeys(keysJson: String): List<ApiKeyData> {
+        try {
+            val jsonArray = JSONArray(keysJson)
+            return List(jsonArray.length()) { i ->
+                val obj = jsonArray.getJSONObject(i)
+                ApiKeyData(
+                    name = obj.optString("name", "Unnamed"),
+                    apikey = obj.getString("apikey")
+                )
             }
         } catch (e: Exception) {
-            Log.e(TAG, "Error renaming key", e)
-            Result.failure(e)
+            Log.e(TAG, "Error parsing keys JSON", e)
+            throw Exception("Error parsing keys: ${e.message}")
+        }
+    }
+
+    /**
+     * Bracket matcher for a JSON array literal fed in chunks. Brackets inside
+     * string literals (including escaped quotes) are ignored.
+     */
+    private class JsonArrayScanner {
+        private var depth = 0
+        private var started = false
+        private var inString = false
+        private var escaped = false
+
+        /**
+         * Returns the index in [chunk] of the closing `]`, or -1 if the array
+         * continues past this chunk.
+         */
+        fun feed(chunk: String): Int {
+            for (i in chunk.indices) {
+                val c = chunk[i]
+                if (inString) {
+                    when {
+                        escaped -> escaped = false
+                        c == '\\' -> escaped = true
+                        c == '"' -> inString = false
+                    }
+                    continue
+                }
+                when (c) {
+                    '"' -> inString = true
+                    '[' -> { depth++; started = true }
+                    ']' -> {
+                        depth--
+                        if (started && depth == 0) return i
+                    }
+                }
+            }
+            return -1
         }
     }
 }
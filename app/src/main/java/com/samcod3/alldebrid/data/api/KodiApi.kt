@@ -12,6 +12,17 @@ interface KodiApi {
         @Url url: String,
         @Body request: KodiRequest
     ): Response<KodiResponse>
+    
+    /**
+     * JSON-RPC 2.0 batch: one POST carrying several requests. Kodi answers
+     * with an array in which each response carries the id of its request;
+     * use [KodiCommands.batch] to give every request a distinct id.
+     */
+    @POST
+    suspend fun sendBatch(
+        @Url url: String,
+        @Body requests: List<KodiRequest>
+    ): Response<List<KodiResponse>>
 }
 
 data class KodiRequest(
@@ -23,7 +34,7 @@ data class KodiRequest(
 
 data class KodiResponse(
     val jsonrpc: String,
-    val id: Int,
+    val id: Int? = null,
     val result: Any? = null,
     val error: KodiError? = null
 )
@@ -59,6 +70,16 @@ object KodiCommands {
     
     fun getActivePlayers() = KodiRequest(method = "Player.GetActivePlayers")
     
+    fun getPlayerProperties(playerId: Int, properties: List<String>) = KodiRequest(
+        method = "Player.GetProperties",
+        params = mapOf("playerid" to playerId, "properties" to properties)
+    )
+    
+    fun getPlaylistProperties(playlistId: Int, properties: List<String>) = KodiRequest(
+        method = "Playlist.GetProperties",
+        params = mapOf("playlistid" to playlistId, "properties" to properties)
+    )
+    
     fun addToPlaylist(url: String, playlistId: Int = 1) = KodiRequest(
         method = "Playlist.Add",
         params = mapOf(
@@ -66,4 +87,20 @@ object KodiCommands {
             "item" to mapOf("file" to url)
         )
     )
+    
+    fun clearPlaylist(playlistId: Int = 1) = KodiRequest(
+        method = "Playlist.Clear",
+        params = mapOf("playlistid" to playlistId)
+    )
+    
+    fun playPlaylist(playlistId: Int = 1, position: Int = 0) = KodiRequest(
+        method = "Player.Open",
+        params = mapOf("item" to mapOf("playlistid" to playlistId, "position" to position))
+    )
+    
+    /**
+     * Number [requests] 1..n so batch responses can be matched back by id.
+     */
+    fun batch(requests: List<KodiRequest>): List<KodiRequest> =
+        requests.mapIndexed { index, request -> request.copy(id = index + 1) }
 }
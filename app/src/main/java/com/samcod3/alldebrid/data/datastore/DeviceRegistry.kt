@@ -0,0 +1,122 @@
+package com.samcod3.alldebrid.data.datastore
+
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.Serializer
+import com.samcod3.alldebrid.data.model.Device
+import com.samcod3.alldebrid.data.model.DeviceType
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Persisted device registry: every discovered device plus the one selected for casting.
+ */
+data class DeviceRegistry(
+    val devices: List<Device> = emptyList(),
+    val selectedDevice: Device? = null
+)
+
+/**
+ * Small schema'd binary format for [DeviceRegistry].
+ *
+ * Layout (big-endian, strings as modified UTF-8):
+ * ```
+ * int     MAGIC
+ * int     schema version
+ * int     device count
+ * device* devices
+ * bool    has selected device
+ * device? selected device
+ *
+ * device := id, name, address, int port, type name, ?controlUrl, ?customName
+ * ?x     := bool present, then x if present
+ * ```
+ * Older versions are read by their own branch in [readFrom] and upgraded in
+ * memory; the next write stores [CURRENT_VERSION].
+ */
+object DeviceRegistrySerializer : Serializer<DeviceRegistry> {
+
+    private const val MAGIC = 0x41444452 // "ADDR"
+    const val CURRENT_VERSION = 1
+
+    override val defaultValue: DeviceRegistry = DeviceRegistry()
+
+    override suspend fun readFrom(input: InputStream): DeviceRegistry {
+        val data = DataInputStream(input.buffered())
+        try {
+            if (data.readInt() != MAGIC) {
+                throw CorruptionException("Not a device registry file")
+            }
+            return when (val version = data.readInt()) {
+                1 -> readV1(data)
+                else -> throw CorruptionException("Unknown device registry version $version")
+            }
+        } catch (e: EOFException) {
+            throw CorruptionException("Truncated device registry", e)
+        } catch (e: IOException) {
+            throw CorruptionException("Unreadable device registry", e)
+        }
+    }
+
+    override suspend fun writeTo(t: DeviceRegistry, output: OutputStream) {
+        // DataStore owns the stream; flush but don't close it
+        val data = DataOutputStream(output.buffered())
+        data.writeInt(MAGIC)
+        data.writeInt(CURRENT_VERSION)
+        data.writeInt(t.devices.size)
+        t.devices.forEach { data.writeDevice(it) }
+        data.writeBoolean(t.selectedDevice != null)
+        t.selectedDevice?.let { data.writeDevice(it) }
+        data.flush()
+    }
+
+    private fun readV1(data: DataInputStream): DeviceRegistry {
+        val count = data.readInt()
+        if (count < 0) throw CorruptionException("Negative device count")
+        val devices = ArrayList<Device>(count)
+        repeat(count) { devices.add(data.readDevice()) }
+        val selected = if (data.readBoolean()) data.readDevice() else null
+        return DeviceRegistry(devices = devices, selectedDevice = selected)
+    }
+
+    private fun DataOutputStream.writeDevice(device: Device) {
+        writeUTF(device.id)
+        writeUTF(device.name)
+        writeUTF(device.address)
+        writeInt(device.port)
+        writeUTF(device.type.name)
+        writeNullableUTF(device.controlUrl)
+        writeNullableUTF(device.customName)
+    }
+
+    private fun DataInputStream.readDevice(): Device {
+        val id = readUTF()
+        val name = readUTF()
+        val address = readUTF()
+        val port = readInt()
+        val typeName = readUTF()
+        val controlUrl = readNullableUTF()
+        val customName = readNullableUTF()
+        return Device(
+            id = id,
+            name = name,
+            address = address,
+            port = port,
+            type = DeviceType.entries.firstOrNull { it.name == typeName } ?: DeviceType.DLNA,
+            controlUrl = controlUrl,
+            customName = customName
+        )
+    }
+
+    private fun DataOutputStream.writeNullableUTF(value: String?) {
+        writeBoolean(value != null)
+        if (value != null) writeUTF(value)
+    }
+
+    private fun DataInputStream.readNullableUTF(): String? {
+        return if (readBoolean()) readUTF() else null
+    }
+}
@@ -0,0 +1,170 @@
+package com.samcod3.alldebrid.data.datastore
+
+import android.content.Context
+import android.util.Log
+import androidx.datastore.core.DataMigration
+import androidx.datastore.core.DataStore
+import androidx.datastore.core.DataStoreFactory
+import androidx.datastore.core.handlers.ReplaceFileCorruptionHandler
+import androidx.datastore.dataStoreFile
+import com.samcod3.alldebrid.data.model.Device
+import com.samcod3.alldebrid.di.ApplicationScope
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.map
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Typed store for discovered devices and the selected device.
+ *
+ * Backed by a DataStore file in [DeviceRegistrySerializer]'s binary format, so
+ * names containing separators round-trip safely and nothing is re-parsed on
+ * each read. Mutations are expressed per device; callers never rebuild the
+ * whole list themselves. Edits land in memory at once and reach disk in
+ * batches through [WriteBehindStore].
+ */
+@Singleton
+class DeviceRegistryStore @Inject constructor(
+    @ApplicationContext context: Context,
+    settingsDataStore: SettingsDataStore,
+    @ApplicationScope scope: CoroutineScope
+) {
+
+    companion object {
+        private const val TAG = "DeviceRegistryStore"
+        private const val FILE_NAME = "device_registry.bin"
+    }
+
+    private val store = WriteBehindStore(
+        dataStore = createDataStore(context, settingsDataStore),
+        scope = scope,
+        defaultValue = DeviceRegistry(),
+        name = "device registry"
+    )
+
+    /**
+     * Hot registry including unflushed edits; null until the file has been read once.
+     */
+    val registry: StateFlow<DeviceRegistry?> = store.state
+
+    val devices: Flow<List<Device>> = registry.filterNotNull()
+        .map { it.devices }
+        .distinctUntilChanged()
+
+    val selectedDevice: Flow<Device?> = registry.filterNotNull()
+        .map { it.selectedDevice }
+        .distinctUntilChanged()
+
+    suspend fun snapshot(): DeviceRegistry = store.current()
+
+    private fun createDataStore(
+        context: Context,
+        settingsDataStore: SettingsDataStore
+    ): DataStore<DeviceRegistry> = DataStoreFactory.create(
+        serializer = DeviceRegistrySerializer,
+        corruptionHandler = ReplaceFileCorruptionHandler { DeviceRegistry() },
+        migrations = listOf(LegacyPreferencesMigration(settingsDataStore)),
+        produceFile = { context.dataStoreFile(FILE_NAME) }
+    )
+
+    /**
+     * Replace the device list (e.g. after a discovery run). Nothing is queued
+     * for disk if the merged list is unchanged.
+     */
+    fun replaceDevices(devices: List<Device>) {
+        update { it.copy(devices = devices) }
+    }
+
+    fun upsertDevice(device: Device) {
+        update { registry ->
+            val index = registry.devices.indexOfFirst { it.id == device.id }
+            val devices = if (index >= 0) {
+                registry.devices.toMutableList().apply { set(index, device) }
+            } else {
+                registry.devices + device
+            }
+            registry.copy(devices = devices, selectedDevice = registry.selectedDevice.refreshedBy(device))
+        }
+    }
+
+    fun removeDevice(deviceId: String) {
+        update { registry ->
+            registry.copy(devices = registry.devices.filterNot { it.id == deviceId })
+        }
+    }
+
+    /**
+     * Set or clear a device's custom name, in the list and in the selection.
+     */
+    fun renameDevice(deviceId: String, customName: String?) {
+        update { registry ->
+            registry.copy(
+                devices = registry.devices.map {
+                    if (it.id == deviceId) it.copy(customName = customName) else it
+                },
+                selectedDevice = registry.selectedDevice?.let {
+                    if (it.id == deviceId) it.copy(customName = customName) else it
+                }
+            )
+        }
+    }
+
+    fun selectDevice(device: Device) {
+        update { it.copy(selectedDevice = device) }
+    }
+
+    fun clearSelectedDevice() {
+        update { it.copy(selectedDevice = null) }
+    }
+
+    /**
+     * Write any buffered edits to disk now.
+     */
+    suspend fun flush() {
+        store.flush()
+    }
+
+    private fun update(transform: (DeviceRegistry) -> DeviceRegistry) {
+        store.update(transform)
+    }
+
+    private fun Device?.refreshedBy(device: Device): Device? {
+        return if (this?.id == device.id) device else this
+    }
+
+    /**
+     * One-time import of the `|`/`,`-joined device cache and the six
+     * selected-device keys that older versions kept in Preferences.
+     */
+    private class LegacyPreferencesMigration(
+        private val settingsDataStore: SettingsDataStore
+    ) : DataMigration<DeviceRegistry> {
+
+        private var legacy: DeviceRegistry? = null
+
+        override suspend fun shouldMigrate(currentData: DeviceRegistry): Boolean {
+            legacy = settingsDataStore.readLegacyDeviceRegistry()
+            return legacy != null
+        }
+
+        override suspend fun migrate(currentData: DeviceRegistry): DeviceRegistry {
+            val imported = legacy ?: return currentData
+            Log.d(TAG, "Migrating ${imported.devices.size} devices from Preferences")
+            return DeviceRegistry(
+                devices = currentData.devices + imported.devices.filter { old ->
+                    currentData.devices.none { it.id == old.id }
+                },
+                selectedDevice = currentData.selectedDevice ?: imported.selectedDevice
+            )
+        }
+
+        override suspend fun cleanUp() {
+            settingsDataStore.clearLegacyDeviceRegistry()
+        }
+    }
+}
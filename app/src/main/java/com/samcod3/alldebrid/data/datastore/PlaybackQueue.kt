@@ -0,0 +1,98 @@
+package com.samcod3.alldebrid.data.datastore
+
+import androidx.datastore.core.CorruptionException
+import androidx.datastore.core.Serializer
+import com.samcod3.alldebrid.data.repository.DlnaQueueItem
+import kotlinx.collections.immutable.PersistentList
+import kotlinx.collections.immutable.persistentListOf
+import kotlinx.collections.immutable.toPersistentList
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Persisted DLNA playback queue and the device it was being played on.
+ */
+data class PlaybackQueue(
+    val items: PersistentList<DlnaQueueItem> = persistentListOf(),
+    val deviceId: String? = null
+)
+
+/**
+ * Binary format for [PlaybackQueue], in the same style as
+ * [DeviceRegistrySerializer].
+ *
+ * Layout (big-endian, strings as modified UTF-8):
+ * ```
+ * int     MAGIC
+ * int     schema version
+ * int     item count
+ * item*   items
+ * ?string device id
+ *
+ * item := id, url, title, long addedAt
+ * ?x   := bool present, then x if present
+ * ```
+ */
+object PlaybackQueueSerializer : Serializer<PlaybackQueue> {
+
+    private const val MAGIC = 0x41445051 // "ADPQ"
+    const val CURRENT_VERSION = 1
+
+    override val defaultValue: PlaybackQueue = PlaybackQueue()
+
+    override suspend fun readFrom(input: InputStream): PlaybackQueue {
+        val data = DataInputStream(input.buffered())
+        try {
+            if (data.readInt() != MAGIC) {
+                throw CorruptionException("Not a playback queue file")
+            }
+            return when (val version = data.readInt()) {
+                1 -> readV1(data)
+                else -> throw CorruptionException("Unknown playback queue version $version")
+            }
+        } catch (e: EOFException) {
+            throw CorruptionException("Truncated playback queue", e)
+        } catch (e: IOException) {
+            throw CorruptionException("Unreadable playback queue", e)
+        }
+    }
+
+    override suspend fun writeTo(t: PlaybackQueue, output: OutputStream) {
+        // DataStore owns the stream; flush but don't close it
+        val data = DataOutputStream(output.buffered())
+        data.writeInt(MAGIC)
+        data.writeInt(CURRENT_VERSION)
+        data.writeInt(t.items.size)
+        t.items.forEach { item ->
+            data.writeUTF(item.id)
+            data.writeUTF(item.url)
+            data.writeUTF(item.title)
+            data.writeLong(item.addedAt)
+        }
+        data.writeBoolean(t.deviceId != null)
+        t.deviceId?.let { data.writeUTF(it) }
+        data.flush()
+    }
+
+    private fun readV1(data: DataInputStream): PlaybackQueue {
+        val count = data.readInt()
+        if (count < 0) throw CorruptionException("Negative queue size")
+        val items = ArrayList<DlnaQueueItem>(count)
+        repeat(count) {
+            items.add(
+                DlnaQueueItem(
+                    id = data.readUTF(),
+                    url = data.readUTF(),
+                    title = data.readUTF(),
+                    addedAt = data.readLong()
+                )
+            )
+        }
+        val deviceId = if (data.readBoolean()) data.readUTF() else null
+        return PlaybackQueue(items = items.toPersistentList(), deviceId = deviceId)
+    }
+}
@@ -2,25 +2,49 @@ package com.samcod3.alldebrid.data.datastore
 
 import android.content.Context
 import androidx.datastore.core.DataStore
+import androidx.datastore.preferences.core.MutablePreferences
 import androidx.datastore.preferences.core.Preferences
 import androidx.datastore.preferences.core.booleanPreferencesKey
-import androidx.datastore.preferences.core.edit
+import androidx.datastore.preferences.core.emptyPreferences
 import androidx.datastore.preferences.core.intPreferencesKey
 import androidx.datastore.preferences.core.stringPreferencesKey
 import androidx.datastore.preferences.preferencesDataStore
 import com.samcod3.alldebrid.data.model.Device
 import com.samcod3.alldebrid.data.model.DeviceType
+import com.samcod3.alldebrid.di.ApplicationScope
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.stateIn
 import javax.inject.Inject
 import javax.inject.Singleton
 
 private val Context.dataStore: DataStore<Preferences> by preferencesDataStore(name = "settings")
 
+/**
+ * Typed, in-memory view of every persisted setting.
+ * [isLoaded] is false only for the placeholder emitted before the first disk read.
+ */
+data class Settings(
+    val apiKey: String = "",
+    val jackettUrl: String = "",
+    val jackettApiKey: String = "",
+    val useCustomIpRange: Boolean = false,
+    val customIpPrefix: String = "",
+    val useMediaRelay: Boolean = false,
+    val isLoaded: Boolean = false
+)
+
 @Singleton
 class SettingsDataStore @Inject constructor(
-    @ApplicationContext private val context: Context
+    @ApplicationContext private val context: Context,
+    @ApplicationScope scope: CoroutineScope
 ) {
     
     companion object {
@@ -32,10 +56,12 @@ class SettingsDataStore @Inject constructor(
         private val USE_CUSTOM_IP_RANGE = booleanPreferencesKey("use_custom_ip_range")
         private val CUSTOM_IP_PREFIX = stringPreferencesKey("custom_ip_prefix")
         
-        // Discovered Devices Cache (JSON)
+        // Streaming
+        private val USE_MEDIA_RELAY = booleanPreferencesKey("use_media_relay")
+        
+        // Legacy device storage, migrated into DeviceRegistryStore
         private val DISCOVERED_DEVICES_CACHE = stringPreferencesKey("discovered_devices_cache")
         
-        // Selected Device
         private val SEL_DEV_ID = stringPreferencesKey("sel_dev_id")
         private val SEL_DEV_NAME = stringPreferencesKey("sel_dev_name")
         private val SEL_DEV_ADDRESS = stringPreferencesKey("sel_dev_address")
@@ -44,89 +70,118 @@ class SettingsDataStore @Inject constructor(
         private val SEL_DEV_CONTROL_URL = stringPreferencesKey("sel_dev_control_url")
     }
     
-    val apiKey: Flow<String> = context.dataStore.data.map { preferences ->
-        preferences[API_KEY] ?: ""
-    }
+    // Last decoded preferences, so repeated snapshots skip toSettings()
+    @Volatile
+    private var decoded: Pair<Preferences, Settings>? = null
     
-    val jackettUrl: Flow<String> = context.dataStore.data.map { preferences ->
-        preferences[JACKETT_URL] ?: ""
-    }
+    // Write-behind: reads come from memory, bursts of edits share one disk write
+    private val store = WriteBehindStore(
+        dataStore = context.dataStore,
+        scope = scope,
+        defaultValue = emptyPreferences(),
+        name = "settings"
+    )
+    
+    /**
+     * Hot, app-scoped snapshot of all settings. Preferences are decoded once per
+     * change instead of once per read, so hot paths just read a field.
+     */
+    val settings: StateFlow<Settings> = store.state
+        .filterNotNull()
+        .map { prefs -> decode(prefs) }
+        .stateIn(scope, SharingStarted.Eagerly, Settings())
+    
+    private val loadedSettings: Flow<Settings> = settings.filter { it.isLoaded }
+    
+    /**
+     * Current settings including edits not yet flushed, waiting only for the
+     * very first disk read.
+     */
+    suspend fun snapshot(): Settings = decode(store.current())
+    
+    val apiKey: Flow<String> = loadedSettings.map { it.apiKey }.distinctUntilChanged()
     
-    val jackettApiKey: Flow<String> = context.dataStore.data.map { preferences ->
-        preferences[JACKETT_API_KEY] ?: ""
+    val jackettUrl: Flow<String> = loadedSettings.map { it.jackettUrl }.distinctUntilChanged()
+    
+    val jackettApiKey: Flow<String> = loadedSettings.map { it.jackettApiKey }.distinctUntilChanged()
+    
+    val useCustomIpRange: Flow<Boolean> = loadedSettings.map { it.useCustomIpRange }.distinctUntilChanged()
+    
+    val customIpPrefix: Flow<String> = loadedSettings.map { it.customIpPrefix }.distinctUntilChanged()
+    
+    private fun decode(prefs: Preferences): Settings {
+        decoded?.let { (source, settings) -> if (source === prefs) return settings }
+        return prefs.toSettings().also { decoded = prefs to it }
     }
     
-    val useCustomIpRange: Flow<Boolean> = context.dataStore.data.map { preferences ->
-        preferences[USE_CUSTOM_IP_RANGE] ?: false
+    private fun Preferences.toSettings(): Settings {
+        return Settings(
+            apiKey = this[API_KEY] ?: "",
+            jackettUrl = this[JACKETT_URL] ?: "",
+            jackettApiKey = this[JACKETT_API_KEY] ?: "",
+            useCustomIpRange = this[USE_CUSTOM_IP_RANGE] ?: false,
+            customIpPrefix = this[CUSTOM_IP_PREFIX] ?: "",
+            useMediaRelay = this[USE_MEDIA_RELAY] ?: false,
+            isLoaded = true
+        )
     }
     
-    val customIpPrefix: Flow<String> = context.dataStore.data.map { preferences ->
-        preferences[CUSTOM_IP_PREFIX] ?: ""
+    private fun update(mutation: (MutablePreferences) -> Unit) {
+        store.update { prefs -> prefs.toMutablePreferences().apply(mutation).toPreferences() }
     }
     
-    val selectedDevice: Flow<Device?> = context.dataStore.data.map { prefs ->
-        val id = prefs[SEL_DEV_ID]
-        val name = prefs[SEL_DEV_NAME]
-        val address = prefs[SEL_DEV_ADDRESS]
-        val port = prefs[SEL_DEV_PORT]
-        val typeStr = prefs[SEL_DEV_TYPE]
-        val controlUrl = prefs[SEL_DEV_CONTROL_URL]
-        
-        if (id != null && name != null && address != null && port != null && typeStr != null) {
-            try {
-                Device(
-                    id = id,
-                    name = name,
-                    address = address,
-                    port = port,
-                    type = DeviceType.valueOf(typeStr),
-                    controlUrl = controlUrl
-                )
-            } catch (e: Exception) {
-                null
-            }
-        } else {
-            null
-        }
+    /**
+     * Write any buffered edits to disk now.
+     */
+    suspend fun flush() {
+        store.flush()
     }
     
-    suspend fun saveApiKey(apiKey: String) {
-        context.dataStore.edit { preferences ->
+    fun saveApiKey(apiKey: String) {
+        update { preferences ->
             preferences[API_KEY] = apiKey
         }
     }
     
-    suspend fun saveJackettConfig(url: String, apiKey: String) {
-        context.dataStore.edit { preferences ->
+    fun saveJackettConfig(url: String, apiKey: String) {
+        update { preferences ->
             preferences[JACKETT_URL] = url
             preferences[JACKETT_API_KEY] = apiKey
         }
     }
     
-    suspend fun saveCustomIpRange(enabled: Boolean, ipPrefix: String) {
-        context.dataStore.edit { preferences ->
+    fun saveCustomIpRange(enabled: Boolean, ipPrefix: String) {
+        update { preferences ->
             preferences[USE_CUSTOM_IP_RANGE] = enabled
             preferences[CUSTOM_IP_PREFIX] = ipPrefix
         }
     }
     
-    suspend fun saveSelectedDevice(device: Device) {
-        context.dataStore.edit { prefs ->
-            prefs[SEL_DEV_ID] = device.id
-            prefs[SEL_DEV_NAME] = device.name
-            prefs[SEL_DEV_ADDRESS] = device.address
-            prefs[SEL_DEV_PORT] = device.port
-            prefs[SEL_DEV_TYPE] = device.type.name
-            if (device.controlUrl != null) {
-                prefs[SEL_DEV_CONTROL_URL] = device.controlUrl
-            } else {
-                prefs.remove(SEL_DEV_CONTROL_URL)
-            }
+    fun saveUseMediaRelay(enabled: Boolean) {
+        update { preferences ->
+            preferences[USE_MEDIA_RELAY] = enabled
         }
     }
     
-    suspend fun clearSelectedDevice() {
-        context.dataStore.edit { prefs ->
+    /**
+     * Device list and selected device as written by older versions, or null if
+     * there is nothing left to migrate.
+     */
+    suspend fun readLegacyDeviceRegistry(): DeviceRegistry? {
+        val prefs = store.current()
+        val serialized = prefs[DISCOVERED_DEVICES_CACHE]
+        val selected = readSelectedDevice(prefs)
+        if (serialized == null && prefs[SEL_DEV_ID] == null) return null
+        
+        return DeviceRegistry(
+            devices = parseLegacyDevices(serialized ?: ""),
+            selectedDevice = selected
+        )
+    }
+    
+    suspend fun clearLegacyDeviceRegistry() {
+        update { prefs ->
+            prefs.remove(DISCOVERED_DEVICES_CACHE)
             prefs.remove(SEL_DEV_ID)
             prefs.remove(SEL_DEV_NAME)
             prefs.remove(SEL_DEV_ADDRESS)
@@ -134,59 +189,65 @@ class SettingsDataStore @Inject constructor(
             prefs.remove(SEL_DEV_TYPE)
             prefs.remove(SEL_DEV_CONTROL_URL)
         }
+        store.flush()
     }
     
-    suspend fun saveDiscoveredDevices(devices: List<Device>) {
-        // Simple serialization: device1|device2|device3
-        // Each device: id,name,address,port,type,controlUrl
-        val serialized = devices.joinToString("|") { device ->
-            listOf(
-                device.id,
-                device.name,
-                device.address,
-                device.port.toString(),
-                device.type.name,
-                device.controlUrl ?: ""
-            ).joinToString(",")
-        }
-        context.dataStore.edit { prefs ->
-            prefs[DISCOVERED_DEVICES_CACHE] = serialized
+    // Old format: device1|device2|device3, each device id,name,address,port,type,controlUrl
+    private fun parseLegacyDevices(serialized: String): List<Device> {
+        if (serialized.isBlank()) return emptyList()
+        return try {
+            serialized.split("|").mapNotNull { deviceStr ->
+                val parts = deviceStr.split(",")
+                if (parts.size >= 5) {
+                    Device(
+                        id = parts[0],
+                        name = parts[1],
+                        address = parts[2],
+                        port = parts[3].toIntOrNull() ?: 8080,
+                        type = try {
+                            DeviceType.valueOf(parts[4])
+                        } catch (e: Exception) {
+                            DeviceType.DLNA
+                        },
+                        controlUrl = parts.getOrNull(5)?.takeIf { it.isNotBlank() }
+                    )
+                } else {
+                    null
+                }
+            }
+        } catch (e: Exception) {
+            emptyList()
         }
     }
     
-    fun getDiscoveredDevicesCache(): Flow<List<Device>> = context.dataStore.data.map { prefs ->
-        val serialized = prefs[DISCOVERED_DEVICES_CACHE] ?: ""
-        if (serialized.isBlank()) {
-            emptyList()
-        } else {
+    private fun readSelectedDevice(prefs: Preferences): Device? {
+        val id = prefs[SEL_DEV_ID]
+        val name = prefs[SEL_DEV_NAME]
+        val address = prefs[SEL_DEV_ADDRESS]
+        val port = prefs[SEL_DEV_PORT]
+        val typeStr = prefs[SEL_DEV_TYPE]
+        val controlUrl = prefs[SEL_DEV_CONTROL_URL]
+        
+        return if (id != null && name != null && address != null && port != null && typeStr != null) {
             try {
-                serialized.split("|").mapNotNull { deviceStr ->
-                    val parts = deviceStr.split(",")
-                    if (parts.size >= 5) {
-                        Device(
-                            id = parts[0],
-                            name = parts[1],
-                            address = parts[2],
-                            port = parts[3].toIntOrNull() ?: 8080,
-                            type = try {
-                                DeviceType.valueOf(parts[4])
-                            } catch (e: Exception) {
-                                DeviceType.DLNA
-                            },
-                            controlUrl = parts.getOrNull(5)?.takeIf { it.isNotBlank() }
-                        )
-                    } else {
-                        null
-                    }
-                }
+                Device(
+                    id = id,
+                    name = name,
+                    address = address,
+                    port = port,
+                    type = DeviceType.valueOf(typeStr),
+                    controlUrl = controlUrl
+                )
             } catch (e: Exception) {
-                emptyList()
+                null
             }
+        } else {
+            null
         }
     }
     
-    suspend fun clearAll() {
-        context.dataStore.edit { preferences ->
+    fun clearAll() {
+        update { preferences ->
             preferences.clear()
         }
     }
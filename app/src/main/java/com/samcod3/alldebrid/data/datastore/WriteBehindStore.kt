@@ -0,0 +1,157 @@
+package com.samcod3.alldebrid.data.datastore
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.datastore.core.DataStore
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.IOException
+
+/**
+ * Write-behind front for a [DataStore] that this process owns exclusively.
+ *
+ * The file is read once; after that [state] is the source of truth. [update]
+ * applies a transform in memory immediately and queues it for disk. Transforms
+ * queued within [debounceMs] of each other (and at most [maxDelayMs] after the
+ * first one) are replayed in a single `updateData`, so a burst of edits costs
+ * one file rewrite. Call [flush] to persist right away, e.g. when the app goes
+ * to the background.
+ */
+class WriteBehindStore<T>(
+    private val dataStore: DataStore<T>,
+    private val scope: CoroutineScope,
+    defaultValue: T,
+    private val name: String,
+    private val debounceMs: Long = DEFAULT_DEBOUNCE_MS,
+    private val maxDelayMs: Long = DEFAULT_MAX_DELAY_MS
+) {
+
+    companion object {
+        private const val TAG = "WriteBehindStore"
+        const val DEFAULT_DEBOUNCE_MS = 300L
+        const val DEFAULT_MAX_DELAY_MS = 1_000L
+        
+        // Backoff between retries of a failed write
+        private const val RETRY_BASE_MS = 1_000L
+        private const val RETRY_MAX_MS = 60_000L
+    }
+
+    private val lock = Any()
+    private val writeMutex = Mutex()
+
+    // Transforms applied in memory but not yet on disk, oldest first
+    private val pending = ArrayList<(T) -> T>()
+    private var scheduled: Job? = null
+    private var firstQueuedAt = 0L
+    private var failedWrites = 0
+
+    private val _state = MutableStateFlow<T?>(null)
+
+    /**
+     * Current value including unflushed edits; null until the file has been read.
+     */
+    val state: StateFlow<T?> = _state.asStateFlow()
+
+    init {
+        scope.launch {
+            val persisted = dataStore.data
+                .catch { e ->
+                    if (e is IOException) emit(defaultValue) else throw e
+                }
+                .first()
+            synchronized(lock) {
+                // Edits posted before the first read are replayed on top of it
+                _state.value = pending.fold(persisted) { value, transform -> transform(value) }
+            }
+        }
+    }
+
+    suspend fun current(): T = state.filterNotNull().first()
+
+    /**
+     * Apply [transform] in memory now and schedule it for disk. A transform
+     * that leaves the loaded value unchanged is dropped without a write.
+     */
+    fun update(transform: (T) -> T) {
+        synchronized(lock) {
+            val loaded = _state.value
+            if (loaded != null) {
+                val updated = transform(loaded)
+                if (updated == loaded) return
+                _state.value = updated
+            }
+            pending.add(transform)
+            schedule()
+        }
+    }
+
+    /**
+     * Persist every queued edit now. Never cancelled half-way: once a batch is
+     * taken it is written, or kept and retried with backoff if the write fails.
+     */
+    suspend fun flush() {
+        withContext(NonCancellable) {
+            // Let the initial read replay early edits before they leave pending
+            current()
+            writeMutex.withLock {
+                val batch = synchronized(lock) {
+                    scheduled?.cancel()
+                    scheduled = null
+                    pending.toList()
+                }
+                if (batch.isEmpty()) return@withLock
+                try {
+                    dataStore.updateData { persisted ->
+                        batch.fold(persisted) { value, transform -> transform(value) }
+                    }
+                    synchronized(lock) {
+                        // Only flush() removes entries, so the batch is still the prefix
+                        pending.subList(0, batch.size).clear()
+                        failedWrites = 0
+                    }
+                } catch (e: Exception) {
+                    // Kept in pending; retried later unless an update schedules a write first
+                    Log.e(TAG, "$name: write of ${batch.size} edits failed", e)
+                    synchronized(lock) {
+                        failedWrites++
+                        if (scheduled == null) scheduleRetry()
+                    }
+                }
+            }
+        }
+    }
+
+    // Caller holds [lock]
+    private fun schedule() {
+        val now = SystemClock.elapsedRealtime()
+        if (scheduled == null) firstQueuedAt = now
+        scheduled?.cancel()
+        val wait = minOf(debounceMs, maxDelayMs - (now - firstQueuedAt)).coerceAtLeast(0L)
+        scheduled = scope.launch {
+            delay(wait)
+            flush()
+        }
+    }
+
+    // Caller holds [lock]
+    private fun scheduleRetry() {
+        val wait = minOf(RETRY_MAX_MS, RETRY_BASE_MS shl minOf(failedWrites - 1, 6))
+        firstQueuedAt = SystemClock.elapsedRealtime() + wait
+        scheduled = scope.launch {
+            delay(wait)
+            flush()
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.samcod3.alldebrid.data.db
+
+import androidx.room.Database
+import androidx.room.RoomDatabase
+
+/**
+ * Local copy of the account's magnets, paged into the downloads list.
+ * Rebuilt from the API, so schema changes just drop it.
+ */
+@Database(
+    entities = [MagnetEntity::class, MagnetSubsetEntity::class, MagnetOwnerEntity::class],
+    version = 3,
+    exportSchema = false
+)
+abstract class AppDatabase : RoomDatabase() {
+
+    abstract fun magnetDao(): MagnetDao
+
+    companion object {
+        const val NAME = "alldebrid.db"
+    }
+}
@@ -0,0 +1,128 @@
+package com.samcod3.alldebrid.data.db
+
+import androidx.paging.PagingSource
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
+import kotlinx.coroutines.flow.Flow
+
+@Dao
+abstract class MagnetDao {
+
+    companion object {
+        // Stays under SQLite's 999 bound parameters on older Android versions
+        private const val MAX_IDS_PER_QUERY = 500
+    }
+
+    @Query("SELECT * FROM magnets WHERE subset IN (:subsets) ORDER BY id DESC")
+    abstract fun page(subsets: List<String>): PagingSource<Int, MagnetEntity>
+
+    // A substring can't use an index; the subset index still narrows the scan
+    @Query(
+        """
+        SELECT * FROM magnets
+        WHERE subset IN (:subsets) AND searchName LIKE :pattern
+        ORDER BY id DESC
+        """
+    )
+    abstract fun search(subsets: List<String>, pattern: String): PagingSource<Int, MagnetEntity>
+
+    @Query("SELECT subset, COUNT(*) AS count FROM magnets GROUP BY subset")
+    abstract fun observeCounts(): Flow<List<SubsetCount>>
+
+    @Query("SELECT * FROM magnets WHERE id IN (:ids)")
+    abstract suspend fun byIds(ids: List<Long>): List<MagnetEntity>
+
+    @Query("SELECT * FROM magnets WHERE hash = :hash LIMIT 1")
+    abstract suspend fun byHash(hash: String): MagnetEntity?
+
+    @Query("SELECT id, statusCode FROM magnets WHERE id IN (:ids)")
+    protected abstract suspend fun statusesChunk(ids: List<Long>): List<MagnetStatusRow>
+
+    @Query("SELECT id FROM magnets WHERE subset = :subset")
+    abstract suspend fun idsIn(subset: String): List<Long>
+
+    @Query("SELECT subset FROM magnets WHERE id = :id")
+    abstract suspend fun subsetOf(id: Long): String?
+
+    @Upsert
+    abstract suspend fun upsert(magnets: List<MagnetEntity>)
+
+    @Query("DELETE FROM magnets WHERE id IN (:ids)")
+    protected abstract suspend fun deleteChunk(ids: List<Long>)
+
+    @Query("DELETE FROM magnets")
+    protected abstract suspend fun deleteMagnets()
+
+    @Query("SELECT fetchedAt FROM magnet_subsets WHERE subset = :subset")
+    abstract suspend fun fetchedAt(subset: String): Long?
+
+    @Upsert
+    protected abstract suspend fun markFetched(subsets: List<MagnetSubsetEntity>)
+
+    @Query("DELETE FROM magnet_subsets")
+    protected abstract suspend fun deleteSubsets()
+
+    @Query("DELETE FROM magnet_subsets WHERE subset IN (:subsets)")
+    abstract suspend fun markStale(subsets: List<String>)
+
+    @Query("SELECT keyHash FROM magnet_owner WHERE id = 0")
+    abstract suspend fun owner(): String?
+
+    @Upsert
+    protected abstract suspend fun setOwner(owner: MagnetOwnerEntity)
+
+    suspend fun statuses(ids: Collection<Long>): List<MagnetStatusRow> {
+        return ids.chunked(MAX_IDS_PER_QUERY).flatMap { statusesChunk(it) }
+    }
+
+    @Transaction
+    open suspend fun delete(ids: Collection<Long>) {
+        ids.chunked(MAX_IDS_PER_QUERY).forEach { deleteChunk(it) }
+    }
+
+    /**
+     * Make [magnets] the whole of [subset], fetched at [fetchedAt]. Returns
+     * the ids that were in it and no longer are; those rows are deleted until
+     * another subset lists them again.
+     */
+    @Transaction
+    open suspend fun replaceSubset(subset: String, magnets: List<MagnetEntity>, fetchedAt: Long): Set<Long> {
+        val listed = magnets.mapTo(HashSet()) { it.id }
+        val left = idsIn(subset).filterNotTo(HashSet()) { it in listed }
+        delete(left)
+        upsert(magnets)
+        markFetched(listOf(MagnetSubsetEntity(subset, fetchedAt)))
+        return left
+    }
+
+    /**
+     * Replace every magnet; only [fresh] subsets are marked fetched at [fetchedAt].
+     */
+    @Transaction
+    open suspend fun replaceAll(magnets: List<MagnetEntity>, fresh: Collection<String>, fetchedAt: Long) {
+        deleteMagnets()
+        upsert(magnets)
+        markFetched(fresh.map { MagnetSubsetEntity(it, fetchedAt) })
+    }
+
+    @Transaction
+    protected open suspend fun deleteAll() {
+        deleteMagnets()
+        deleteSubsets()
+    }
+
+    /**
+     * Make [keyHash] the owner of the stored magnets, dropping them first if
+     * they belong to another key. Returns whether anything was dropped.
+     */
+    @Transaction
+    open suspend fun claim(keyHash: String): Boolean {
+        val current = owner()
+        if (current == keyHash) return false
+        deleteAll()
+        setOwner(MagnetOwnerEntity(keyHash = keyHash))
+        return current != null
+    }
+}
@@ -0,0 +1,83 @@
+package com.samcod3.alldebrid.data.db
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import com.samcod3.alldebrid.data.model.Magnet
+
+/**
+ * One magnet of the account. [subset] is the `magnet/status` subset it was
+ * last fetched with; the list's chips and counts query it.
+ */
+@Entity(
+    tableName = "magnets",
+    indices = [
+        Index(value = ["subset", "id"]),
+        Index(value = ["hash"])
+    ]
+)
+data class MagnetEntity(
+    @PrimaryKey val id: Long,
+    val filename: String,
+    // Normalized filename, matched by the search field
+    val searchName: String,
+    // Lowercase, so lookups by infohash can use the index
+    val hash: String?,
+    val size: Long,
+    val status: String,
+    val statusCode: Int,
+    val downloaded: Long,
+    val uploaded: Long,
+    val seeders: Int,
+    val downloadSpeed: Long,
+    val uploadSpeed: Long,
+    val uploadDate: Long,
+    val completionDate: Long?,
+    val subset: String
+) {
+    fun toMagnet(): Magnet = Magnet(
+        id = id,
+        filename = filename,
+        hash = hash,
+        size = size,
+        status = status,
+        statusCode = statusCode,
+        downloaded = downloaded,
+        uploaded = uploaded,
+        seeders = seeders,
+        downloadSpeed = downloadSpeed,
+        uploadSpeed = uploadSpeed,
+        uploadDate = uploadDate,
+        completionDate = completionDate
+    )
+
+    companion object {
+        fun of(magnet: Magnet, subset: String): MagnetEntity = MagnetEntity(
+            id = magnet.id,
+            filename = magnet.filename,
+            searchName = MagnetSearch.normalize(magnet.filename),
+            hash = magnet.hash?.lowercase(),
+            size = magnet.size,
+            status = magnet.status,
+            statusCode = magnet.statusCode,
+            downloaded = magnet.downloaded,
+            uploaded = magnet.uploaded,
+            seeders = magnet.seeders,
+            downloadSpeed = magnet.downloadSpeed,
+            uploadSpeed = magnet.uploadSpeed,
+            uploadDate = magnet.uploadDate,
+            completionDate = magnet.completionDate,
+            subset = subset
+        )
+    }
+}
+
+data class SubsetCount(
+    val subset: String,
+    val count: Int
+)
+
+data class MagnetStatusRow(
+    val id: Long,
+    val statusCode: Int
+)
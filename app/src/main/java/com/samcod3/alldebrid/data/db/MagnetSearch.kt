@@ -0,0 +1,31 @@
+package com.samcod3.alldebrid.data.db
+
+import java.text.Normalizer
+import java.util.Locale
+
+/**
+ * Name normalization shared by the stored [MagnetEntity.searchName] and the
+ * queries run against it: casefolded, accents and punctuation stripped.
+ */
+object MagnetSearch {
+
+    private val COMBINING_MARKS = Regex("""\p{Mn}+""")
+    private val SEPARATORS = Regex("""[^\p{L}\p{N}]+""")
+
+    fun normalize(text: String): String {
+        val decomposed = Normalizer.normalize(text, Normalizer.Form.NFD)
+        val stripped = COMBINING_MARKS.replace(decomposed, "").lowercase(Locale.ROOT)
+        return SEPARATORS.replace(stripped, " ").trim()
+    }
+
+    /**
+     * `LIKE` pattern matching names that contain [query] anywhere, or null
+     * when the query has no letters or digits. Normalized text has no `%` or
+     * `_`, so nothing needs escaping.
+     */
+    fun likePattern(query: String): String? {
+        val normalized = normalize(query)
+        if (normalized.isEmpty()) return null
+        return "%$normalized%"
+    }
+}
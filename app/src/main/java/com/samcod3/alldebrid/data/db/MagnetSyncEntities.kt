@@ -0,0 +1,23 @@
+package com.samcod3.alldebrid.data.db
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * When [subset] was last listed in full, in wall-clock millis, so a restart
+ * can still tell whether the stored rows need refetching.
+ */
+@Entity(tableName = "magnet_subsets")
+data class MagnetSubsetEntity(
+    @PrimaryKey val subset: String,
+    val fetchedAt: Long
+)
+
+/**
+ * Account the stored magnets belong to, as a hash of its API key. Single row.
+ */
+@Entity(tableName = "magnet_owner")
+data class MagnetOwnerEntity(
+    @PrimaryKey val id: Int = 0,
+    val keyHash: String
+)
@@ -0,0 +1,163 @@
+package com.samcod3.alldebrid.data.dlna
+
+import java.net.URL
+
+/**
+ * Where a renderer exposes its AVTransport service, as listed in its device
+ * description. [eventSubUrl] is null for renderers that do not offer eventing.
+ */
+data class AvTransportEndpoints(
+    val controlUrl: String,
+    val eventSubUrl: String?,
+    val scpdUrl: String?
+)
+
+/**
+ * The parts of a `LastChange` event we act on; null fields did not change.
+ */
+data class AvTransportEvent(
+    val transportState: String?,
+    val currentUri: String?
+)
+
+/**
+ * A control request answered with an HTTP error. [upnpErrorCode] is the
+ * `errorCode` of the SOAP fault when the body carried one.
+ */
+class SoapFaultException(
+    val httpCode: Int,
+    val upnpErrorCode: Int?,
+    message: String
+) : Exception(message)
+
+/**
+ * UPnP AVTransport helpers: description parsing, `LastChange` decoding and
+ * the state/preload actions. Parsed with regexes like the rest of the
+ * SSDP/description handling; renderers' XML is simple and often not strict.
+ */
+object AvTransport {
+
+    const val SERVICE_TYPE = "urn:schemas-upnp-org:service:AVTransport:1"
+
+    const val STATE_PLAYING = "PLAYING"
+    const val STATE_STOPPED = "STOPPED"
+    const val STATE_NO_MEDIA = "NO_MEDIA_PRESENT"
+
+    const val ACTION_SET_NEXT_URI = "SetNextAVTransportURI"
+
+    // UPnP fault codes meaning the renderer does not have the action at all
+    const val ERROR_INVALID_ACTION = 401
+    const val ERROR_NOT_IMPLEMENTED = 602
+
+    private val SERVICE_BLOCK = Regex("<service>(.*?)</service>", setOf(RegexOption.IGNORE_CASE, RegexOption.DOT_MATCHES_ALL))
+    private val SERVICE_TYPE_TAG = Regex("<serviceType>\\s*urn:schemas-upnp-org:service:AVTransport:\\d\\s*</serviceType>", RegexOption.IGNORE_CASE)
+    private val CONTROL_URL_TAG = Regex("<controlURL>\\s*(.+?)\\s*</controlURL>", RegexOption.IGNORE_CASE)
+    private val SCPD_URL_TAG = Regex("<SCPDURL>\\s*(.+?)\\s*</SCPDURL>", RegexOption.IGNORE_CASE)
+    private val EVENT_SUB_URL_TAG = Regex("<eventSubURL>\\s*(.+?)\\s*</eventSubURL>", RegexOption.IGNORE_CASE)
+    private val URL_BASE_TAG = Regex("<URLBase>\\s*(.+?)\\s*</URLBase>", RegexOption.IGNORE_CASE)
+    private val LAST_CHANGE_TAG = Regex("<LastChange>(.*?)</LastChange>", setOf(RegexOption.IGNORE_CASE, RegexOption.DOT_MATCHES_ALL))
+    private val TRANSPORT_STATE_ATTR = Regex("<TransportState\\s+val=\"([A-Z_]+)\"", RegexOption.IGNORE_CASE)
+    private val AV_TRANSPORT_URI_ATTR = Regex("<AVTransportURI\\s+val=\"([^\"]*)\"", RegexOption.IGNORE_CASE)
+    private val CURRENT_TRACK_URI_ATTR = Regex("<CurrentTrackURI\\s+val=\"([^\"]*)\"", RegexOption.IGNORE_CASE)
+    private val CURRENT_URI_TAG = Regex("<CurrentURI>(.*?)</CurrentURI>", setOf(RegexOption.IGNORE_CASE, RegexOption.DOT_MATCHES_ALL))
+    private val ACTION_NAME_TAG = Regex("<action>\\s*<name>\\s*(\\w+)\\s*</name>", RegexOption.IGNORE_CASE)
+    private val CURRENT_TRANSPORT_STATE_TAG = Regex("<CurrentTransportState>\\s*([A-Z_]+)\\s*</CurrentTransportState>", RegexOption.IGNORE_CASE)
+    private val ERROR_CODE_TAG = Regex("<errorCode>\\s*(\\d+)\\s*</errorCode>", RegexOption.IGNORE_CASE)
+
+    /**
+     * Find the AVTransport service in a device description fetched from
+     * [descriptionUrl]. Relative URLs resolve against `URLBase` if present.
+     */
+    fun parseDescription(xml: String, descriptionUrl: String): AvTransportEndpoints? {
+        val service = SERVICE_BLOCK.findAll(xml)
+            .map { it.groupValues[1] }
+            .firstOrNull { SERVICE_TYPE_TAG.containsMatchIn(it) }
+            ?: return null
+
+        val base = URL_BASE_TAG.find(xml)?.groupValues?.get(1) ?: descriptionUrl
+        val controlUrl = CONTROL_URL_TAG.find(service)?.groupValues?.get(1) ?: return null
+        val eventSubUrl = EVENT_SUB_URL_TAG.find(service)?.groupValues?.get(1)?.takeIf { it.isNotBlank() }
+        val scpdUrl = SCPD_URL_TAG.find(service)?.groupValues?.get(1)?.takeIf { it.isNotBlank() }
+
+        return AvTransportEndpoints(
+            controlUrl = resolve(base, controlUrl),
+            eventSubUrl = eventSubUrl?.let { resolve(base, it) },
+            scpdUrl = scpdUrl?.let { resolve(base, it) }
+        )
+    }
+
+    /**
+     * Action names declared in the service description (SCPD).
+     */
+    fun parseActions(scpdXml: String): Set<String> {
+        return ACTION_NAME_TAG.findAll(scpdXml).map { it.groupValues[1] }.toSet()
+    }
+
+    /**
+     * Decode a GENA NOTIFY body, or null if it carries no `LastChange`.
+     * `LastChange` is an escaped XML document of its own.
+     */
+    fun parseLastChange(body: String): AvTransportEvent? {
+        var lastChange = LAST_CHANGE_TAG.find(body)?.groupValues?.get(1) ?: return null
+        // Some renderers escape the inner document twice
+        repeat(2) {
+            if (lastChange.contains("&lt;")) lastChange = unescape(lastChange)
+        }
+        val uri = (AV_TRANSPORT_URI_ATTR.find(lastChange) ?: CURRENT_TRACK_URI_ATTR.find(lastChange))
+            ?.groupValues?.get(1)
+            ?.let { unescape(it) }
+            ?.takeIf { it.isNotBlank() }
+        return AvTransportEvent(
+            transportState = TRANSPORT_STATE_ATTR.find(lastChange)?.groupValues?.get(1)?.uppercase(),
+            currentUri = uri
+        )
+    }
+
+    fun parseMediaInfoResponse(body: String): String? {
+        return CURRENT_URI_TAG.find(body)?.groupValues?.get(1)?.let { unescape(it).trim() }?.takeIf { it.isNotEmpty() }
+    }
+
+    fun parseTransportInfoResponse(body: String): String? {
+        return CURRENT_TRANSPORT_STATE_TAG.find(body)?.groupValues?.get(1)?.uppercase()
+    }
+
+    /**
+     * `errorCode` of a SOAP fault body, if it has one.
+     */
+    fun parseFaultErrorCode(body: String): Int? {
+        return ERROR_CODE_TAG.find(body)?.groupValues?.get(1)?.toIntOrNull()
+    }
+
+    fun getTransportInfoEnvelope(): String {
+        return """<?xml version="1.0" encoding="utf-8"?><s:Envelope s:encodingStyle="http://schemas.xmlsoap.org/soap/encoding/" xmlns:s="http://schemas.xmlsoap.org/soap/envelope/"><s:Body><u:GetTransportInfo xmlns:u="$SERVICE_TYPE"><InstanceID>0</InstanceID></u:GetTransportInfo></s:Body></s:Envelope>"""
+    }
+
+    fun getMediaInfoEnvelope(): String {
+        return """<?xml version="1.0" encoding="utf-8"?><s:Envelope s:encodingStyle="http://schemas.xmlsoap.org/soap/encoding/" xmlns:s="http://schemas.xmlsoap.org/soap/envelope/"><s:Body><u:GetMediaInfo xmlns:u="$SERVICE_TYPE"><InstanceID>0</InstanceID></u:GetMediaInfo></s:Body></s:Envelope>"""
+    }
+
+    /**
+     * [escapedUri] and [escapedMetadata] must already be XML-escaped; an empty
+     * URI clears a previously set next item.
+     */
+    fun setNextUriEnvelope(escapedUri: String, escapedMetadata: String): String {
+        return """<?xml version="1.0" encoding="utf-8"?><s:Envelope s:encodingStyle="http://schemas.xmlsoap.org/soap/encoding/" xmlns:s="http://schemas.xmlsoap.org/soap/envelope/"><s:Body><u:$ACTION_SET_NEXT_URI xmlns:u="$SERVICE_TYPE"><InstanceID>0</InstanceID><NextURI>$escapedUri</NextURI><NextURIMetaData>$escapedMetadata</NextURIMetaData></u:$ACTION_SET_NEXT_URI></s:Body></s:Envelope>"""
+    }
+
+    private fun resolve(base: String, path: String): String {
+        return try {
+            URL(URL(base), path).toString()
+        } catch (e: Exception) {
+            path
+        }
+    }
+
+    private fun unescape(text: String): String {
+        return text
+            .replace("&lt;", "<")
+            .replace("&gt;", ">")
+            .replace("&quot;", "\"")
+            .replace("&apos;", "'")
+            .replace("&amp;", "&")
+    }
+}
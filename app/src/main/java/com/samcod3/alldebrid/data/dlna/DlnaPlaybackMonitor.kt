@@ -0,0 +1,453 @@
+package com.samcod3.alldebrid.data.dlna
+
+import android.os.SystemClock
+import android.util.Log
+import com.samcod3.alldebrid.data.model.Device
+import com.samcod3.alldebrid.data.network.LocalNetwork
+import com.samcod3.alldebrid.di.ApplicationScope
+import com.samcod3.alldebrid.di.StreamingHttpClient
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Follows the transport state of the DLNA renderer we last cast to and emits
+ * [playbackEnded] when the item it was playing stops.
+ *
+ * Uses a GENA subscription on the AVTransport service when the renderer offers
+ * one, renewed before it expires. Renderers without eventing, or whose events
+ * never reach us, are polled with `GetTransportInfo` instead, backing off
+ * while the renderer doesn't answer.
+ *
+ * Following ends on its own once the renderer has sat stopped for
+ * [IDLE_STOP_MS] with nothing queued or preloaded, or has been unreachable
+ * for [UNREACHABLE_STOP_MS]; the next cast starts it again.
+ */
+@Singleton
+class DlnaPlaybackMonitor @Inject constructor(
+    @StreamingHttpClient httpClient: OkHttpClient,
+    @ApplicationScope private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val TAG = "DlnaMonitor"
+        private const val SUBSCRIPTION_SECONDS = 300
+        private const val RENEW_MARGIN_MS = 30_000L
+        // UPnP requires an initial event right after SUBSCRIBE
+        private const val INITIAL_EVENT_TIMEOUT_MS = 5_000L
+        private const val POLL_INTERVAL_MS = 2_000L
+        private const val MAX_POLL_INTERVAL_MS = 60_000L
+        // How often the event loop checks for idleness between renewals
+        private const val IDLE_CHECK_MS = 5_000L
+        private const val IDLE_STOP_MS = 30_000L
+        private const val UNREACHABLE_STOP_MS = 5 * 60_000L
+        // A failed description fetch is retried after this long
+        private const val NO_DESCRIPTION_TTL_MS = 60_000L
+        private const val REQUEST_TIMEOUT_S = 5L
+    }
+
+    private class Subscription(val sid: String, val timeoutSeconds: Int)
+
+    private val client = httpClient.newBuilder()
+        .callTimeout(REQUEST_TIMEOUT_S, TimeUnit.SECONDS)
+        .build()
+
+    private val callbackServer = GenaCallbackServer(scope, ::onNotify)
+
+    // By device id; devices without a usable description are remembered for a while
+    private val endpointCache = ConcurrentHashMap<String, AvTransportEndpoints>()
+    private val noDescription = ConcurrentHashMap<String, Long>()
+
+    private val _transportState = MutableStateFlow<String?>(null)
+    val transportState: StateFlow<String?> = _transportState.asStateFlow()
+
+    private val _playbackEnded = MutableSharedFlow<Device>(extraBufferCapacity = 1)
+    val playbackEnded: SharedFlow<Device> = _playbackEnded.asSharedFlow()
+
+    private val _currentUriChanged = MutableSharedFlow<Pair<Device, String>>(extraBufferCapacity = 4)
+
+    /**
+     * The renderer switched media on its own, e.g. to a preloaded next item.
+     */
+    val currentUriChanged: SharedFlow<Pair<Device, String>> = _currentUriChanged.asSharedFlow()
+
+    private val supportedActions = ConcurrentHashMap<String, Set<String>>()
+
+    /**
+     * Also poll the current URI (one more request per tick) when events are
+     * not available; only needed while a next item is preloaded.
+     */
+    @Volatile
+    var followUri = false
+
+    /**
+     * Whether the app still has items to cast to the renderer; while true,
+     * a stopped renderer keeps being followed.
+     */
+    @Volatile
+    var hasQueuedMedia: () -> Boolean = { false }
+
+    private val lock = Any()
+    private var watched: Device? = null
+    private var watchJob: Job? = null
+    private var eventSubUrl: String? = null
+    private var currentSid: String? = null
+    private var subscribing = false
+    private var initialEvent = CompletableDeferred<Unit>()
+    // Set once the current item is seen playing, so the Stop sent before a
+    // new cast is not mistaken for the end of playback
+    private var armed = false
+    private var lastUri: String? = null
+    // When the renderer was last seen going STOPPED/NO_MEDIA_PRESENT, while it stays there
+    private var idleSince: Long? = null
+
+    /**
+     * AVTransport URLs from the device description, or null if the device has
+     * none we can read.
+     */
+    suspend fun resolveEndpoints(device: Device): AvTransportEndpoints? {
+        endpointCache[device.id]?.let { return it }
+        noDescription[device.id]?.let { failedAt ->
+            if (SystemClock.elapsedRealtime() - failedAt < NO_DESCRIPTION_TTL_MS) return null
+            noDescription.remove(device.id, failedAt)
+        }
+        val location = device.controlUrl ?: return null
+
+        val endpoints = withContext(Dispatchers.IO) {
+            try {
+                val request = Request.Builder().url(location).build()
+                client.newCall(request).execute().use { response ->
+                    if (!response.isSuccessful) return@use null
+                    AvTransport.parseDescription(response.body!!.string(), location)
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Could not read description at $location: ${e.message}")
+                null
+            }
+        }
+        if (endpoints != null) {
+            endpointCache[device.id] = endpoints
+        } else {
+            noDescription[device.id] = SystemClock.elapsedRealtime()
+        }
+        return endpoints
+    }
+
+    /**
+     * AVTransport actions the renderer declares, or null if its service
+     * description could not be read.
+     */
+    suspend fun supportedActions(device: Device): Set<String>? {
+        supportedActions[device.id]?.let { return it }
+        val scpdUrl = resolveEndpoints(device)?.scpdUrl ?: return null
+        val actions = withContext(Dispatchers.IO) {
+            try {
+                val request = Request.Builder().url(scpdUrl).build()
+                client.newCall(request).execute().use { response ->
+                    if (response.isSuccessful) AvTransport.parseActions(response.body!!.string()) else null
+                }
+            } catch (e: IOException) {
+                null
+            }
+        } ?: return null
+        supportedActions[device.id] = actions
+        return actions
+    }
+
+    /**
+     * Call before replacing the renderer's media, so the stop that follows is
+     * not reported as the end of playback.
+     */
+    fun expectNewMedia() {
+        synchronized(lock) {
+            armed = false
+            lastUri = null
+            idleSince = null
+        }
+    }
+
+    /**
+     * Start following [device] after a successful cast through [controlUrl].
+     * Keeps the existing subscription if it is already being watched.
+     */
+    fun watch(device: Device, controlUrl: String) {
+        synchronized(lock) {
+            if (watched?.id == device.id && watchJob?.isActive == true) return
+        }
+        stop()
+        synchronized(lock) {
+            watched = device
+            idleSince = null
+            watchJob = scope.launch {
+                val endpoints = resolveEndpoints(device)
+                val subUrl = endpoints?.eventSubUrl
+                if (subUrl != null && followEvents(device, subUrl)) return@launch
+                Log.d(TAG, "Polling ${device.address} for transport state")
+                followByPolling(controlUrl)
+            }
+        }
+    }
+
+    fun stop() {
+        val (job, subUrl, sid) = synchronized(lock) {
+            val previous = Triple(watchJob, eventSubUrl, currentSid)
+            watched = null
+            watchJob = null
+            eventSubUrl = null
+            currentSid = null
+            subscribing = false
+            armed = false
+            lastUri = null
+            idleSince = null
+            previous
+        }
+        job?.cancel()
+        _transportState.value = null
+        if (subUrl != null && sid != null) {
+            scope.launch { unsubscribe(subUrl, sid) }
+        }
+    }
+
+    /**
+     * Subscribe and keep renewing until the renderer goes idle. Returns false
+     * if eventing is unusable and the caller should poll instead.
+     */
+    private suspend fun followEvents(device: Device, subUrl: String): Boolean {
+        val localIp = withContext(Dispatchers.IO) { LocalNetwork.addressTowards(device.address) } ?: return false
+        val port = withContext(Dispatchers.IO) { callbackServer.start() }
+        val callback = "<http://$localIp:$port${GenaCallbackServer.PATH}>"
+
+        val firstEvent = synchronized(lock) {
+            subscribing = true
+            eventSubUrl = subUrl
+            CompletableDeferred<Unit>().also { initialEvent = it }
+        }
+        val first = subscribe(subUrl, callback)
+        synchronized(lock) {
+            subscribing = false
+            currentSid = first?.sid
+        }
+        var subscription = first ?: return false
+
+        if (withTimeoutOrNull(INITIAL_EVENT_TIMEOUT_MS) { firstEvent.await() } == null) {
+            Log.w(TAG, "No events from ${device.address}; callback unreachable?")
+            synchronized(lock) { currentSid = null }
+            unsubscribe(subUrl, subscription.sid)
+            return false
+        }
+        Log.d(TAG, "Subscribed to ${device.address} (${subscription.sid})")
+
+        var renewAt = SystemClock.elapsedRealtime() + renewDelay(subscription)
+        while (true) {
+            delay(IDLE_CHECK_MS)
+            if (isIdle()) {
+                Log.d(TAG, "${device.address} idle, unsubscribing")
+                val sid = synchronized(lock) {
+                    currentSid.also {
+                        currentSid = null
+                        eventSubUrl = null
+                    }
+                }
+                sid?.let { unsubscribe(subUrl, it) }
+                return true
+            }
+            if (SystemClock.elapsedRealtime() < renewAt) continue
+            subscription = renew(subUrl, subscription.sid)
+                ?: subscribe(subUrl, callback)
+                ?: return false
+            synchronized(lock) { currentSid = subscription.sid }
+            renewAt = SystemClock.elapsedRealtime() + renewDelay(subscription)
+        }
+    }
+
+    private fun renewDelay(subscription: Subscription): Long {
+        return (subscription.timeoutSeconds * 1000L - RENEW_MARGIN_MS)
+            .coerceAtLeast(subscription.timeoutSeconds * 500L)
+    }
+
+    private suspend fun followByPolling(controlUrl: String) {
+        var interval = POLL_INTERVAL_MS
+        var unreachableSince: Long? = null
+        while (true) {
+            val state = getTransportInfo(controlUrl)
+            val now = SystemClock.elapsedRealtime()
+            if (state != null) {
+                interval = POLL_INTERVAL_MS
+                unreachableSince = null
+                onTransportState(state)
+                if (followUri) getCurrentUri(controlUrl)?.let { onCurrentUri(it) }
+            } else {
+                // Powered off or gone: ask less and less often, then give up
+                interval = (interval * 2).coerceAtMost(MAX_POLL_INTERVAL_MS)
+                val since = unreachableSince ?: now.also { unreachableSince = it }
+                if (now - since >= UNREACHABLE_STOP_MS) {
+                    Log.d(TAG, "Renderer at $controlUrl unreachable, no longer polling")
+                    return
+                }
+            }
+            if (isIdle()) {
+                Log.d(TAG, "Renderer at $controlUrl idle, no longer polling")
+                return
+            }
+            delay(interval)
+        }
+    }
+
+    /**
+     * Stopped for a while with nothing left that would make it play again.
+     */
+    private fun isIdle(): Boolean {
+        val since = synchronized(lock) { idleSince } ?: return false
+        if (SystemClock.elapsedRealtime() - since < IDLE_STOP_MS) return false
+        return !followUri && !hasQueuedMedia()
+    }
+
+    private fun onNotify(sid: String, body: String) {
+        val deferred = synchronized(lock) {
+            val accepted = watched != null && (sid == currentSid || (subscribing && currentSid == null))
+            if (!accepted) return
+            initialEvent
+        }
+        deferred.complete(Unit)
+        val event = AvTransport.parseLastChange(body) ?: return
+        event.currentUri?.let { onCurrentUri(it) }
+        event.transportState?.let { onTransportState(it) }
+    }
+
+    private fun onCurrentUri(uri: String) {
+        val changed = synchronized(lock) {
+            val previous = lastUri
+            lastUri = uri
+            // The first URI after a cast is the one we set ourselves
+            watched.takeIf { previous != null && previous != uri }
+        }
+        changed?.let { _currentUriChanged.tryEmit(it to uri) }
+    }
+
+    private fun onTransportState(state: String) {
+        val ended = synchronized(lock) {
+            _transportState.value = state
+            when (state) {
+                AvTransport.STATE_PLAYING -> {
+                    armed = true
+                    idleSince = null
+                    null
+                }
+                AvTransport.STATE_STOPPED, AvTransport.STATE_NO_MEDIA -> {
+                    if (idleSince == null) idleSince = SystemClock.elapsedRealtime()
+                    watched.takeIf { armed }.also { armed = false }
+                }
+                else -> {
+                    idleSince = null
+                    null
+                }
+            }
+        }
+        ended?.let { _playbackEnded.tryEmit(it) }
+    }
+
+    private suspend fun subscribe(subUrl: String, callback: String): Subscription? {
+        val request = Request.Builder()
+            .url(subUrl)
+            .method("SUBSCRIBE", null)
+            .header("CALLBACK", callback)
+            .header("NT", "upnp:event")
+            .header("TIMEOUT", "Second-$SUBSCRIPTION_SECONDS")
+            .build()
+        return sendSubscription(request)
+    }
+
+    private suspend fun renew(subUrl: String, sid: String): Subscription? {
+        val request = Request.Builder()
+            .url(subUrl)
+            .method("SUBSCRIBE", null)
+            .header("SID", sid)
+            .header("TIMEOUT", "Second-$SUBSCRIPTION_SECONDS")
+            .build()
+        return sendSubscription(request)
+    }
+
+    private suspend fun unsubscribe(subUrl: String, sid: String) = withContext(Dispatchers.IO) {
+        try {
+            val request = Request.Builder()
+                .url(subUrl)
+                .method("UNSUBSCRIBE", null)
+                .header("SID", sid)
+                .build()
+            client.newCall(request).execute().close()
+        } catch (e: IOException) {
+            // Expires on its own
+        }
+    }
+
+    private suspend fun sendSubscription(request: Request): Subscription? = withContext(Dispatchers.IO) {
+        try {
+            client.newCall(request).execute().use { response ->
+                val sid = response.header("SID")
+                if (!response.isSuccessful || sid == null) {
+                    Log.w(TAG, "${request.method} ${request.url} failed: HTTP ${response.code}")
+                    return@use null
+                }
+                // "Second-infinite" falls back to the requested duration
+                val timeout = response.header("TIMEOUT")
+                    ?.substringAfter("Second-", "")
+                    ?.toIntOrNull()
+                    ?: SUBSCRIPTION_SECONDS
+                Subscription(sid, timeout)
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "${request.method} ${request.url} failed: ${e.message}")
+            null
+        }
+    }
+
+    private suspend fun getTransportInfo(controlUrl: String): String? = withContext(Dispatchers.IO) {
+        try {
+            val request = Request.Builder()
+                .url(controlUrl)
+                .header("SOAPAction", "\"${AvTransport.SERVICE_TYPE}#GetTransportInfo\"")
+                .post(AvTransport.getTransportInfoEnvelope().toRequestBody("text/xml; charset=utf-8".toMediaType()))
+                .build()
+            client.newCall(request).execute().use { response ->
+                if (response.isSuccessful) AvTransport.parseTransportInfoResponse(response.body!!.string()) else null
+            }
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    private suspend fun getCurrentUri(controlUrl: String): String? = withContext(Dispatchers.IO) {
+        try {
+            val request = Request.Builder()
+                .url(controlUrl)
+                .header("SOAPAction", "\"${AvTransport.SERVICE_TYPE}#GetMediaInfo\"")
+                .post(AvTransport.getMediaInfoEnvelope().toRequestBody("text/xml; charset=utf-8".toMediaType()))
+                .build()
+            client.newCall(request).execute().use { response ->
+                if (response.isSuccessful) AvTransport.parseMediaInfoResponse(response.body!!.string()) else null
+            }
+        } catch (e: IOException) {
+            null
+        }
+    }
+}
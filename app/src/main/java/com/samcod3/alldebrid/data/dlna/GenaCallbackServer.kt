@@ -0,0 +1,145 @@
+package com.samcod3.alldebrid.data.dlna
+
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.ServerSocket
+import java.net.Socket
+
+/**
+ * Minimal HTTP listener for GENA `NOTIFY` callbacks. Every request is answered
+ * `200 OK` and handed to [onEvent] with its `SID` header and body; nothing
+ * else of HTTP is supported, which is all a renderer needs.
+ */
+class GenaCallbackServer(
+    private val scope: CoroutineScope,
+    private val onEvent: (sid: String, body: String) -> Unit
+) {
+
+    companion object {
+        private const val TAG = "GenaCallback"
+        const val PATH = "/gena"
+        private const val SOCKET_TIMEOUT_MS = 5_000
+        private const val MAX_BODY_BYTES = 256 * 1024
+        private const val MAX_LINE_LENGTH = 8 * 1024
+        private const val MAX_HEADERS = 100
+        private const val OK_RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+    }
+
+    private var server: ServerSocket? = null
+    private var acceptJob: Job? = null
+
+    /**
+     * Start listening on an ephemeral port (if not already) and return it.
+     */
+    @Synchronized
+    fun start(): Int {
+        server?.let { return it.localPort }
+        val socket = ServerSocket(0)
+        server = socket
+        acceptJob = scope.launch(Dispatchers.IO) {
+            while (isActive) {
+                val client = try {
+                    socket.accept()
+                } catch (e: IOException) {
+                    break // Closed by stop()
+                }
+                launch { handle(client) }
+            }
+        }
+        Log.d(TAG, "Listening on port ${socket.localPort}")
+        return socket.localPort
+    }
+
+    @Synchronized
+    fun stop() {
+        acceptJob?.cancel()
+        acceptJob = null
+        try {
+            server?.close()
+        } catch (e: IOException) {
+            // Already closed
+        }
+        server = null
+    }
+
+    private fun handle(client: Socket) {
+        client.use { socket ->
+            try {
+                socket.soTimeout = SOCKET_TIMEOUT_MS
+                val input = BufferedInputStream(socket.getInputStream())
+                val requestLine = readLine(input) ?: return
+                val headers = mutableMapOf<String, String>()
+                while (true) {
+                    val line = readLine(input) ?: break
+                    if (line.isEmpty()) break
+                    if (headers.size >= MAX_HEADERS) throw IOException("Too many headers")
+                    val colon = line.indexOf(':')
+                    if (colon > 0) {
+                        headers[line.substring(0, colon).trim().uppercase()] = line.substring(colon + 1).trim()
+                    }
+                }
+                val body = readBody(input, headers)
+                socket.getOutputStream().apply {
+                    write(OK_RESPONSE.toByteArray(Charsets.ISO_8859_1))
+                    flush()
+                }
+
+                val sid = headers["SID"]
+                if (requestLine.startsWith("NOTIFY") && sid != null) {
+                    onEvent(sid, body)
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to read event: ${e.message}")
+            }
+        }
+    }
+
+    private fun readBody(input: InputStream, headers: Map<String, String>): String {
+        val out = ByteArrayOutputStream()
+        if (headers["TRANSFER-ENCODING"]?.contains("chunked", ignoreCase = true) == true) {
+            while (out.size() < MAX_BODY_BYTES) {
+                val size = readLine(input)?.substringBefore(';')?.trim()?.toIntOrNull(16) ?: break
+                if (size <= 0) break
+                // Never buffer past the limit, whatever size the chunk claims
+                val take = minOf(size, MAX_BODY_BYTES - out.size())
+                copy(input, out, take)
+                if (take < size) break
+                readLine(input) // CRLF after each chunk
+            }
+        } else {
+            val length = headers["CONTENT-LENGTH"]?.toIntOrNull() ?: 0
+            copy(input, out, length.coerceAtMost(MAX_BODY_BYTES))
+        }
+        return out.toString("UTF-8")
+    }
+
+    private fun copy(input: InputStream, out: ByteArrayOutputStream, count: Int) {
+        val buffer = ByteArray(8192)
+        var remaining = count
+        while (remaining > 0) {
+            val read = input.read(buffer, 0, minOf(buffer.size, remaining))
+            if (read < 0) break
+            out.write(buffer, 0, read)
+            remaining -= read
+        }
+    }
+
+    private fun readLine(input: InputStream): String? {
+        val line = StringBuilder()
+        while (true) {
+            val c = input.read()
+            if (c < 0) return if (line.isEmpty()) null else line.toString()
+            if (c == '\n'.code) return line.toString().trimEnd('\r')
+            if (line.length >= MAX_LINE_LENGTH) throw IOException("Request line too long")
+            line.append(c.toChar())
+        }
+    }
+}
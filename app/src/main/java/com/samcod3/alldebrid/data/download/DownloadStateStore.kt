@@ -0,0 +1,55 @@
+package com.samcod3.alldebrid.data.download
+
+import android.util.Log
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import java.io.File
+import java.io.IOException
+
+/**
+ * One JSON file per download under [dir]. Files are replaced atomically, so a
+ * crash mid-write leaves the previous checkpoint intact.
+ */
+internal class DownloadStateStore(private val dir: File) {
+
+    companion object {
+        private const val TAG = "DownloadStateStore"
+    }
+
+    private val gson = Gson()
+
+    fun loadAll(): List<FileDownloadRecord> {
+        val files = dir.listFiles { file -> file.name.endsWith(".json") } ?: return emptyList()
+        return files.mapNotNull { file ->
+            try {
+                gson.fromJson(file.readText(), FileDownloadRecord::class.java)
+            } catch (e: JsonParseException) {
+                Log.w(TAG, "Dropping unreadable ${file.name}: ${e.message}")
+                file.delete()
+                null
+            } catch (e: IOException) {
+                Log.w(TAG, "Could not read ${file.name}: ${e.message}")
+                null
+            }
+        }
+    }
+
+    @Synchronized
+    fun save(record: FileDownloadRecord) {
+        dir.mkdirs()
+        val file = File(dir, "${record.id}.json")
+        val temp = File(dir, "${record.id}.json.tmp")
+        try {
+            temp.writeText(gson.toJson(record))
+            if (!temp.renameTo(file)) throw IOException("rename failed")
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not save download ${record.id}: ${e.message}")
+            temp.delete()
+        }
+    }
+
+    @Synchronized
+    fun delete(id: String) {
+        File(dir, "$id.json").delete()
+    }
+}
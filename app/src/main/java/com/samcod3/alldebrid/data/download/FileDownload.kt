@@ -0,0 +1,59 @@
+package com.samcod3.alldebrid.data.download
+
+enum class FileDownloadStatus {
+    QUEUED,
+    RUNNING,
+    PAUSED,
+    COMPLETED,
+    FAILED
+}
+
+/**
+ * Byte range `[start, end]` of a download; everything before [position] is on disk.
+ */
+data class SegmentState(
+    val start: Long,
+    val end: Long,
+    val position: Long
+)
+
+/**
+ * What is persisted for each download, so it can resume after a pause, an
+ * error or process death.
+ */
+data class FileDownloadRecord(
+    val id: String,
+    val url: String,
+    val fileName: String,
+    val path: String = "",
+    val totalBytes: Long = -1,
+    val acceptsRanges: Boolean = false,
+    val segments: List<SegmentState> = emptyList(),
+    val status: FileDownloadStatus = FileDownloadStatus.QUEUED,
+    val error: String? = null,
+    val createdAt: Long = System.currentTimeMillis()
+) {
+    val downloadedBytes: Long
+        get() = segments.sumOf { it.position - it.start }
+}
+
+/**
+ * Progress of one download as shown in the UI.
+ */
+data class FileDownload(
+    val id: String,
+    val fileName: String,
+    val path: String,
+    val status: FileDownloadStatus,
+    val downloadedBytes: Long,
+    val totalBytes: Long,
+    val bytesPerSecond: Long = 0,
+    val connections: Int = 0,
+    val error: String? = null
+) {
+    val progress: Float
+        get() = if (totalBytes > 0) downloadedBytes.toFloat() / totalBytes else 0f
+
+    val isActive: Boolean
+        get() = status == FileDownloadStatus.QUEUED || status == FileDownloadStatus.RUNNING
+}
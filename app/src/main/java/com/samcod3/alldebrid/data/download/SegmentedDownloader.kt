@@ -0,0 +1,472 @@
+package com.samcod3.alldebrid.data.download
+
+import android.content.Context
+import android.os.Environment
+import android.util.Log
+import com.samcod3.alldebrid.di.ApplicationScope
+import com.samcod3.alldebrid.di.StreamingHttpClient
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.job
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Downloads unlocked links to app storage over several parallel HTTP Range
+ * connections.
+ *
+ * The target file is preallocated and each connection writes its bytes in
+ * place with positional [FileChannel] writes from one reusable direct buffer,
+ * so nothing is reassembled afterwards. Segments adapt to connection speed: a
+ * connection that finishes its segment takes over the second half of the
+ * largest one still running. Segment positions are checkpointed to disk, so
+ * downloads resume where they stopped after a pause, an error or a restart.
+ */
+@Singleton
+class SegmentedDownloader internal constructor(
+    httpClient: OkHttpClient,
+    private val scope: CoroutineScope,
+    stateDir: File,
+    private val downloadDir: () -> File,
+    private val minSegment: Long = MIN_SEGMENT,
+    private val bufferSize: Int = BUFFER_SIZE
+) {
+
+    @Inject constructor(
+        @ApplicationContext context: Context,
+        @StreamingHttpClient httpClient: OkHttpClient,
+        @ApplicationScope scope: CoroutineScope
+    ) : this(
+        httpClient = httpClient,
+        scope = scope,
+        stateDir = File(context.filesDir, "downloads"),
+        downloadDir = {
+            context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS) ?: File(context.filesDir, "files")
+        }
+    )
+
+    companion object {
+        private const val TAG = "Downloader"
+        private const val MAX_CONNECTIONS = 4
+        private const val MAX_ACTIVE_FILES = 2
+        // Never split below this; a new connection costs more than it saves
+        private const val MIN_SEGMENT = 4L * 1024 * 1024
+        private const val BUFFER_SIZE = 256 * 1024
+        private const val SAMPLE_MS = 1_000L
+        private const val CHECKPOINT_EVERY = 5 // samples
+        private const val MAX_RETRIES = 4
+    }
+
+    /**
+     * A segment being downloaded. [end] moves down when another connection
+     * takes over its tail; both fields are only changed under the download's lock.
+     */
+    private class Segment(val start: Long, @Volatile var end: Long, @Volatile var position: Long) {
+        @Volatile var claimed = false
+        val remaining: Long get() = end - position + 1
+        fun toState() = SegmentState(start, end, position)
+    }
+
+    private class ActiveDownload(val record: FileDownloadRecord, val segments: MutableList<Segment>) {
+        val lock = Any()
+        val connections = AtomicInteger()
+
+        fun snapshot(): List<SegmentState> = synchronized(lock) { segments.map { it.toState() } }
+        fun downloaded(): Long = synchronized(lock) { segments.sumOf { it.position - it.start } }
+    }
+
+    /** Upstream refused the request; retrying the same URL will not help. */
+    private class HttpStatusException(code: Int) : IOException("HTTP $code")
+
+    private val client = httpClient.newBuilder()
+        .readTimeout(30, TimeUnit.SECONDS)
+        .build()
+
+    private val store = DownloadStateStore(stateDir)
+    private val records = ConcurrentHashMap<String, FileDownloadRecord>()
+    private val live = ConcurrentHashMap<String, FileDownload>()
+    private val jobs = ConcurrentHashMap<String, Job>()
+    private val slots = Semaphore(MAX_ACTIVE_FILES)
+
+    private val _downloads = MutableStateFlow<List<FileDownload>>(emptyList())
+
+    /**
+     * Every known download, oldest first.
+     */
+    val downloads: StateFlow<List<FileDownload>> = _downloads.asStateFlow()
+
+    init {
+        scope.launch(Dispatchers.IO) {
+            store.loadAll().forEach { record ->
+                // Whatever was running when the process died comes back paused
+                val restored = if (record.status == FileDownloadStatus.RUNNING || record.status == FileDownloadStatus.QUEUED) {
+                    record.copy(status = FileDownloadStatus.PAUSED)
+                } else {
+                    record
+                }
+                records.putIfAbsent(restored.id, restored)
+                live.putIfAbsent(restored.id, restored.toProgress())
+            }
+            publish()
+        }
+    }
+
+    /**
+     * Start downloading [url] as [fileName]; returns the download id.
+     */
+    fun start(url: String, fileName: String): String {
+        val record = FileDownloadRecord(id = UUID.randomUUID().toString(), url = url, fileName = fileName)
+        save(record)
+        launch(record.id)
+        return record.id
+    }
+
+    fun pause(id: String) {
+        val record = records[id] ?: return
+        if (record.status != FileDownloadStatus.QUEUED && record.status != FileDownloadStatus.RUNNING) return
+        // The job persists its positions as it unwinds
+        save(record.copy(status = FileDownloadStatus.PAUSED))
+        jobs[id]?.cancel()
+    }
+
+    fun resume(id: String) {
+        val record = records[id] ?: return
+        if (record.status != FileDownloadStatus.PAUSED && record.status != FileDownloadStatus.FAILED) return
+        if (jobs.containsKey(id)) return
+        save(record.copy(status = FileDownloadStatus.QUEUED, error = null))
+        launch(id)
+    }
+
+    /**
+     * Forget a download. The partial file is deleted; a completed one is kept
+     * unless [deleteFile] is set.
+     */
+    fun remove(id: String, deleteFile: Boolean = false) {
+        scope.launch(Dispatchers.IO) {
+            jobs[id]?.let { job ->
+                job.cancel()
+                job.join()
+            }
+            val record = records.remove(id) ?: return@launch
+            live.remove(id)
+            store.delete(id)
+            if (record.path.isNotEmpty() && (deleteFile || record.status != FileDownloadStatus.COMPLETED)) {
+                File(record.path).delete()
+            }
+            publish()
+        }
+    }
+
+    private fun launch(id: String) {
+        val job = scope.launch(Dispatchers.IO, start = CoroutineStart.LAZY) {
+            slots.withPermit { download(id) }
+        }
+        jobs[id] = job
+        job.invokeOnCompletion { jobs.remove(id, job) }
+        job.start()
+    }
+
+    private suspend fun download(id: String) {
+        var prepared: FileDownloadRecord? = null
+        var active: ActiveDownload? = null
+        try {
+            var record = records[id] ?: return
+            if (record.totalBytes < 0) {
+                record = prepare(record)
+                prepared = record
+            } else if (!record.acceptsRanges) {
+                // Without ranges there is nothing to resume from
+                record = record.copy(segments = record.segments.map { it.copy(position = it.start) })
+            }
+            // The probe can't be interrupted; a pause that landed during it wins
+            currentCoroutineContext().ensureActive()
+            record = record.copy(status = FileDownloadStatus.RUNNING, error = null)
+            save(record)
+
+            val segments = record.segments.map { Segment(it.start, it.end, it.position) }.toMutableList()
+            val download = ActiveDownload(record, segments)
+            active = download
+            val startedAt = System.currentTimeMillis()
+            val startBytes = download.downloaded()
+
+            FileChannel.open(File(record.path).toPath(), StandardOpenOption.WRITE).use { channel ->
+                coroutineScope {
+                    val monitor = launch { monitor(download, channel) }
+                    val connections = if (record.acceptsRanges) MAX_CONNECTIONS else 1
+                    List(connections) { launch { worker(download, channel) } }.joinAll()
+                    monitor.cancel()
+                }
+                channel.force(true)
+            }
+
+            val millis = (System.currentTimeMillis() - startedAt).coerceAtLeast(1)
+            val bytes = download.downloaded() - startBytes
+            Log.d(TAG, "${record.fileName}: ${bytes / 1024} KB in ${millis / 1000} s, ${bytes / millis} KB/s over ${segments.size} segments")
+            save(record.copy(segments = download.snapshot(), status = FileDownloadStatus.COMPLETED))
+        } catch (e: CancellationException) {
+            withContext(NonCancellable) {
+                // Gone if it was removed; otherwise it was paused or the app is
+                // shutting down, and either way it must be resumable
+                val current = records[id]
+                if (current != null) {
+                    save(current.copy(
+                        path = prepared?.path ?: current.path,
+                        totalBytes = prepared?.totalBytes ?: current.totalBytes,
+                        acceptsRanges = prepared?.acceptsRanges ?: current.acceptsRanges,
+                        segments = active?.snapshot() ?: prepared?.segments ?: current.segments,
+                        status = FileDownloadStatus.PAUSED
+                    ))
+                }
+            }
+            throw e
+        } catch (e: IOException) {
+            Log.w(TAG, "Download $id failed: ${e.message}")
+            val current = records[id] ?: return
+            save(current.copy(
+                segments = active?.snapshot() ?: current.segments,
+                status = FileDownloadStatus.FAILED,
+                error = e.message
+            ))
+        }
+    }
+
+    /**
+     * Find the size and range support with a one-byte request, preallocate
+     * the file and split it into the initial segments.
+     */
+    private fun prepare(record: FileDownloadRecord): FileDownloadRecord {
+        val request = Request.Builder()
+            .url(record.url)
+            .header("Range", "bytes=0-0")
+            .build()
+        val (total, acceptsRanges) = client.newCall(request).execute().use { response ->
+            when (response.code) {
+                206 -> (response.header("Content-Range")?.substringAfterLast('/')?.toLongOrNull() ?: -1L) to true
+                200 -> (response.body?.contentLength() ?: -1L) to false
+                else -> throw HttpStatusException(response.code)
+            }
+        }
+        if (total < 0) throw IOException("Server did not report the file size")
+
+        val file = targetFile(record.fileName)
+        RandomAccessFile(file, "rw").use { it.setLength(total) }
+
+        val count = if (acceptsRanges) (total / minSegment).coerceIn(1, MAX_CONNECTIONS.toLong()).toInt() else 1
+        val size = total / count
+        val segments = List(count) { i ->
+            val start = i * size
+            val end = if (i == count - 1) total - 1 else start + size - 1
+            SegmentState(start, end, start)
+        }
+        return record.copy(path = file.absolutePath, totalBytes = total, acceptsRanges = acceptsRanges, segments = segments)
+    }
+
+    /**
+     * One connection: download segments until none is left to claim or split.
+     */
+    private suspend fun worker(download: ActiveDownload, channel: FileChannel) {
+        val buffer = ByteBuffer.allocateDirect(bufferSize)
+        while (true) {
+            val segment = claim(download) ?: return
+            var attempt = 0
+            while (segment.remaining > 0) {
+                try {
+                    download.connections.incrementAndGet()
+                    try {
+                        fetch(download, segment, channel, buffer)
+                    } finally {
+                        download.connections.decrementAndGet()
+                    }
+                    attempt = 0
+                } catch (e: HttpStatusException) {
+                    throw e
+                } catch (e: IOException) {
+                    if (++attempt > MAX_RETRIES) throw e
+                    Log.d(TAG, "Segment at ${segment.position} failed (${e.message}), retry $attempt")
+                    delay(1_000L shl (attempt - 1))
+                }
+            }
+        }
+    }
+
+    /**
+     * Next unfinished segment nobody is working on; failing that, the second
+     * half of the largest running segment, if it is worth a connection.
+     */
+    private fun claim(download: ActiveDownload): Segment? {
+        synchronized(download.lock) {
+            download.segments.firstOrNull { !it.claimed && it.remaining > 0 }?.let {
+                it.claimed = true
+                return it
+            }
+            if (!download.record.acceptsRanges) return null
+            val victim = download.segments
+                .filter { it.claimed && it.remaining >= 2 * minSegment }
+                .maxByOrNull { it.remaining }
+                ?: return null
+            // The victim writes at most one buffer past its position, well short of mid
+            val mid = victim.position + victim.remaining / 2
+            val stolen = Segment(mid, victim.end, mid).apply { claimed = true }
+            victim.end = mid - 1
+            download.segments.add(stolen)
+            return stolen
+        }
+    }
+
+    /**
+     * Stream the rest of [segment] from one request, writing each read at its
+     * file offset. Returns when the segment is done or its tail was taken.
+     */
+    private suspend fun fetch(download: ActiveDownload, segment: Segment, channel: FileChannel, buffer: ByteBuffer) {
+        val builder = Request.Builder().url(download.record.url)
+        if (download.record.acceptsRanges) {
+            builder.header("Range", "bytes=${segment.position}-${segment.end}")
+        }
+        val call = client.newCall(builder.build())
+        // Pausing must not wait for a stalled read to time out
+        val cancelHandle = currentCoroutineContext().job.invokeOnCompletion { call.cancel() }
+        try {
+            call.execute().use { response ->
+                val expected = if (download.record.acceptsRanges) 206 else 200
+                if (response.code != expected) {
+                    if (response.code in 400..499) throw HttpStatusException(response.code)
+                    throw IOException("Unexpected HTTP ${response.code}")
+                }
+                val source = response.body!!.source()
+                while (true) {
+                    currentCoroutineContext().ensureActive()
+                    buffer.clear()
+                    val wanted = synchronized(download.lock) { segment.remaining }
+                    if (wanted <= 0) return
+                    if (wanted < buffer.capacity()) buffer.limit(wanted.toInt())
+                    if (source.read(buffer) < 0) throw IOException("Connection closed at ${segment.position}")
+                    buffer.flip()
+
+                    var position = segment.position
+                    synchronized(download.lock) {
+                        // The tail may have been taken while reading
+                        val allowed = segment.remaining.coerceAtLeast(0)
+                        if (allowed < buffer.remaining()) buffer.limit(allowed.toInt())
+                    }
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position)
+                    }
+                    synchronized(download.lock) { segment.position = position }
+                }
+            }
+        } finally {
+            cancelHandle.dispose()
+        }
+    }
+
+    /**
+     * Sample progress and throughput for the UI, and checkpoint positions
+     * every few samples once the written bytes are flushed to disk.
+     */
+    private suspend fun monitor(download: ActiveDownload, channel: FileChannel) {
+        var lastBytes = download.downloaded()
+        var rate = 0.0
+        var samples = 0
+        while (currentCoroutineContext().isActive) {
+            delay(SAMPLE_MS)
+            val bytes = download.downloaded()
+            val instant = (bytes - lastBytes) * 1000.0 / SAMPLE_MS
+            rate = if (samples == 0) instant else rate * 0.7 + instant * 0.3
+            lastBytes = bytes
+            samples++
+
+            val id = download.record.id
+            val record = records[id] ?: return
+            live[id] = record.toProgress(
+                downloaded = bytes,
+                bytesPerSecond = rate.toLong(),
+                connections = download.connections.get()
+            )
+            publish()
+
+            if (samples % CHECKPOINT_EVERY == 0) {
+                // Positions may only be persisted for bytes that are really on disk
+                val segments = download.snapshot()
+                channel.force(false)
+                checkpoint(id, segments)
+            }
+        }
+    }
+
+    private fun targetFile(fileName: String): File {
+        val dir = downloadDir()
+        dir.mkdirs()
+        val safeName = fileName.replace(Regex("""[\\/:*?"<>|]"""), "_").ifBlank { "download" }
+        var file = File(dir, safeName)
+        var copy = 1
+        while (file.exists()) {
+            val base = safeName.substringBeforeLast('.')
+            val extension = safeName.substringAfterLast('.', "").let { if (it.isEmpty()) "" else ".$it" }
+            file = File(dir, "$base ($copy)$extension")
+            copy++
+        }
+        return file
+    }
+
+    private fun save(record: FileDownloadRecord) {
+        records[record.id] = record
+        store.save(record)
+        live[record.id] = record.toProgress()
+        publish()
+    }
+
+    // Persists positions without touching the status or the live throughput figures
+    private fun checkpoint(id: String, segments: List<SegmentState>) {
+        records.computeIfPresent(id) { _, record -> record.copy(segments = segments) }?.let { store.save(it) }
+    }
+
+    private fun publish() {
+        _downloads.value = live.values.sortedBy { records[it.id]?.createdAt ?: 0L }
+    }
+
+    private fun FileDownloadRecord.toProgress(
+        downloaded: Long = downloadedBytes,
+        bytesPerSecond: Long = 0,
+        connections: Int = 0
+    ) = FileDownload(
+        id = id,
+        fileName = fileName,
+        path = path,
+        status = status,
+        downloadedBytes = downloaded,
+        totalBytes = totalBytes,
+        bytesPerSecond = bytesPerSecond,
+        connections = connections,
+        error = error
+    )
+}
@@ -0,0 +1,345 @@
+package com.samcod3.alldebrid.data.kodi
+
+import android.util.Log
+import com.google.gson.Gson
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.samcod3.alldebrid.data.api.KodiCommands
+import com.samcod3.alldebrid.data.api.KodiError
+import com.samcod3.alldebrid.data.api.KodiRequest
+import com.samcod3.alldebrid.data.api.KodiResponse
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+enum class KodiConnection {
+    DISCONNECTED,
+    CONNECTING,
+    // Socket open, players and playlist still being read
+    SYNCING,
+    CONNECTED
+}
+
+/**
+ * What one Kodi instance is doing, as reported by its own notifications.
+ *
+ * @param activePlayers ids of the open players (1 = video)
+ * @param nowPlaying title of the current item, when Kodi reports one
+ * @param playlistSize size of the video playlist, or null until known
+ */
+data class KodiPlayerState(
+    val connection: KodiConnection = KodiConnection.DISCONNECTED,
+    val activePlayers: Set<Int> = emptySet(),
+    val isPaused: Boolean = false,
+    val nowPlaying: String? = null,
+    val playlistSize: Int? = null
+) {
+    /**
+     * Socket up and state loaded, so [isPlaying] can be trusted.
+     */
+    val isConnected: Boolean
+        get() = connection == KodiConnection.CONNECTED
+
+    val isOpen: Boolean
+        get() = connection == KodiConnection.SYNCING || connection == KodiConnection.CONNECTED
+
+    val isPlaying: Boolean
+        get() = activePlayers.isNotEmpty()
+}
+
+/**
+ * Thrown when a call could not even be sent because the socket is down. The
+ * command never reached Kodi, so it is safe to retry it over HTTP.
+ */
+class KodiNotConnectedException : IOException("Kodi notification channel is not connected")
+
+/**
+ * Persistent JSON-RPC connection to Kodi's WebSocket server.
+ *
+ * [state] follows `Player.*` and `Playlist.*` notifications, so "is something
+ * playing?" is answered without a request. Commands sent with [call] share
+ * the open socket and are matched to their replies by id. A dropped connection
+ * is retried with exponential backoff until [close] is called. The session
+ * only reports [KodiConnection.CONNECTED] once the initial state has been read.
+ */
+class KodiSession(
+    val address: String,
+    private val httpClient: OkHttpClient,
+    private val scope: CoroutineScope,
+    private val gson: Gson
+) {
+
+    companion object {
+        private const val TAG = "KodiSession"
+        const val NOTIFICATION_PORT = 9090
+        private const val CALL_TIMEOUT_MS = 10_000L
+        private const val MIN_RETRY_MS = 2_000L
+        private const val MAX_RETRY_MS = 60_000L
+        private const val VIDEO_PLAYER = 1
+        private const val VIDEO_PLAYLIST = 1
+        // JSON-RPC implementation-defined server error, for replies [callAll] makes up
+        private const val NO_REPLY_CODE = -32000
+    }
+
+    private val _state = MutableStateFlow(KodiPlayerState())
+    val state: StateFlow<KodiPlayerState> = _state.asStateFlow()
+
+    private val nextId = AtomicInteger(1)
+    private val pending = ConcurrentHashMap<Int, CompletableDeferred<KodiResponse>>()
+
+    private val lock = Any()
+    private var socket: WebSocket? = null
+    private var retryJob: Job? = null
+    private var retryDelayMs = MIN_RETRY_MS
+    private var closed = false
+
+    fun connect() {
+        synchronized(lock) {
+            if (closed || socket != null) return
+            _state.update { it.copy(connection = KodiConnection.CONNECTING) }
+            val request = Request.Builder()
+                .url("ws://$address:$NOTIFICATION_PORT/jsonrpc")
+                .build()
+            socket = httpClient.newWebSocket(request, Listener())
+        }
+    }
+
+    /**
+     * Stop reconnecting and drop the socket. In-flight calls fail with a plain
+     * [IOException]: they were sent, so they must not be retried.
+     */
+    fun close() {
+        val current = synchronized(lock) {
+            closed = true
+            retryJob?.cancel()
+            retryJob = null
+            socket.also { socket = null }
+        }
+        current?.close(1000, null)
+        failPending(IOException("Kodi session closed"))
+        _state.value = KodiPlayerState()
+    }
+
+    /**
+     * Send [request] over the socket and wait for its reply. Throws
+     * [KodiNotConnectedException] if it could not be sent, or [IOException]
+     * if the connection dropped or Kodi did not answer in time.
+     */
+    suspend fun call(request: KodiRequest): KodiResponse {
+        val id = nextId.getAndIncrement()
+        val reply = CompletableDeferred<KodiResponse>()
+        pending[id] = reply
+        try {
+            val current = synchronized(lock) { socket }
+            if (current == null || !_state.value.isOpen) throw KodiNotConnectedException()
+            if (!current.send(gson.toJson(request.copy(id = id)))) throw KodiNotConnectedException()
+            return withTimeoutOrNull(CALL_TIMEOUT_MS) { reply.await() }
+                ?: throw IOException("Kodi did not answer ${request.method}")
+        } finally {
+            pending.remove(id)
+        }
+    }
+
+    /**
+     * Send all [requests] back to back, then wait for every reply. Kodi runs
+     * them in the order they were sent; replies come back in request order.
+     *
+     * Throws [KodiNotConnectedException] only if none of them could be sent.
+     * Once any request has left the socket the batch is not safe to resend,
+     * so a request that was not sent or not answered gets an error reply.
+     */
+    suspend fun callAll(requests: List<KodiRequest>): List<KodiResponse> {
+        val outcomes = coroutineScope {
+            // Undispatched so each request is written before the next one starts
+            requests.map { request ->
+                async(start = CoroutineStart.UNDISPATCHED) {
+                    try {
+                        Result.success(call(request))
+                    } catch (e: IOException) {
+                        Result.failure<KodiResponse>(e)
+                    }
+                }
+            }.awaitAll()
+        }
+        if (outcomes.isNotEmpty() && outcomes.all { it.exceptionOrNull() is KodiNotConnectedException }) {
+            throw KodiNotConnectedException()
+        }
+        return outcomes.map { outcome ->
+            outcome.getOrElse { e ->
+                val message = if (e is KodiNotConnectedException) {
+                    "Not sent: connection lost"
+                } else {
+                    "No reply from Kodi: ${e.message}"
+                }
+                KodiResponse(jsonrpc = "2.0", error = KodiError(NO_REPLY_CODE, message))
+            }
+        }
+    }
+
+    private inner class Listener : WebSocketListener() {
+        override fun onOpen(webSocket: WebSocket, response: Response) {
+            synchronized(lock) {
+                if (socket !== webSocket) return
+            }
+            Log.d(TAG, "Connected to $address")
+            _state.update { it.copy(connection = KodiConnection.SYNCING) }
+            scope.launch { refresh(webSocket) }
+        }
+
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            try {
+                handleMessage(text)
+            } catch (e: Exception) {
+                Log.w(TAG, "Ignoring malformed message from $address", e)
+            }
+        }
+
+        override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
+            webSocket.close(1000, null)
+        }
+
+        override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
+            onDisconnected(webSocket, null)
+        }
+
+        override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+            onDisconnected(webSocket, t)
+        }
+    }
+
+    private fun onDisconnected(webSocket: WebSocket, error: Throwable?) {
+        synchronized(lock) {
+            if (socket !== webSocket) return
+            socket = null
+            if (!closed) {
+                val wait = retryDelayMs
+                retryDelayMs = (retryDelayMs * 2).coerceAtMost(MAX_RETRY_MS)
+                retryJob = scope.launch {
+                    delay(wait)
+                    connect()
+                }
+            }
+        }
+        Log.d(TAG, "Disconnected from $address: ${error?.message ?: "closed"}")
+        // Sent but unanswered: Kodi may have run them, so not safe to resend
+        failPending(IOException("Kodi connection lost"))
+        _state.value = KodiPlayerState()
+    }
+
+    private fun failPending(error: Exception) {
+        pending.values.forEach { it.completeExceptionally(error) }
+        pending.clear()
+    }
+
+    /**
+     * Seed [state] right after connecting, then report it connected;
+     * notifications keep it current. If it can't be read the socket is
+     * dropped, so the normal backoff reconnects instead of leaving a session
+     * whose state nobody can trust.
+     */
+    private suspend fun refresh(webSocket: WebSocket) {
+        try {
+            val players = call(KodiCommands.getActivePlayers()).result as? List<*>
+            val playerIds = players.orEmpty().mapNotNull {
+                ((it as? Map<*, *>)?.get("playerid") as? Number)?.toInt()
+            }.toSet()
+
+            val paused = playerIds.firstOrNull()?.let { playerId ->
+                val properties = call(KodiCommands.getPlayerProperties(playerId, listOf("speed"))).result as? Map<*, *>
+                (properties?.get("speed") as? Number)?.toInt() == 0
+            } ?: false
+
+            val playlist = call(KodiCommands.getPlaylistProperties(VIDEO_PLAYLIST, listOf("size"))).result as? Map<*, *>
+            val playlistSize = (playlist?.get("size") as? Number)?.toInt()
+
+            synchronized(lock) {
+                if (socket !== webSocket) return
+                retryDelayMs = MIN_RETRY_MS
+                _state.update {
+                    it.copy(
+                        connection = KodiConnection.CONNECTED,
+                        activePlayers = playerIds,
+                        isPaused = paused,
+                        playlistSize = playlistSize
+                    )
+                }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not read initial state of $address: ${e.message}")
+            webSocket.cancel()
+        }
+    }
+
+    private fun handleMessage(text: String) {
+        val message = JsonParser.parseString(text).asJsonObject
+        val id = message.get("id")
+        if (id != null && !id.isJsonNull) {
+            val response = gson.fromJson(message, KodiResponse::class.java)
+            pending.remove(id.asInt)?.complete(response)
+            return
+        }
+        val method = message.get("method")?.asString ?: return
+        val data = message.getAsJsonObject("params")
+            ?.get("data")
+            ?.takeIf { it.isJsonObject }
+            ?.asJsonObject
+        onNotification(method, data)
+    }
+
+    private fun onNotification(method: String, data: JsonObject?) {
+        when (method) {
+            "Player.OnPlay", "Player.OnResume", "Player.OnAVStart", "Player.OnAVChange" -> {
+                val playerId = data.intAt("player", "playerid") ?: VIDEO_PLAYER
+                val title = data?.getAsJsonObject("item")?.get("title")?.asString?.ifBlank { null }
+                _state.update {
+                    it.copy(
+                        activePlayers = it.activePlayers + playerId,
+                        isPaused = false,
+                        nowPlaying = title ?: it.nowPlaying
+                    )
+                }
+            }
+            "Player.OnPause" -> _state.update { it.copy(isPaused = true) }
+            "Player.OnStop" -> _state.update {
+                it.copy(activePlayers = emptySet(), isPaused = false, nowPlaying = null)
+            }
+            "Playlist.OnAdd" -> if (data.intAt("playlistid") == VIDEO_PLAYLIST) {
+                _state.update { it.copy(playlistSize = (it.playlistSize ?: 0) + 1) }
+            }
+            "Playlist.OnRemove" -> if (data.intAt("playlistid") == VIDEO_PLAYLIST) {
+                _state.update { it.copy(playlistSize = it.playlistSize?.minus(1)?.coerceAtLeast(0)) }
+            }
+            "Playlist.OnClear" -> if (data.intAt("playlistid") == VIDEO_PLAYLIST) {
+                _state.update { it.copy(playlistSize = 0) }
+            }
+        }
+    }
+
+    private fun JsonObject?.intAt(vararg path: String): Int? {
+        var node: JsonObject = this ?: return null
+        for (key in path.dropLast(1)) {
+            node = node.get(key)?.takeIf { it.isJsonObject }?.asJsonObject ?: return null
+        }
+        val value = node.get(path.last())
+        return if (value != null && value.isJsonPrimitive) value.asInt else null
+    }
+}
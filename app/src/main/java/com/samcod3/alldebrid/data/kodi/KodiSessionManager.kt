@@ -0,0 +1,66 @@
+package com.samcod3.alldebrid.data.kodi
+
+import com.google.gson.Gson
+import com.samcod3.alldebrid.data.datastore.DeviceRegistryStore
+import com.samcod3.alldebrid.data.model.Device
+import com.samcod3.alldebrid.data.model.DeviceType
+import com.samcod3.alldebrid.di.ApplicationScope
+import com.samcod3.alldebrid.di.StreamingHttpClient
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import okhttp3.OkHttpClient
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Keeps a [KodiSession] open to the selected Kodi device, so its player state
+ * is already known when the user casts. Switching to another device (or to a
+ * DLNA renderer) closes the previous session.
+ */
+@Singleton
+class KodiSessionManager @Inject constructor(
+    @StreamingHttpClient httpClient: OkHttpClient,
+    deviceRegistry: DeviceRegistryStore,
+    @ApplicationScope private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val PING_INTERVAL_S = 30L
+    }
+
+    // Sockets stay idle between notifications; pings detect dead peers instead
+    private val socketClient = httpClient.newBuilder()
+        .readTimeout(0, TimeUnit.MILLISECONDS)
+        .pingInterval(PING_INTERVAL_S, TimeUnit.SECONDS)
+        .build()
+
+    private val gson = Gson()
+
+    @Volatile
+    private var session: KodiSession? = null
+
+    init {
+        scope.launch {
+            deviceRegistry.selectedDevice
+                .map { device -> device?.takeIf { it.type == DeviceType.KODI }?.address }
+                .distinctUntilChanged()
+                .collect { address -> switchTo(address) }
+        }
+    }
+
+    /**
+     * Session for [device] if its socket is up and its player state loaded, else null.
+     */
+    fun connectedSession(device: Device): KodiSession? {
+        return session?.takeIf { it.address == device.address && it.state.value.isConnected }
+    }
+
+    private fun switchTo(address: String?) {
+        session?.close()
+        session = address?.let { KodiSession(it, socketClient, scope, gson) }
+        session?.connect()
+    }
+}
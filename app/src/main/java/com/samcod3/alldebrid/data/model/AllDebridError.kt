@@ -24,6 +24,12 @@ sealed class AllDebridError(val code: String, val message: String) {
          */
         val IP_AUTHORIZATION_REQUIRED = listOf("AUTH_BLOCKED", "NO_SERVER")
         
+        /**
+         * Errors meaning the key itself is no good (as opposed to the service
+         * being down or this IP being blocked)
+         */
+        val KEY_REJECTED = listOf("AUTH_MISSING_APIKEY", "AUTH_BAD_APIKEY", "AUTH_USER_BANNED")
+        
         /**
          * URL to authorize VPN/new IPs
          */
@@ -44,5 +50,9 @@ sealed class AllDebridError(val code: String, val message: String) {
         fun requiresIpAuthorization(code: String): Boolean {
             return code in IP_AUTHORIZATION_REQUIRED
         }
+        
+        fun rejectsKey(code: String): Boolean {
+            return code in KEY_REJECTED
+        }
     }
 }
@@ -1,7 +1,11 @@
 package com.samcod3.alldebrid.data.model
 
+import androidx.compose.runtime.Immutable
+import com.google.gson.JsonElement
 import com.google.gson.annotations.SerializedName
 
+// Never mutated after parsing; lets Compose skip rows whose magnet is unchanged
+@Immutable
 data class Magnet(
     @SerializedName("id")
     val id: Long,
@@ -9,6 +13,9 @@ data class Magnet(
     @SerializedName("filename")
     val filename: String,
     
+    @SerializedName("hash")
+    val hash: String? = null,
+    
     @SerializedName("size")
     val size: Long,
     
@@ -39,6 +46,7 @@ data class Magnet(
     @SerializedName("completionDate")
     val completionDate: Long? = null,
     
+    // Not sent by magnet/status v4.1; files come from magnet/files on demand
     @SerializedName("links")
     val links: List<MagnetLink> = emptyList()
 )
@@ -70,6 +78,82 @@ data class MagnetsData(
     val magnets: List<Magnet>
 )
 
+/**
+ * `magnet/status` called with an id: `magnets` is a single object there, or a
+ * one-element list depending on the API version.
+ */
+data class MagnetStatusResponse(
+    @SerializedName("status")
+    val status: String,
+    
+    @SerializedName("data")
+    val data: SingleMagnetData?,
+    
+    @SerializedName("error")
+    val error: ApiError? = null
+)
+
+data class SingleMagnetData(
+    @SerializedName("magnets")
+    val magnets: JsonElement?
+)
+
+data class MagnetFilesResponse(
+    @SerializedName("status")
+    val status: String,
+    
+    @SerializedName("data")
+    val data: MagnetFilesData?,
+    
+    @SerializedName("error")
+    val error: ApiError? = null
+)
+
+data class MagnetFilesData(
+    @SerializedName("magnets")
+    val magnets: List<MagnetFiles> = emptyList()
+)
+
+/**
+ * File tree of one magnet, or the error for that id.
+ */
+data class MagnetFiles(
+    @SerializedName("id")
+    val id: Long,
+    
+    @SerializedName("files")
+    val files: List<MagnetFileNode>? = null,
+    
+    @SerializedName("error")
+    val error: ApiError? = null
+)
+
+/**
+ * Node of a magnet's file tree: a file has a link ([l]) and size ([s]), a
+ * folder has entries ([e]).
+ */
+data class MagnetFileNode(
+    @SerializedName("n")
+    val n: String,
+    
+    @SerializedName("s")
+    val s: Long = 0,
+    
+    @SerializedName("l")
+    val l: String? = null,
+    
+    @SerializedName("e")
+    val e: List<MagnetFileNode>? = null
+) {
+    /**
+     * Every file below this node, as the flat list the UI works with.
+     */
+    fun flatten(): List<MagnetLink> {
+        val children = e ?: return l?.let { listOf(MagnetLink(link = it, filename = n, size = s)) }.orEmpty()
+        return children.flatMap { it.flatten() }
+    }
+}
+
 data class MagnetUploadResponse(
     @SerializedName("status")
     val status: String,
@@ -33,8 +33,17 @@ data class SearchResult(
     // Local state - not from API
     val addedToDebrid: Boolean = false,
     val isDownloading: Boolean = false, // True if AllDebrid is downloading, false if cached/instant
-    val failed: Boolean = false
-)
+    val failed: Boolean = false,
+    
+    // Filled in by SearchViewModel from magnetUri, when it has a hex infohash
+    val infoHash: String? = null
+) {
+    /**
+     * Identity of the torrent in the results list.
+     */
+    val listKey: String
+        get() = infoHash ?: magnetUri ?: link ?: "$tracker/$title"
+}
 
 data class JackettSearchResponse(
     @SerializedName("Results")
@@ -0,0 +1,75 @@
+package com.samcod3.alldebrid.data.network
+
+import android.os.SystemClock
+
+/**
+ * Per-host circuit breaker.
+ *
+ * Closed: calls pass through and consecutive failures are counted.
+ * Open: calls are rejected until [ResiliencePolicy.openDurationMs] elapses.
+ * Half-open: a single trial call is let through; its outcome closes or
+ * re-opens the breaker.
+ */
+class CircuitBreaker(
+    private val failureThreshold: Int,
+    private val openDurationMs: Long
+) {
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    private var state = State.CLOSED
+    private var consecutiveFailures = 0
+    private var openedAt = 0L
+    private var trialInFlight = false
+
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        return when (state) {
+            State.CLOSED -> true
+            State.OPEN -> {
+                if (SystemClock.elapsedRealtime() - openedAt >= openDurationMs) {
+                    state = State.HALF_OPEN
+                    trialInFlight = true
+                    true
+                } else {
+                    false
+                }
+            }
+            State.HALF_OPEN -> {
+                if (trialInFlight) {
+                    false
+                } else {
+                    trialInFlight = true
+                    true
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    fun onSuccess() {
+        state = State.CLOSED
+        consecutiveFailures = 0
+        trialInFlight = false
+    }
+
+    @Synchronized
+    fun onFailure() {
+        consecutiveFailures++
+        trialInFlight = false
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN
+            openedAt = SystemClock.elapsedRealtime()
+        }
+    }
+
+    /**
+     * Release a trial slot without judging the host (e.g. caller cancelled).
+     */
+    @Synchronized
+    fun onAbandoned() {
+        trialInFlight = false
+    }
+
+    @Synchronized
+    fun currentState(): State = state
+}
@@ -0,0 +1,26 @@
+package com.samcod3.alldebrid.data.network
+
+import java.net.DatagramSocket
+import java.net.InetAddress
+
+/**
+ * Helpers for servers the app exposes to devices on the LAN.
+ */
+object LocalNetwork {
+
+    /**
+     * Address of the local interface that routes to [remoteAddress], i.e. the
+     * one that device can reach us on. Blocking; call off the main thread.
+     */
+    fun addressTowards(remoteAddress: String): String? {
+        return try {
+            DatagramSocket().use { socket ->
+                // Connecting a UDP socket sends nothing; it only picks the route
+                socket.connect(InetAddress.getByName(remoteAddress), 1900)
+                socket.localAddress?.takeUnless { it.isAnyLocalAddress }?.hostAddress
+            }
+        } catch (e: Exception) {
+            null
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.samcod3.alldebrid.data.network
+
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.supervisorScope
+import kotlinx.coroutines.withTimeoutOrNull
+import retrofit2.Response
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.random.Random
+
+/**
+ * Runs network calls under the (fixed) [ResiliencePolicy] of their [Endpoint]:
+ * per-host circuit breaker, then retries with jittered backoff, then
+ * latency hedging for each attempt.
+ *
+ * Transport errors ([IOException]) and retryable HTTP statuses (408, 429, 5xx)
+ * are retried; anything else is returned or rethrown unchanged so callers keep
+ * their existing error mapping.
+ */
+@Singleton
+class ResilienceExecutor @Inject constructor() {
+
+    companion object {
+        private const val TAG = "ResilienceExecutor"
+        private const val LATENCY_WINDOW = 64
+        private const val MIN_LATENCY_SAMPLES = 10
+    }
+
+    val metrics = ResilienceMetrics()
+
+    private val breakers = ConcurrentHashMap<String, CircuitBreaker>()
+    private val latencies = ConcurrentHashMap<Endpoint, LatencyWindow>()
+
+    /**
+     * @param host breaker key (e.g. "192.168.1.20:8080"); ignored unless the
+     * policy enables [ResiliencePolicy.circuitBreaker]
+     */
+    suspend fun <T> execute(endpoint: Endpoint, host: String? = null, call: suspend () -> T): T {
+        val policy = endpoint.policy
+        val breaker = if (policy.circuitBreaker && host != null) {
+            breakers.getOrPut("${endpoint.name}@$host") {
+                CircuitBreaker(policy.failureThreshold, policy.openDurationMs)
+            }
+        } else null
+
+        if (breaker != null && !breaker.tryAcquire()) {
+            metrics.increment(endpoint, ResilienceMetrics.Outcome.SHORT_CIRCUIT)
+            throw CircuitOpenException(host!!)
+        }
+
+        var attempt = 0
+        while (true) {
+            attempt++
+            val canRetry = attempt < policy.maxAttempts
+            try {
+                val result = attemptOnce(endpoint, policy, call)
+                if (result is Response<*> && isRetryableStatus(result.code())) {
+                    if (canRetry) {
+                        metrics.increment(endpoint, ResilienceMetrics.Outcome.RETRY)
+                        Log.d(TAG, "$endpoint HTTP ${result.code()}, retry #$attempt")
+                        delay(backoff(policy, attempt))
+                        continue
+                    }
+                    breaker?.onFailure()
+                    metrics.increment(endpoint, ResilienceMetrics.Outcome.FAILURE)
+                    return result
+                }
+                breaker?.onSuccess()
+                metrics.increment(endpoint, ResilienceMetrics.Outcome.SUCCESS)
+                return result
+            } catch (e: CancellationException) {
+                breaker?.onAbandoned()
+                throw e
+            } catch (e: IOException) {
+                if (canRetry) {
+                    metrics.increment(endpoint, ResilienceMetrics.Outcome.RETRY)
+                    Log.d(TAG, "$endpoint failed (${e.message}), retry #$attempt")
+                    delay(backoff(policy, attempt))
+                    continue
+                }
+                breaker?.onFailure()
+                metrics.increment(endpoint, ResilienceMetrics.Outcome.FAILURE)
+                throw e
+            } catch (e: Exception) {
+                // Not a transport problem (parsing, programming error): don't retry
+                breaker?.onAbandoned()
+                metrics.increment(endpoint, ResilienceMetrics.Outcome.FAILURE)
+                throw e
+            }
+        }
+    }
+
+    private suspend fun <T> attemptOnce(
+        endpoint: Endpoint,
+        policy: ResiliencePolicy,
+        call: suspend () -> T
+    ): T {
+        val hedgeDelay = if (policy.hedge) {
+            latencies[endpoint]?.percentile95()?.coerceAtLeast(policy.minHedgeDelayMs)
+        } else null
+
+        return if (hedgeDelay == null) {
+            timed(endpoint, call)
+        } else {
+            hedged(endpoint, hedgeDelay, call)
+        }
+    }
+
+    private suspend fun <T> timed(endpoint: Endpoint, call: suspend () -> T): T {
+        val start = SystemClock.elapsedRealtime()
+        val result = call()
+        latencies.getOrPut(endpoint) { LatencyWindow(LATENCY_WINDOW) }
+            .record(SystemClock.elapsedRealtime() - start)
+        return result
+    }
+
+    /**
+     * Start the call; if it hasn't finished after [hedgeDelayMs], start an
+     * identical backup and return the first successful answer.
+     */
+    private suspend fun <T> hedged(
+        endpoint: Endpoint,
+        hedgeDelayMs: Long,
+        call: suspend () -> T
+    ): T = supervisorScope {
+        val primary = async { timed(endpoint, call) }
+        if (withTimeoutOrNull(hedgeDelayMs) { primary.join() } != null) {
+            return@supervisorScope primary.await()
+        }
+
+        metrics.increment(endpoint, ResilienceMetrics.Outcome.HEDGE)
+        val backup = async { timed(endpoint, call) }
+        val winner = select<Deferred<T>> {
+            primary.onJoin { primary }
+            backup.onJoin { backup }
+        }
+        val other = if (winner === primary) backup else primary
+
+        val value = try {
+            winner.await()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            // First one to finish failed: the other one is still our best shot
+            return@supervisorScope other.await()
+        }
+        other.cancel()
+        if (winner === backup) {
+            metrics.increment(endpoint, ResilienceMetrics.Outcome.HEDGE_WIN)
+        }
+        value
+    }
+
+    private fun isRetryableStatus(code: Int): Boolean {
+        return code == 408 || code == 429 || code in 500..599
+    }
+
+    /**
+     * Exponential backoff, jittered within the upper half of the window.
+     */
+    private fun backoff(policy: ResiliencePolicy, attempt: Int): Long {
+        val exp = policy.baseBackoffMs shl (attempt - 1).coerceAtMost(10)
+        val cap = exp.coerceAtMost(policy.maxBackoffMs)
+        return Random.nextLong(cap / 2, cap + 1)
+    }
+
+    /**
+     * Fixed-size ring of recent latencies for one endpoint.
+     */
+    private class LatencyWindow(size: Int) {
+        private val samples = LongArray(size)
+        private var count = 0
+        private var next = 0
+
+        @Synchronized
+        fun record(latencyMs: Long) {
+            samples[next] = latencyMs
+            next = (next + 1) % samples.size
+            if (count < samples.size) count++
+        }
+
+        @Synchronized
+        fun percentile95(): Long? {
+            if (count < MIN_LATENCY_SAMPLES) return null
+            val sorted = samples.copyOf(count).apply { sort() }
+            return sorted[((count - 1) * 95) / 100]
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.samcod3.alldebrid.data.network
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Outcome counters per endpoint since the process started, shown in the
+ * debug build's settings.
+ */
+class ResilienceMetrics {
+
+    enum class Outcome {
+        /** Call returned a usable response */
+        SUCCESS,
+        /** An attempt failed and was retried */
+        RETRY,
+        /** A hedge request was sent */
+        HEDGE,
+        /** The hedge request answered before the original one */
+        HEDGE_WIN,
+        /** All attempts failed */
+        FAILURE,
+        /** Rejected by an open circuit breaker */
+        SHORT_CIRCUIT
+    }
+
+    private val counters = ConcurrentHashMap<Endpoint, AtomicLongArray>()
+
+    fun increment(endpoint: Endpoint, outcome: Outcome) {
+        counters.getOrPut(endpoint) { AtomicLongArray(Outcome.entries.size) }
+            .incrementAndGet(outcome.ordinal)
+    }
+
+    fun snapshot(): Map<Endpoint, Map<Outcome, Long>> {
+        return counters.mapValues { (_, values) ->
+            Outcome.entries.associateWith { values.get(it.ordinal) }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.samcod3.alldebrid.data.network
+
+/**
+ * How a single endpoint should behave when calls fail or stall.
+ *
+ * @param maxAttempts total attempts including the first one (1 = no retry)
+ * @param baseBackoffMs first retry delay before jitter; doubles per attempt
+ * @param maxBackoffMs upper bound for a single retry delay
+ * @param hedge send a second identical request once the first one exceeds
+ * the observed p95 latency, and take whichever answers first
+ * @param minHedgeDelayMs never hedge earlier than this, even if p95 is lower
+ * @param circuitBreaker trip a per-host breaker after repeated failures
+ * @param failureThreshold consecutive failures that open the breaker
+ * @param openDurationMs how long an open breaker fails fast before allowing a trial call
+ */
+data class ResiliencePolicy(
+    val maxAttempts: Int = 1,
+    val baseBackoffMs: Long = 300,
+    val maxBackoffMs: Long = 3_000,
+    val hedge: Boolean = false,
+    val minHedgeDelayMs: Long = 400,
+    val circuitBreaker: Boolean = false,
+    val failureThreshold: Int = 3,
+    val openDurationMs: Long = 30_000
+)
+
+/**
+ * Endpoints going through [ResilienceExecutor], with their policy.
+ * Only idempotent calls retry; uploads and deletes make a single attempt.
+ */
+enum class Endpoint(val policy: ResiliencePolicy) {
+    ALLDEBRID_USER(ResiliencePolicy(maxAttempts = 3)),
+    ALLDEBRID_MAGNET_STATUS(ResiliencePolicy(maxAttempts = 3)),
+    ALLDEBRID_MAGNET_FILES(ResiliencePolicy(maxAttempts = 3)),
+    ALLDEBRID_MAGNET_UPLOAD(ResiliencePolicy()),
+    ALLDEBRID_MAGNET_DELETE(ResiliencePolicy()),
+    ALLDEBRID_LINK_UNLOCK(ResiliencePolicy(maxAttempts = 3, hedge = true)),
+    JACKETT_SEARCH(ResiliencePolicy(maxAttempts = 2, baseBackoffMs = 500, circuitBreaker = true)),
+    KODI_QUERY(ResiliencePolicy(maxAttempts = 2, baseBackoffMs = 200, circuitBreaker = true, openDurationMs = 15_000)),
+    KODI_COMMAND(ResiliencePolicy(circuitBreaker = true, openDurationMs = 15_000))
+}
+
+/**
+ * Thrown without touching the network while a host's breaker is open.
+ */
+class CircuitOpenException(val host: String) :
+    java.io.IOException("$host is not responding, try again shortly")
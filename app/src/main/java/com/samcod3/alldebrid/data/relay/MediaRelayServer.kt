@@ -0,0 +1,384 @@
+package com.samcod3.alldebrid.data.relay
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import com.samcod3.alldebrid.data.network.LocalNetwork
+import com.samcod3.alldebrid.di.ApplicationScope
+import com.samcod3.alldebrid.di.StreamingHttpClient
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Small HTTP server that relays unlocked links to renderers on the LAN.
+ *
+ * Renderers get a short `http://<phone>:<port>/m/<token>.<ext>` URL instead of
+ * a long HTTPS one, with a MIME type they accept. Range requests are forwarded
+ * upstream through the shared OkHttp pool, so seeks reuse keep-alive
+ * connections. The first and last [HOT_BYTES] of each file (container header
+ * and index) are kept in a disk cache, so the seeks players make there while
+ * probing a file are answered without going upstream.
+ */
+@Singleton
+class MediaRelayServer @Inject constructor(
+    @ApplicationContext context: Context,
+    @StreamingHttpClient httpClient: OkHttpClient,
+    @ApplicationScope private val scope: CoroutineScope
+) {
+
+    companion object {
+        private const val TAG = "MediaRelay"
+        private const val CACHE_BYTES = 64L * 1024 * 1024
+        private const val HOT_BYTES = 4L * 1024 * 1024
+        // A queued link may wait hours for its turn; unlocked links expire well before this
+        private const val ENTRY_TTL_MS = 24L * 60 * 60 * 1000
+        // Bounds what a client on the LAN can make us buffer per request
+        private const val MAX_LINE_LENGTH = 8 * 1024
+        private const val MAX_HEADERS = 100
+        private const val IDLE_TIMEOUT_MS = 60_000
+        private const val IO_BUFFER = 64 * 1024
+        private const val BLOCK = RangeBlockCache.BLOCK_SIZE.toLong()
+
+        private val RANGE = Regex("""bytes=(\d*)-(\d*)""")
+        private val CONTENT_RANGE_TOTAL = Regex("""/(\d+)$""")
+        private val EXTENSION = Regex("""\.([A-Za-z0-9]{2,5})$""")
+    }
+
+    private class Entry(val upstreamUrl: String, val key: String) {
+        @Volatile var length = -1L
+        @Volatile var contentType: String? = null
+        @Volatile var lastUsed = SystemClock.elapsedRealtime()
+    }
+
+    private class HttpRequest(val method: String, val path: String, val headers: Map<String, String>)
+
+    private val upstream = httpClient.newBuilder()
+        .readTimeout(30, TimeUnit.SECONDS)
+        .build()
+
+    private val cache = RangeBlockCache(File(context.cacheDir, "relay"), CACHE_BYTES)
+
+    // Registered links by token. Expired by age, not count: a long queue
+    // registers every item up front and each must still resolve when played
+    private val entries = HashMap<String, Entry>()
+
+    private var server: ServerSocketChannel? = null
+
+    /**
+     * LAN URL that relays [upstreamUrl] to the device at [targetAddress], or
+     * null if no local interface reaches it.
+     */
+    suspend fun relayUrl(upstreamUrl: String, targetAddress: String): String? = withContext(Dispatchers.IO) {
+        val host = LocalNetwork.addressTowards(targetAddress) ?: return@withContext null
+        val port = try {
+            start()
+        } catch (e: IOException) {
+            Log.e(TAG, "Could not start relay", e)
+            return@withContext null
+        }
+        val token = tokenFor(upstreamUrl)
+        synchronized(entries) {
+            val now = SystemClock.elapsedRealtime()
+            entries.values.removeAll { now - it.lastUsed > ENTRY_TTL_MS }
+            val entry = entries.getOrPut(token) { Entry(upstreamUrl, token) }
+            entry.lastUsed = now
+        }
+        val extension = EXTENSION.find(upstreamUrl.substringBefore('?'))?.groupValues?.get(1)?.lowercase() ?: "mp4"
+        "http://$host:$port/m/$token.$extension"
+    }
+
+    @Synchronized
+    private fun start(): Int {
+        server?.let { return (it.localAddress as InetSocketAddress).port }
+        val channel = ServerSocketChannel.open().apply { bind(InetSocketAddress(0)) }
+        server = channel
+        scope.launch(Dispatchers.IO) {
+            while (isActive) {
+                val client = try {
+                    channel.accept()
+                } catch (e: IOException) {
+                    Log.w(TAG, "Relay stopped accepting: ${e.message}")
+                    synchronized(this@MediaRelayServer) { if (server === channel) server = null }
+                    break
+                }
+                launch { serve(client) }
+            }
+        }
+        val port = (channel.localAddress as InetSocketAddress).port
+        Log.d(TAG, "Relay listening on port $port")
+        return port
+    }
+
+    /**
+     * Answer requests on one connection until the client closes it or asks to.
+     */
+    private fun serve(client: SocketChannel) {
+        client.use { channel ->
+            try {
+                val socket = channel.socket()
+                socket.soTimeout = IDLE_TIMEOUT_MS
+                val input = BufferedInputStream(socket.getInputStream())
+                while (true) {
+                    val request = readRequest(input) ?: break
+                    if (!handle(channel, request)) break
+                }
+            } catch (e: IOException) {
+                // Renderers drop connections on every seek; nothing to report
+                Log.v(TAG, "Connection closed: ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * Serve one request; returns whether the connection may be reused.
+     */
+    private fun handle(channel: SocketChannel, request: HttpRequest): Boolean {
+        val keepAlive = !request.headers["CONNECTION"].equals("close", ignoreCase = true)
+        val token = request.path.removePrefix("/m/").substringBefore('.')
+        val entry = synchronized(entries) { entries[token] }
+        if (entry == null || !request.path.startsWith("/m/")) {
+            writeHead(channel, "404 Not Found", mapOf("Content-Length" to "0"), keepAlive)
+            return keepAlive
+        }
+        entry.lastUsed = SystemClock.elapsedRealtime()
+        if (request.method != "GET" && request.method != "HEAD") {
+            writeHead(channel, "405 Method Not Allowed", mapOf("Content-Length" to "0"), keepAlive)
+            return keepAlive
+        }
+
+        val length = probe(entry)
+        val range = request.headers["RANGE"]?.let { parseRange(it, length) }
+        if (range == null && request.headers["RANGE"] != null) {
+            writeHead(channel, "416 Range Not Satisfiable", mapOf(
+                "Content-Range" to "bytes */$length",
+                "Content-Length" to "0"
+            ), keepAlive)
+            return keepAlive
+        }
+        val (start, end) = range ?: (0L to length - 1)
+
+        val headers = linkedMapOf(
+            "Content-Type" to (entry.contentType ?: VideoMimeTypes.forUrl(request.path)),
+            "Content-Length" to (end - start + 1).toString(),
+            "Accept-Ranges" to "bytes",
+            "transferMode.dlna.org" to "Streaming",
+            "contentFeatures.dlna.org" to "DLNA.ORG_OP=01;DLNA.ORG_CI=0;DLNA.ORG_FLAGS=01700000000000000000000000000000"
+        )
+        if (range != null) headers["Content-Range"] = "bytes $start-$end/$length"
+        writeHead(channel, if (range != null) "206 Partial Content" else "200 OK", headers, keepAlive)
+
+        if (request.method == "GET") sendRange(channel, entry, start, end)
+        return keepAlive
+    }
+
+    /**
+     * Total length and type of the upstream file, asked once per entry.
+     */
+    private fun probe(entry: Entry): Long {
+        if (entry.length >= 0) return entry.length
+        val request = Request.Builder()
+            .url(entry.upstreamUrl)
+            .header("Range", "bytes=0-0")
+            .build()
+        upstream.newCall(request).execute().use { response ->
+            val total = when (response.code) {
+                206 -> response.header("Content-Range")?.let { CONTENT_RANGE_TOTAL.find(it) }?.groupValues?.get(1)?.toLongOrNull()
+                200 -> response.body?.contentLength()?.takeIf { it >= 0 }
+                else -> null
+            } ?: throw IOException("Upstream probe failed: HTTP ${response.code}")
+            entry.contentType = response.header("Content-Type")
+                ?.takeIf { it.startsWith("video/") || it.startsWith("audio/") }
+            entry.length = total
+            return total
+        }
+    }
+
+    private fun parseRange(header: String, length: Long): Pair<Long, Long>? {
+        val match = RANGE.find(header) ?: return null
+        val (from, to) = match.destructured
+        val range = when {
+            from.isEmpty() && to.isEmpty() -> return null
+            from.isEmpty() -> (length - to.toLong()).coerceAtLeast(0) to length - 1 // Suffix range
+            to.isEmpty() -> from.toLong() to length - 1
+            else -> from.toLong() to minOf(to.toLong(), length - 1)
+        }
+        return range.takeIf { it.first <= it.second && it.first < length }
+    }
+
+    /**
+     * Send bytes [start, end] of [entry]: cached blocks from disk, everything
+     * in between from upstream in as few requests as possible.
+     */
+    private fun sendRange(channel: SocketChannel, entry: Entry, start: Long, end: Long) {
+        var pos = start
+        while (pos <= end) {
+            val block = pos / BLOCK
+            val cached = cache.open(entry.key, block)
+            if (cached != null) {
+                val sent = cached.use { file ->
+                    val offset = pos - block * BLOCK
+                    val count = minOf(end - pos + 1, file.size() - offset)
+                    if (count > 0) transferFully(file, offset, count, channel)
+                    count
+                }
+                if (sent > 0) {
+                    pos += sent
+                    continue
+                }
+            }
+            val nextCached = cache.nextCached(entry.key, block, end / BLOCK)
+            val runEnd = if (nextCached != null) nextCached * BLOCK - 1 else end
+            streamUpstream(channel, entry, pos, runEnd)
+            pos = runEnd + 1
+        }
+    }
+
+    /**
+     * Relay [from, to] from upstream. Hot blocks touched on the way are fetched
+     * whole (the request is widened to block boundaries) and cached.
+     */
+    private fun streamUpstream(channel: SocketChannel, entry: Entry, from: Long, to: Long) {
+        val firstBlock = from / BLOCK
+        val lastBlock = to / BLOCK
+        val fetchStart = if (isHot(entry, firstBlock)) firstBlock * BLOCK else from
+        val fetchEnd = if (isHot(entry, lastBlock)) minOf((lastBlock + 1) * BLOCK, entry.length) - 1 else to
+
+        val request = Request.Builder()
+            .url(entry.upstreamUrl)
+            .header("Range", "bytes=$fetchStart-$fetchEnd")
+            .build()
+        upstream.newCall(request).execute().use { response ->
+            // A 200 means the range was ignored and the body starts at byte 0
+            val bodyStart = when (response.code) {
+                206 -> fetchStart
+                200 -> 0L
+                else -> throw IOException("Upstream HTTP ${response.code}")
+            }
+            val source = response.body!!.source()
+            if (bodyStart < fetchStart) source.skip(fetchStart - bodyStart)
+
+            val buffer = ByteArray(IO_BUFFER)
+            val blockData = ByteArray(BLOCK.toInt())
+            var blockIndex = -1L
+            var blockFill = 0
+            var collecting = false
+            var offset = fetchStart
+
+            while (offset <= fetchEnd) {
+                val want = minOf(buffer.size.toLong(), fetchEnd - offset + 1).toInt()
+                val read = source.read(buffer, 0, want)
+                if (read < 0) throw IOException("Upstream ended at $offset of $fetchEnd")
+
+                // The part the client asked for
+                val sendFrom = maxOf(offset, from)
+                val sendTo = minOf(offset + read - 1, to)
+                if (sendFrom <= sendTo) {
+                    writeFully(channel, ByteBuffer.wrap(buffer, (sendFrom - offset).toInt(), (sendTo - sendFrom + 1).toInt()))
+                }
+
+                // Hot blocks seen from their first byte go to the cache once complete
+                var i = 0
+                while (i < read) {
+                    val absolute = offset + i
+                    val index = absolute / BLOCK
+                    val inBlock = absolute - index * BLOCK
+                    if (index != blockIndex) {
+                        blockIndex = index
+                        blockFill = 0
+                        collecting = inBlock == 0L && isHot(entry, index) && !cache.contains(entry.key, index)
+                    }
+                    val count = minOf(read - i, (BLOCK - inBlock).toInt())
+                    if (collecting) {
+                        System.arraycopy(buffer, i, blockData, blockFill, count)
+                        blockFill += count
+                        if (blockFill.toLong() == minOf(BLOCK, entry.length - index * BLOCK)) {
+                            cache.put(entry.key, index, blockData, blockFill)
+                            collecting = false
+                        }
+                    }
+                    i += count
+                }
+                offset += read
+            }
+        }
+    }
+
+    private fun isHot(entry: Entry, block: Long): Boolean {
+        val blockStart = block * BLOCK
+        val blockEnd = blockStart + BLOCK - 1
+        return blockStart < HOT_BYTES || blockEnd >= entry.length - HOT_BYTES
+    }
+
+    private fun readRequest(input: InputStream): HttpRequest? {
+        val requestLine = readLine(input) ?: return null
+        val parts = requestLine.split(' ')
+        if (parts.size < 2) throw IOException("Malformed request line")
+        val headers = mutableMapOf<String, String>()
+        while (true) {
+            val line = readLine(input) ?: return null
+            if (line.isEmpty()) break
+            if (headers.size >= MAX_HEADERS) throw IOException("Too many headers")
+            val colon = line.indexOf(':')
+            if (colon > 0) headers[line.substring(0, colon).trim().uppercase()] = line.substring(colon + 1).trim()
+        }
+        return HttpRequest(parts[0].uppercase(), parts[1].substringBefore('?'), headers)
+    }
+
+    private fun readLine(input: InputStream): String? {
+        val line = StringBuilder()
+        while (true) {
+            val c = input.read()
+            if (c < 0) return if (line.isEmpty()) null else line.toString()
+            if (c == '\n'.code) return line.toString().trimEnd('\r')
+            if (line.length >= MAX_LINE_LENGTH) throw IOException("Request line too long")
+            line.append(c.toChar())
+        }
+    }
+
+    private fun writeHead(channel: SocketChannel, status: String, headers: Map<String, String>, keepAlive: Boolean) {
+        val head = buildString {
+            append("HTTP/1.1 ").append(status).append("\r\n")
+            headers.forEach { (name, value) -> append(name).append(": ").append(value).append("\r\n") }
+            append("Connection: ").append(if (keepAlive) "keep-alive" else "close").append("\r\n")
+            append("\r\n")
+        }
+        writeFully(channel, ByteBuffer.wrap(head.toByteArray(Charsets.ISO_8859_1)))
+    }
+
+    private fun writeFully(channel: SocketChannel, buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) channel.write(buffer)
+    }
+
+    private fun transferFully(file: FileChannel, position: Long, count: Long, channel: SocketChannel) {
+        var done = 0L
+        while (done < count) {
+            val sent = file.transferTo(position + done, count - done, channel)
+            if (sent <= 0) throw IOException("Cache transfer stalled")
+            done += sent
+        }
+    }
+
+    private fun tokenFor(url: String): String {
+        val digest = MessageDigest.getInstance("SHA-1").digest(url.toByteArray())
+        return digest.take(6).joinToString("") { "%02x".format(it) }
+    }
+}
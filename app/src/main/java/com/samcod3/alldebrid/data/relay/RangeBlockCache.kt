@@ -0,0 +1,109 @@
+package com.samcod3.alldebrid.data.relay
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Bounded disk cache of fixed-size blocks of relayed media, one file per
+ * block. Only complete blocks are stored, so a cached block can always be
+ * served as-is. When the cache grows past [maxBytes] the least recently used
+ * blocks are deleted.
+ */
+class RangeBlockCache(
+    private val dir: File,
+    private val maxBytes: Long
+) {
+
+    companion object {
+        private const val TAG = "RangeBlockCache"
+        const val BLOCK_SIZE = 256 * 1024
+    }
+
+    private val lock = Any()
+    private var totalBytes = 0L
+
+    // Cached block indexes per media key, so lookups never touch the disk
+    private val index = ConcurrentHashMap<String, MutableSet<Long>>()
+
+    init {
+        dir.mkdirs()
+        dir.listFiles()?.forEach { file ->
+            val key = file.name.substringBefore('.')
+            val block = file.name.substringAfter('.').toLongOrNull()
+            if (block == null) {
+                file.delete() // Leftover temp file
+            } else {
+                blocksOf(key).add(block)
+                totalBytes += file.length()
+            }
+        }
+    }
+
+    fun contains(key: String, block: Long): Boolean = index[key]?.contains(block) == true
+
+    /**
+     * First cached block of [key] in `(after, upTo]`, or null.
+     */
+    fun nextCached(key: String, after: Long, upTo: Long): Long? {
+        return index[key]?.filter { it in (after + 1)..upTo }?.minOrNull()
+    }
+
+    /**
+     * Open a cached block for reading, or null if it is not (or no longer) cached.
+     */
+    fun open(key: String, block: Long): FileChannel? {
+        if (!contains(key, block)) return null
+        val file = fileOf(key, block)
+        return try {
+            file.setLastModified(System.currentTimeMillis())
+            FileChannel.open(file.toPath(), StandardOpenOption.READ)
+        } catch (e: IOException) {
+            index[key]?.remove(block)
+            null
+        }
+    }
+
+    fun put(key: String, block: Long, data: ByteArray, length: Int) {
+        if (contains(key, block)) return
+        val file = fileOf(key, block)
+        val temp = File(dir, "${file.name}.tmp")
+        try {
+            temp.writeBytes(if (length == data.size) data else data.copyOf(length))
+            if (!temp.renameTo(file)) throw IOException("rename failed")
+        } catch (e: IOException) {
+            Log.w(TAG, "Could not cache block $block of $key: ${e.message}")
+            temp.delete()
+            return
+        }
+        synchronized(lock) {
+            blocksOf(key).add(block)
+            totalBytes += length
+            if (totalBytes > maxBytes) trim()
+        }
+    }
+
+    // Caller holds [lock]; evicts down to 90% so trimming is not needed on every put
+    private fun trim() {
+        val files = dir.listFiles { file -> !file.name.endsWith(".tmp") } ?: return
+        for (file in files.sortedBy { it.lastModified() }) {
+            if (totalBytes <= maxBytes * 9 / 10) break
+            val key = file.name.substringBefore('.')
+            val block = file.name.substringAfter('.').toLongOrNull() ?: continue
+            val length = file.length()
+            if (file.delete()) {
+                index[key]?.remove(block)
+                totalBytes -= length
+            }
+        }
+    }
+
+    private fun blocksOf(key: String): MutableSet<Long> {
+        return index.getOrPut(key) { ConcurrentHashMap.newKeySet() }
+    }
+
+    private fun fileOf(key: String, block: Long) = File(dir, "$key.$block")
+}
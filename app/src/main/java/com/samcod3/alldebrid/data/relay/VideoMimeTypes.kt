@@ -0,0 +1,17 @@
+package com.samcod3.alldebrid.data.relay
+
+/**
+ * MIME type renderers are told for a video URL, guessed from its extension.
+ */
+object VideoMimeTypes {
+
+    fun forUrl(url: String): String {
+        return when {
+            url.contains(".mkv", ignoreCase = true) -> "video/x-mkv"
+            url.contains(".mp4", ignoreCase = true) -> "video/mp4"
+            url.contains(".avi", ignoreCase = true) -> "video/avi"
+            url.contains(".webm", ignoreCase = true) -> "video/webm"
+            else -> "video/mp4" // default
+        }
+    }
+}
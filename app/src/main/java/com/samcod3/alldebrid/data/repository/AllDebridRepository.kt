@@ -1,20 +1,53 @@
 package com.samcod3.alldebrid.data.repository
 
 import android.util.Log
+import android.util.LruCache
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.map
+import com.google.gson.Gson
+import com.google.gson.JsonElement
 import com.samcod3.alldebrid.data.api.AllDebridApi
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
+import com.samcod3.alldebrid.data.db.MagnetEntity
 import com.samcod3.alldebrid.data.model.AllDebridError
 import com.samcod3.alldebrid.data.model.Link
 import com.samcod3.alldebrid.data.model.Magnet
+import com.samcod3.alldebrid.data.model.MagnetLink
 import com.samcod3.alldebrid.data.model.User
+import com.samcod3.alldebrid.data.network.Endpoint
+import com.samcod3.alldebrid.data.network.ResilienceExecutor
+import com.samcod3.alldebrid.data.torrent.TorrentMetadata
+import com.samcod3.alldebrid.data.torrent.TorrentParseException
+import com.samcod3.alldebrid.data.torrent.TorrentParser
+import com.samcod3.alldebrid.data.torrent.TorrentTooLargeException
+import com.samcod3.alldebrid.di.ApplicationScope
+import com.samcod3.alldebrid.di.StreamingAllDebridApi
+import com.samcod3.alldebrid.di.StreamingHttpClient
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
 import kotlinx.coroutines.withContext
+import okhttp3.MediaType
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.MultipartBody
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
+import okio.BufferedSink
+import okio.BufferedSource
+import okio.ByteString
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -26,19 +59,129 @@ class IpAuthorizationRequiredException(
     override val message: String = "IP authorization required. Please authorize this IP address."
 ) : Exception(message)
 
+/**
+ * AllDebrid answered without the expected data. [errorCode] is its
+ * `error.code`, or null when there was no usable body (e.g. an HTTP 5xx).
+ */
+class AllDebridApiException(
+    val errorCode: String?,
+    val httpCode: Int,
+    message: String
+) : Exception(message)
+
 @Singleton
 class AllDebridRepository @Inject constructor(
     private val api: AllDebridApi,
+    // Torrent files are streamed from the download, so they skip body logging
+    @StreamingAllDebridApi private val uploadApi: AllDebridApi,
     private val settingsDataStore: SettingsDataStore,
-    private val httpClient: OkHttpClient
+    @StreamingHttpClient private val httpClient: OkHttpClient,
+    private val resilience: ResilienceExecutor,
+    // Magnets from every subset fetched so far; also used to skip uploads of
+    // torrents already in the account
+    private val magnetStore: MagnetStore,
+    @ApplicationScope appScope: CoroutineScope
 ) {
     
     companion object {
         private const val TAG = "AllDebridRepository"
+        
+        // Freshness windows for coalesced reads
+        private const val USER_FRESHNESS_MS = 2_000L
+        private const val MAGNETS_FRESHNESS_MS = 2_000L
+        
+        // Subsets that change only through user actions are not refetched more often
+        private const val SUBSET_MAX_AGE_MS = 60_000L
+        
+        private const val KEY_USER = "user:"
+        private const val KEY_MAGNETS = "magnet/status:"
+        private const val KEY_FILES = "magnet/files:"
+        
+        // Ids per magnet/files request
+        private const val FILES_BATCH_SIZE = 50
+        
+        // Rows per page of the downloads list, and rows kept loaded around the viewport
+        private const val MAGNETS_PAGE_SIZE = 50
+        private const val MAGNETS_MAX_LOADED = 250
+        // Rows whose presentation is kept; covers a few loaded windows
+        private const val PRESENTATION_CACHE_SIZE = 2 * MAGNETS_MAX_LOADED
+        
+        // Real .torrent files are a few hundred KB; anything far bigger is not one
+        private const val MAX_TORRENT_BYTES = 10L * 1024 * 1024
+        private const val PREFETCH_CACHE_BYTES = 8 * 1024 * 1024
+    }
+    
+    /**
+     * Collapses identical concurrent `user` and `magnet/status` calls
+     * (refresh, silent refresh, post-delete refresh, connection test).
+     */
+    private val coalescer = RequestCoalescer(appScope)
+    
+    /**
+     * Magnets stored per subset, for the list's counters.
+     */
+    val magnetCounts: Flow<Map<MagnetStatusFilter, Int>> = magnetStore.counts
+    
+    private val filesCache = MagnetFilesCache()
+    
+    /**
+     * File lists loaded so far with [loadMagnetFiles], by magnet id.
+     */
+    val magnetFiles: StateFlow<Map<Long, MagnetFilesPresentation>> = filesCache.files
+    
+    private val gson = Gson()
+    
+    init {
+        // File lists follow the magnets they belong to
+        appScope.launch {
+            magnetStore.changes.collect {
+                val cached = filesCache.ids()
+                if (cached.isNotEmpty()) filesCache.retainMatching(cached, magnetStore.statuses(cached))
+            }
+        }
+    }
+    
+    /**
+     * Stored magnets in [filters] matching [query], newest first, paged from
+     * the database so only the rows around the viewport are held in memory.
+     */
+    fun pagedMagnets(filters: Set<MagnetStatusFilter>, query: String): Flow<PagingData<MagnetPresentation>> {
+        val config = PagingConfig(
+            pageSize = MAGNETS_PAGE_SIZE,
+            enablePlaceholders = true,
+            maxSize = MAGNETS_MAX_LOADED
+        )
+        return Pager(config) { magnetStore.pagingSource(filters, query) }
+            .flow
+            .map { page -> page.map { presentationOf(it) } }
+            .flowOn(Dispatchers.Default)
+    }
+    
+    private class CachedPresentation(val row: MagnetEntity, val presentation: MagnetPresentation)
+    
+    // Page loads after every poll re-read unchanged rows; only changed ones are formatted again
+    private val presentations = LruCache<Long, CachedPresentation>(PRESENTATION_CACHE_SIZE)
+    
+    private fun presentationOf(row: MagnetEntity): MagnetPresentation {
+        presentations.get(row.id)?.takeIf { it.row == row }?.let { return it.presentation }
+        val presentation = MagnetPresentation.of(row.toMagnet())
+        presentations.put(row.id, CachedPresentation(row, presentation))
+        return presentation
+    }
+    
+    /**
+     * Torrent downloads follow redirects manually to catch magnet links.
+     * Built once so every download shares the pool and dispatcher.
+     */
+    private val noRedirectClient: OkHttpClient by lazy {
+        httpClient.newBuilder()
+            .followRedirects(false)
+            .followSslRedirects(false)
+            .build()
     }
     
     private suspend fun getApiKey(): String {
-        return settingsDataStore.apiKey.first()
+        return settingsDataStore.snapshot().apiKey
     }
     
     /**
@@ -66,19 +209,29 @@ class AllDebridRepository @Inject constructor(
     }
     
     suspend fun validateApiKey(apiKey: String): Result<User> {
+        return coalescer.execute("$KEY_USER$apiKey", USER_FRESHNESS_MS) {
+            fetchUser(apiKey)
+        }
+    }
+    
+    private suspend fun fetchUser(apiKey: String): Result<User> {
         return try {
-            val response = api.getUser(apiKey = apiKey)
+            val response = resilience.execute(Endpoint.ALLDEBRID_USER) {
+                api.getUser(apiKey = apiKey)
+            }
             val body = response.body()
             
             if (response.isSuccessful && body?.status == "success") {
                 body.data?.user?.let {
                     Result.success(it)
-                } ?: Result.failure(Exception("Invalid response"))
+                } ?: Result.failure(AllDebridApiException(null, response.code(), "Invalid response"))
             } else {
                 // Check for IP authorization errors
                 val error = body?.error
                 checkForIpError(error?.code, error?.message)
-                Result.failure(Exception("API error: ${error?.message ?: response.code()}"))
+                Result.failure(
+                    AllDebridApiException(error?.code, response.code(), "API error: ${error?.message ?: response.code()}")
+                )
             }
         } catch (e: IpAuthorizationRequiredException) {
             Result.failure(e)
@@ -88,18 +241,199 @@ class AllDebridRepository @Inject constructor(
     }
     
     suspend fun getMagnets(): Result<List<Magnet>> {
+        val apiKey = try {
+            getApiKey()
+        } catch (e: Exception) {
+            return Result.failure(e)
+        }
+        if (apiKey.isBlank()) {
+            return Result.failure(Exception("No API key configured"))
+        }
+        return coalescer.execute("$KEY_MAGNETS$apiKey", MAGNETS_FRESHNESS_MS) {
+            fetchMagnets(apiKey, null).onSuccess { magnetStore.replaceAll(it) }
+        }
+    }
+    
+    /**
+     * Refresh only the given subsets, in parallel, skipping those fetched less
+     * than [maxAgeMs] ago. When active magnets leave the active subset, the
+     * subsets they may have moved to are refreshed too. Results land in
+     * [magnets]; fails if any requested subset could not be fetched.
+     */
+    suspend fun refreshMagnets(
+        filters: Set<MagnetStatusFilter>,
+        maxAgeMs: Long = SUBSET_MAX_AGE_MS
+    ): Result<Unit> {
+        val apiKey = try {
+            getApiKey()
+        } catch (e: Exception) {
+            return Result.failure(e)
+        }
+        if (apiKey.isBlank()) {
+            return Result.failure(Exception("No API key configured"))
+        }
+        
+        val stale = filters.filterNot { magnetStore.isFresh(it, maxAgeMs) }
+        val results = coroutineScope {
+            stale.map { filter -> async { fetchSubset(apiKey, filter) } }.awaitAll()
+        }
+        results.firstOrNull { it.isFailure }?.let { return Result.failure(it.exceptionOrNull()!!) }
+        
+        val finished = results.firstOrNull { it.getOrNull()?.first == MagnetStatusFilter.ACTIVE }
+            ?.getOrNull()?.second.orEmpty()
+        if (finished.isNotEmpty()) {
+            Log.d(TAG, "${finished.size} magnets left the active subset")
+            coroutineScope {
+                listOf(MagnetStatusFilter.READY, MagnetStatusFilter.ERROR)
+                    .map { filter -> async { fetchSubset(apiKey, filter) } }
+                    .awaitAll()
+            }
+        }
+        return Result.success(Unit)
+    }
+    
+    /**
+     * Refresh a single magnet with an id-targeted status call and update only
+     * its entry in [magnets]. Cheap enough to poll while its sheet is open.
+     */
+    suspend fun refreshMagnet(id: Long): Result<Magnet> {
+        val apiKey = try {
+            getApiKey()
+        } catch (e: Exception) {
+            return Result.failure(e)
+        }
+        if (apiKey.isBlank()) {
+            return Result.failure(Exception("No API key configured"))
+        }
+        return coalescer.execute("$KEY_MAGNETS$apiKey:id=$id", MAGNETS_FRESHNESS_MS) {
+            fetchMagnet(apiKey, id)
+        }
+    }
+    
+    private suspend fun fetchMagnet(apiKey: String, id: Long): Result<Magnet> {
         return try {
-            val apiKey = getApiKey()
-            if (apiKey.isBlank()) {
-                return Result.failure(Exception("No API key configured"))
+            val response = resilience.execute(Endpoint.ALLDEBRID_MAGNET_STATUS) {
+                api.getMagnetStatus(apiKey = apiKey, id = id)
+            }
+            val body = response.body()
+            val magnet = body?.data?.magnets?.let { parseSingleMagnet(it) }
+            
+            if (response.isSuccessful && body?.status == "success" && magnet != null) {
+                if (magnetStore.isOwnedBy(apiKey)) magnetStore.upsert(magnet)
+                Result.success(magnet)
+            } else {
+                val error = body?.error
+                checkForIpError(error?.code, error?.message)
+                Result.failure(Exception("API error: ${error?.message ?: response.code()}"))
+            }
+        } catch (e: IpAuthorizationRequiredException) {
+            Result.failure(e)
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+    
+    private fun parseSingleMagnet(element: JsonElement): Magnet? {
+        val single = when {
+            element.isJsonArray -> element.asJsonArray.firstOrNull() ?: return null
+            element.isJsonObject -> element
+            else -> return null
+        }
+        return gson.fromJson(single, Magnet::class.java)
+    }
+    
+    /**
+     * File lists of the given magnets. Cached lists are returned as they are;
+     * the rest are loaded with batched `magnet/files` calls. Magnets that
+     * failed to load are left out of the result.
+     */
+    suspend fun loadMagnetFiles(ids: List<Long>): Result<Map<Long, List<MagnetLink>>> {
+        val apiKey = try {
+            getApiKey()
+        } catch (e: Exception) {
+            return Result.failure(e)
+        }
+        if (apiKey.isBlank()) {
+            return Result.failure(Exception("No API key configured"))
+        }
+        
+        val magnets = magnetStore.byIds(ids.distinct())
+        val cached = magnets.mapNotNull { magnet -> filesCache.get(magnet)?.let { magnet.id to it } }.toMap()
+        val missing = magnets.filter { it.id !in cached }
+        if (missing.isEmpty()) return Result.success(cached)
+        
+        val loaded = coroutineScope {
+            missing.chunked(FILES_BATCH_SIZE).map { batch ->
+                async {
+                    val key = "$KEY_FILES$apiKey:${batch.joinToString(",") { it.id.toString() }}"
+                    coalescer.execute(key, MAGNETS_FRESHNESS_MS) { fetchFiles(apiKey, batch) }
+                }
+            }.awaitAll()
+        }
+        val result = HashMap<Long, List<MagnetLink>>(cached)
+        loaded.forEach { batch -> batch.getOrNull()?.let { result.putAll(it) } }
+        if (result.isEmpty()) {
+            loaded.firstOrNull { it.isFailure }?.let { return Result.failure(it.exceptionOrNull()!!) }
+        }
+        return Result.success(result)
+    }
+    
+    private suspend fun fetchFiles(apiKey: String, magnets: List<Magnet>): Result<Map<Long, List<MagnetLink>>> {
+        return try {
+            val response = resilience.execute(Endpoint.ALLDEBRID_MAGNET_FILES) {
+                api.getMagnetFiles(apiKey = apiKey, ids = magnets.map { it.id })
             }
+            val body = response.body()
             
-            val response = api.getMagnets(apiKey = apiKey)
+            if (response.isSuccessful && body?.status == "success") {
+                val byId = magnets.associateBy { it.id }
+                val loaded = HashMap<Magnet, List<MagnetLink>>()
+                body.data?.magnets.orEmpty().forEach { entry ->
+                    val magnet = byId[entry.id] ?: return@forEach
+                    if (entry.error != null) {
+                        Log.w(TAG, "No files for magnet ${entry.id}: ${entry.error.message}")
+                        return@forEach
+                    }
+                    loaded[magnet] = entry.files.orEmpty().flatMap { it.flatten() }
+                }
+                // Stored under the status the request was made for
+                filesCache.put(loaded)
+                Result.success(loaded.mapKeys { it.key.id })
+            } else {
+                val error = body?.error
+                checkForIpError(error?.code, error?.message)
+                Result.failure(Exception("API error: ${error?.message ?: response.code()}"))
+            }
+        } catch (e: IpAuthorizationRequiredException) {
+            Result.failure(e)
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+    
+    /**
+     * Fetch one subset into the store; returns it with the ids that left it.
+     */
+    private suspend fun fetchSubset(
+        apiKey: String,
+        filter: MagnetStatusFilter
+    ): Result<Pair<MagnetStatusFilter, Set<Long>>> {
+        return coalescer.execute("$KEY_MAGNETS$apiKey:${filter.apiValue}", MAGNETS_FRESHNESS_MS) {
+            fetchMagnets(apiKey, filter).map { filter to magnetStore.replaceSubset(filter, it) }
+        }
+    }
+    
+    private suspend fun fetchMagnets(apiKey: String, filter: MagnetStatusFilter?): Result<List<Magnet>> {
+        return try {
+            val response = resilience.execute(Endpoint.ALLDEBRID_MAGNET_STATUS) {
+                api.getMagnets(apiKey = apiKey, status = filter?.apiValue)
+            }
             val body = response.body()
             
             if (response.isSuccessful && body?.status == "success") {
-                val magnets = body.data?.magnets ?: emptyList()
-                Result.success(magnets)
+                // Another account's magnets must not be merged in
+                magnetStore.claim(apiKey)
+                Result.success(body.data?.magnets ?: emptyList())
             } else {
                 val error = body?.error
                 checkForIpError(error?.code, error?.message)
@@ -117,6 +451,16 @@ class AllDebridRepository @Inject constructor(
      * Returns: true = cached (instant), false = downloading
      */
     suspend fun uploadLink(link: String): Result<Boolean> {
+        return uploadLinkInternal(link).also { result ->
+            if (result.isSuccess) {
+                coalescer.invalidate(KEY_MAGNETS)
+                // The new magnet is active or ready; those chips must refetch
+                magnetStore.invalidate(MagnetStatusFilter.LISTED_IN_FULL)
+            }
+        }
+    }
+    
+    private suspend fun uploadLinkInternal(link: String): Result<Boolean> {
         return try {
             val apiKey = getApiKey()
             if (apiKey.isBlank()) {
@@ -125,12 +469,24 @@ class AllDebridRepository @Inject constructor(
             
             // CASE A: Magnet link - send directly
             if (link.startsWith("magnet:")) {
+                TorrentMetadata.infoHashOf(link)?.let { findExistingMagnet(apiKey, it) }?.let { existing ->
+                    Log.d(TAG, "Magnet already in account (id ${existing.id}), skipping upload")
+                    return Result.success(existing.status == "Ready")
+                }
                 Log.d(TAG, "Uploading magnet link directly")
                 return uploadMagnetDirect(apiKey, link)
             }
             
             // CASE B: HTTP/HTTPS URL (torrent file)
             if (link.startsWith("http://") || link.startsWith("https://")) {
+                // Already resolved in the background: only the upload is left
+                prefetched.get(link)?.let { resolved ->
+                    Log.d(TAG, "Using prefetched torrent for $link")
+                    return uploadPrefetched(apiKey, resolved).also {
+                        if (it.isSuccess) prefetched.remove(link)
+                    }
+                }
+                
                 // Check if local URL
                 if (isLocalUrl(link)) {
                     Log.d(TAG, "Local URL detected, downloading torrent file first")
@@ -159,11 +515,27 @@ class AllDebridRepository @Inject constructor(
         }
     }
     
+    /**
+     * A stored magnet with [infoHash] that is known to be live: active or
+     * ready, in a subset listed recently for this key. Expired or errored
+     * magnets, and rows that may have been deleted on the web since, don't
+     * count; those uploads go through and AllDebrid dedupes them itself.
+     */
+    private suspend fun findExistingMagnet(apiKey: String, infoHash: String): Magnet? {
+        if (!magnetStore.isOwnedBy(apiKey)) return null
+        val magnet = magnetStore.findByHash(infoHash) ?: return null
+        val subset = MagnetStatusFilter.of(magnet)
+        if (subset !in MagnetStatusFilter.LISTED_IN_FULL) return null
+        return magnet.takeIf { magnetStore.isFresh(subset, SUBSET_MAX_AGE_MS) }
+    }
+    
     /**
      * Upload magnet directly. Returns true if cached (instant), false if downloading
      */
     private suspend fun uploadMagnetDirect(apiKey: String, magnet: String): Result<Boolean> {
-        val response = api.uploadMagnet(apiKey = apiKey, magnet = magnet)
+        val response = resilience.execute(Endpoint.ALLDEBRID_MAGNET_UPLOAD) {
+            api.uploadMagnet(apiKey = apiKey, magnet = magnet)
+        }
         val body = response.body()
         
         return if (response.isSuccessful && body?.status == "success") {
@@ -180,60 +552,16 @@ class AllDebridRepository @Inject constructor(
     
     private suspend fun downloadAndUploadTorrent(apiKey: String, torrentUrl: String): Result<Boolean> = withContext(Dispatchers.IO) {
         try {
-            // Use injected client with custom redirect behavior
-            // newBuilder() reuses connection pool while allowing config changes
-            val client = httpClient.newBuilder()
-                .followRedirects(false) // Manual redirect handling to catch magnet links
-                .followSslRedirects(false)
-                .build()
-            
-            var currentUrl = torrentUrl
-            var redirectCount = 0
-            val maxRedirects = 5
-            
-            while (redirectCount < maxRedirects) {
-                val request = Request.Builder()
-                    .url(currentUrl)
-                    .header("User-Agent", "Mozilla/5.0 (Android; AllDebridManager)")
-                    .build()
-                
-                val response = client.newCall(request).execute()
-                
-                // Check for redirect (3xx)
-                if (response.isRedirect) {
-                    val location = response.header("Location")
-                    response.close()
-                    
-                    if (location == null) {
-                        return@withContext Result.failure(Exception("Redirección sin destino"))
-                    }
-                    
-                    // Check if redirect is to a magnet link!
-                    if (location.startsWith("magnet:")) {
-                        Log.d(TAG, "Tracker redirected to magnet URI, uploading directly")
-                        return@withContext uploadMagnetDirect(apiKey, location)
-                    }
-                    
-                    // Follow HTTP redirect
-                    currentUrl = if (location.startsWith("http")) {
-                        location
-                    } else {
-                        // Handle relative URLs
-                        val base = java.net.URL(currentUrl)
-                        java.net.URL(base, location).toString()
-                    }
-                    redirectCount++
-                    Log.d(TAG, "Following redirect #$redirectCount to: $currentUrl")
-                    continue
+            when (val opened = openTorrent(torrentUrl)) {
+                is TorrentSource.MagnetRedirect -> {
+                    Log.d(TAG, "Tracker redirected to magnet URI, uploading directly")
+                    uploadMagnetDirect(apiKey, opened.magnetUri)
                 }
-                
-                // Handle non-redirect response
-                return@withContext handleTorrentResponse(response, apiKey)
+                is TorrentSource.Download -> handleTorrentResponse(opened.response, apiKey)
             }
-            
-            // Too many redirects
-            Result.failure(Exception("Demasiadas redirecciones"))
-            
+        } catch (e: TorrentTooLargeException) {
+            Log.e(TAG, "Torrent over size limit", e)
+            Result.failure(Exception(e.message))
         } catch (e: java.net.SocketTimeoutException) {
             Log.e(TAG, "Timeout downloading torrent", e)
             Result.failure(Exception("Tiempo de espera agotado - Jackett tardó demasiado"))
@@ -246,7 +574,100 @@ class AllDebridRepository @Inject constructor(
         }
     }
     
+    private sealed class TorrentSource {
+        class MagnetRedirect(val magnetUri: String) : TorrentSource()
+        class Download(val response: okhttp3.Response) : TorrentSource()
+    }
+    
+    /**
+     * Request [torrentUrl], following HTTP redirects by hand so a tracker
+     * redirecting to a `magnet:` URI is caught. Blocking; the caller owns
+     * (and must close) the returned response.
+     */
+    private fun openTorrent(torrentUrl: String): TorrentSource {
+        var currentUrl = torrentUrl
+        var redirectCount = 0
+        val maxRedirects = 5
+        
+        while (redirectCount < maxRedirects) {
+            val request = Request.Builder()
+                .url(currentUrl)
+                .header("User-Agent", "Mozilla/5.0 (Android; AllDebridManager)")
+                .build()
+            
+            val response = noRedirectClient.newCall(request).execute()
+            
+            // Check for redirect (3xx)
+            if (response.isRedirect) {
+                val location = response.header("Location")
+                response.close()
+                
+                if (location == null) {
+                    throw Exception("Redirección sin destino")
+                }
+                
+                // Check if redirect is to a magnet link!
+                if (location.startsWith("magnet:")) {
+                    return TorrentSource.MagnetRedirect(location)
+                }
+                
+                // Follow HTTP redirect
+                currentUrl = if (location.startsWith("http")) {
+                    location
+                } else {
+                    // Handle relative URLs
+                    val base = java.net.URL(currentUrl)
+                    java.net.URL(base, location).toString()
+                }
+                redirectCount++
+                Log.d(TAG, "Following redirect #$redirectCount to: $currentUrl")
+                continue
+            }
+            
+            return TorrentSource.Download(response)
+        }
+        
+        // Too many redirects
+        throw Exception("Demasiadas redirecciones")
+    }
+    
+    /**
+     * Validate the downloaded body from its first bytes, then parse it on-device
+     * (through a peek, so the bytes stay available) and upload it as a magnet.
+     * Only private, v2-only or unparseable torrents are streamed into the
+     * `magnet/upload/file` multipart request; the response stays open until
+     * the upload has consumed it.
+     */
     private suspend fun handleTorrentResponse(response: okhttp3.Response, apiKey: String): Result<Boolean> {
+        response.use {
+            val source = openTorrentBody(response).getOrElse { return Result.failure(it) }
+            
+            // Build the magnet locally so AllDebrid gets the cheap magnet/upload call
+            val metadata = parseTorrent(source)
+            if (metadata != null) {
+                findExistingMagnet(apiKey, metadata.infoHash)?.let { existing ->
+                    Log.d(TAG, "Torrent ${metadata.infoHash} already in account, skipping upload")
+                    return Result.success(existing.status == "Ready")
+                }
+                if (metadata.canUseMagnet) {
+                    Log.d(TAG, "Converted torrent to magnet ${metadata.infoHash}")
+                    return uploadMagnetDirect(apiKey, metadata.toMagnetUri())
+                }
+            }
+            
+            // Upload the torrent file to AllDebrid, piping the download into the request
+            val requestBody = TorrentStreamBody(source, response.body!!.contentLength(), MAX_TORRENT_BYTES)
+            return uploadTorrentFile(apiKey, requestBody).also {
+                Log.d(TAG, "Streamed torrent file: ${requestBody.bytesWritten} bytes")
+            }
+        }
+    }
+    
+    /**
+     * Body source of a successful, non-oversized response that starts like a
+     * bencoded dictionary; otherwise a failure with a user-facing message.
+     */
+    private fun openTorrentBody(response: okhttp3.Response): Result<BufferedSource> {
         if (!response.isSuccessful) {
             Log.e(TAG, "Failed to download torrent: HTTP ${response.code}")
             val errorMsg = when (response.code) {
@@ -255,25 +676,27 @@ class AllDebridRepository @Inject constructor(
                 500, 502, 503 -> "El tracker no está disponible temporalmente"
                 else -> "Error descargando torrent (HTTP ${response.code})"
             }
-            response.close()
             return Result.failure(Exception(errorMsg))
         }
         
         val contentType = response.header("Content-Type") ?: ""
         Log.d(TAG, "Downloaded content type: $contentType")
         
-        val torrentBytes = response.body?.bytes()
-        response.close()
+        val body = response.body
+            ?: return Result.failure(Exception("El tracker devolvió un archivo vacío"))
+        if (body.contentLength() > MAX_TORRENT_BYTES) {
+            throw TorrentTooLargeException(MAX_TORRENT_BYTES)
+        }
         
-        if (torrentBytes == null || torrentBytes.isEmpty()) {
+        val source = body.source()
+        if (!source.request(1)) {
             return Result.failure(Exception("El tracker devolvió un archivo vacío"))
         }
         
-        Log.d(TAG, "Downloaded torrent file: ${torrentBytes.size} bytes")
-        
         // Validate that this is actually a torrent file (bencoded format starts with 'd')
-        if (torrentBytes[0] != 'd'.code.toByte()) {
-            val preview = String(torrentBytes.take(100).toByteArray())
+        if (source.buffer[0] != 'd'.code.toByte()) {
+            source.request(100)
+            val preview = source.buffer.snapshot(minOf(100L, source.buffer.size).toInt()).utf8()
             Log.e(TAG, "Invalid torrent content (not bencoded): ${preview.take(50)}")
             
             // Check if it's HTML (common error response - login page or Cloudflare)
@@ -283,31 +706,114 @@ class AllDebridRepository @Inject constructor(
             }
             return Result.failure(Exception("Formato de torrent inválido"))
         }
-        
-        // Upload the torrent file to AllDebrid
-        val requestBody = torrentBytes.toRequestBody("application/x-bittorrent".toMediaType())
+        return Result.success(source)
+    }
+    
+    /**
+     * Parse through a peek so [source] still yields every byte afterwards.
+     * Null if the file is not something the local parser understands.
+     */
+    private fun parseTorrent(source: BufferedSource): TorrentMetadata? {
+        return try {
+            TorrentParser.parse(source.peek(), MAX_TORRENT_BYTES)
+        } catch (e: TorrentParseException) {
+            Log.w(TAG, "Could not parse torrent locally, uploading the file", e)
+            null
+        }
+    }
+    
+    private suspend fun uploadTorrentFile(apiKey: String, requestBody: RequestBody): Result<Boolean> {
         val filePart = MultipartBody.Part.createFormData(
             "files[]",
             "upload.torrent",
             requestBody
         )
         
-        val uploadResponse = api.uploadTorrentFile(apiKey = apiKey, file = filePart)
-        val body = uploadResponse.body()
+        val uploadResponse = resilience.execute(Endpoint.ALLDEBRID_MAGNET_UPLOAD) {
+            uploadApi.uploadTorrentFile(apiKey = apiKey, file = filePart)
+        }
+        val uploadBody = uploadResponse.body()
         
-        return if (uploadResponse.isSuccessful && body?.status == "success") {
+        return if (uploadResponse.isSuccessful && uploadBody?.status == "success") {
             Log.d(TAG, "Torrent file uploaded successfully")
             // Check if the magnet is ready (cached) or needs downloading
-            val uploadedMagnet = body.data?.magnets?.firstOrNull() ?: body.data?.files?.firstOrNull()
+            val uploadedMagnet = uploadBody.data?.magnets?.firstOrNull() ?: uploadBody.data?.files?.firstOrNull()
             val isReady = uploadedMagnet?.ready ?: false
             Result.success(isReady)
         } else {
-            val error = body?.error
+            val error = uploadBody?.error
             checkForIpError(error?.code, error?.message)
             Result.failure(Exception(error?.message ?: "Error subiendo a AllDebrid"))
         }
     }
     
+    /**
+     * Torrent link resolved ahead of time: either the magnet it converts to
+     * (or redirects to), or the raw bytes for torrents that must go up as files.
+     */
+    private sealed class PrefetchedTorrent(val infoHash: String?) {
+        class AsMagnet(val magnetUri: String, infoHash: String?) : PrefetchedTorrent(infoHash)
+        class AsFile(val bytes: ByteString, infoHash: String?) : PrefetchedTorrent(infoHash)
+    }
+    
+    // Bounded by bytes held; magnets cost a few hundred bytes, files their size
+    private val prefetched = object : LruCache<String, PrefetchedTorrent>(PREFETCH_CACHE_BYTES) {
+        override fun sizeOf(key: String, value: PrefetchedTorrent): Int = when (value) {
+            is PrefetchedTorrent.AsMagnet -> key.length + value.magnetUri.length
+            is PrefetchedTorrent.AsFile -> key.length + value.bytes.size
+        }
+    }
+    
+    /**
+     * Resolve a Jackett/tracker torrent link in the background (redirect chain,
+     * download, local magnet conversion) so that adding it later only costs
+     * the upload. Failures are silent; the tap path just does the full work.
+     * Cancelling the caller aborts the download.
+     */
+    suspend fun prefetchTorrent(link: String) {
+        if (!link.startsWith("http://") && !link.startsWith("https://")) return
+        if (prefetched.get(link) != null) return
+        try {
+            val resolved = runInterruptible(Dispatchers.IO) { resolveTorrent(link) } ?: return
+            prefetched.put(link, resolved)
+            Log.d(TAG, "Prefetched ${resolved.javaClass.simpleName} for $link")
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.d(TAG, "Prefetch failed for $link: ${e.message}")
+        }
+    }
+    
+    private fun resolveTorrent(link: String): PrefetchedTorrent? {
+        return when (val opened = openTorrent(link)) {
+            is TorrentSource.MagnetRedirect -> PrefetchedTorrent.AsMagnet(
+                opened.magnetUri,
+                TorrentMetadata.infoHashOf(opened.magnetUri)
+            )
+            is TorrentSource.Download -> opened.response.use { response ->
+                val source = openTorrentBody(response).getOrNull() ?: return null
+                val metadata = parseTorrent(source)
+                if (metadata != null && metadata.canUseMagnet) {
+                    PrefetchedTorrent.AsMagnet(metadata.toMagnetUri(), metadata.infoHash)
+                } else {
+                    if (source.request(MAX_TORRENT_BYTES + 1)) throw TorrentTooLargeException(MAX_TORRENT_BYTES)
+                    PrefetchedTorrent.AsFile(source.readByteString(), metadata?.infoHash)
+                }
+            }
+        }
+    }
+    
+    private suspend fun uploadPrefetched(apiKey: String, resolved: PrefetchedTorrent): Result<Boolean> {
+        resolved.infoHash?.let { findExistingMagnet(apiKey, it) }?.let { existing ->
+            Log.d(TAG, "Prefetched torrent already in account, skipping upload")
+            return Result.success(existing.status == "Ready")
+        }
+        return when (resolved) {
+            is PrefetchedTorrent.AsMagnet -> uploadMagnetDirect(apiKey, resolved.magnetUri)
+            is PrefetchedTorrent.AsFile -> uploadTorrentFile(apiKey, resolved.bytes.toRequestBody(TORRENT_MEDIA_TYPE))
+        }
+    }
+    
     // Keep legacy name for compatibility
     suspend fun uploadMagnet(magnet: String): Result<Boolean> = uploadLink(magnet)
     
@@ -318,10 +824,15 @@ class AllDebridRepository @Inject constructor(
                 return Result.failure(Exception("No API key configured"))
             }
             
-            val response = api.deleteMagnet(apiKey = apiKey, id = id)
+            val response = resilience.execute(Endpoint.ALLDEBRID_MAGNET_DELETE) {
+                api.deleteMagnet(apiKey = apiKey, id = id)
+            }
             val body = response.body()
             
             if (response.isSuccessful && body?.status == "success") {
+                // Make the follow-up refresh hit the network
+                magnetStore.remove(id)
+                coalescer.invalidate(KEY_MAGNETS)
                 Result.success(Unit)
             } else {
                 val error = body?.error
@@ -342,7 +853,9 @@ class AllDebridRepository @Inject constructor(
                 return Result.failure(Exception("No API key configured"))
             }
             
-            val response = api.unlockLink(apiKey = apiKey, link = link)
+            val response = resilience.execute(Endpoint.ALLDEBRID_LINK_UNLOCK) {
+                api.unlockLink(apiKey = apiKey, link = link)
+            }
             val body = response.body()
             
             if (response.isSuccessful && body?.status == "success") {
@@ -361,3 +874,42 @@ class AllDebridRepository @Inject constructor(
         }
     }
 }
+
+private val TORRENT_MEDIA_TYPE = "application/x-bittorrent".toMediaType()
+
+/**
+ * One-shot request body that copies a torrent download into the upload as
+ * it arrives, failing once more than [maxBytes] have been read. One-shot
+ * stops OkHttp from retrying it; it must still be sent through a client
+ * without body logging, since [MultipartBody] does not pass the flag on and
+ * the interceptor would drain [source] first.
+ */
+private class TorrentStreamBody(
+    private val source: BufferedSource,
+    private val declaredLength: Long,
+    private val maxBytes: Long
+) : RequestBody() {
+    
+    var bytesWritten = 0L
+        private set
+    
+    override fun contentType(): MediaType = TORRENT_MEDIA_TYPE
+    
+    override fun contentLength(): Long = declaredLength
+    
+    override fun isOneShot(): Boolean = true
+    
+    override fun writeTo(sink: BufferedSink) {
+        while (true) {
+            val read = source.read(sink.buffer, SEGMENT_BYTES)
+            if (read == -1L) break
+            bytesWritten += read
+            if (bytesWritten > maxBytes) throw TorrentTooLargeException(maxBytes)
+            sink.emitCompleteSegments()
+        }
+    }
+    
+    private companion object {
+        const val SEGMENT_BYTES = 8_192L
+    }
+}
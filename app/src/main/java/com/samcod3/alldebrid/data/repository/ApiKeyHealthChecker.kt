@@ -0,0 +1,114 @@
+package com.samcod3.alldebrid.data.repository
+
+import android.os.SystemClock
+import com.samcod3.alldebrid.data.model.AllDebridError
+import com.samcod3.alldebrid.data.model.User
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Result of validating one API key against the `user` endpoint.
+ */
+sealed class KeyHealth {
+    object Checking : KeyHealth()
+    data class Healthy(val user: User) : KeyHealth()
+    data class IpBlocked(val errorCode: String) : KeyHealth()
+    data class Invalid(val message: String) : KeyHealth()
+    data class Unreachable(val message: String) : KeyHealth()
+}
+
+/**
+ * Validates many API keys at once.
+ *
+ * Keys are checked concurrently (bounded by [MAX_CONCURRENT_CHECKS]) and each
+ * result is emitted as soon as it is known, so the list fills in as answers
+ * arrive. Definitive answers are cached per key for [HEALTH_TTL_MS]. A key is
+ * only [KeyHealth.Invalid] when AllDebrid rejects it with an auth error code;
+ * network failures, HTTP errors and missing bodies are [KeyHealth.Unreachable]
+ * and not cached, so the next pass retries them.
+ */
+@Singleton
+class ApiKeyHealthChecker @Inject constructor(
+    private val repository: AllDebridRepository
+) {
+
+    companion object {
+        const val MAX_CONCURRENT_CHECKS = 8
+        private const val PER_KEY_TIMEOUT_MS = 10_000L
+        private const val HEALTH_TTL_MS = 2 * 60_000L
+    }
+
+    private class CachedHealth(val health: KeyHealth, val checkedAt: Long)
+
+    private val cache = ConcurrentHashMap<String, CachedHealth>()
+
+    /**
+     * Stream `(apiKey, health)` pairs for [apiKeys]: cached ones first, then
+     * [KeyHealth.Checking] for the rest, each replaced by its result as it
+     * completes. Completes once every key has a final result.
+     */
+    fun checkAll(apiKeys: List<String>, forceRefresh: Boolean = false): Flow<Pair<String, KeyHealth>> = channelFlow {
+        val now = SystemClock.elapsedRealtime()
+        val pending = mutableListOf<String>()
+
+        for (apiKey in apiKeys.distinct()) {
+            val cached = cache[apiKey]?.takeIf { now - it.checkedAt < HEALTH_TTL_MS }
+            if (cached != null && !forceRefresh) {
+                send(apiKey to cached.health)
+            } else {
+                pending.add(apiKey)
+                send(apiKey to KeyHealth.Checking)
+            }
+        }
+
+        val permits = Semaphore(MAX_CONCURRENT_CHECKS)
+        for (apiKey in pending) {
+            launch {
+                val health = permits.withPermit { check(apiKey) }
+                send(apiKey to health)
+            }
+        }
+    }
+
+    /**
+     * Forget the cached result of one key (e.g. after it was deleted).
+     */
+    fun invalidate(apiKey: String) {
+        cache.remove(apiKey)
+    }
+
+    private suspend fun check(apiKey: String): KeyHealth {
+        val result = withTimeoutOrNull(PER_KEY_TIMEOUT_MS) {
+            repository.validateApiKey(apiKey)
+        } ?: return KeyHealth.Unreachable("Timed out")
+
+        val health = result.fold(
+            onSuccess = { KeyHealth.Healthy(it) },
+            onFailure = { error ->
+                when (error) {
+                    is IpAuthorizationRequiredException -> KeyHealth.IpBlocked(error.errorCode)
+                    is AllDebridApiException ->
+                        if (error.errorCode != null && AllDebridError.rejectsKey(error.errorCode)) {
+                            KeyHealth.Invalid(error.message ?: "Invalid key")
+                        } else {
+                            KeyHealth.Unreachable(error.message ?: "AllDebrid error")
+                        }
+                    is IOException -> KeyHealth.Unreachable(error.message ?: "Network error")
+                    else -> KeyHealth.Unreachable(error.message ?: "Unexpected response")
+                }
+            }
+        )
+        if (health !is KeyHealth.Unreachable) {
+            cache[apiKey] = CachedHealth(health, SystemClock.elapsedRealtime())
+        }
+        return health
+    }
+}
@@ -2,58 +2,143 @@ package com.samcod3.alldebrid.data.repository
 
 import com.samcod3.alldebrid.data.api.KodiApi
 import com.samcod3.alldebrid.data.api.KodiCommands
+import com.samcod3.alldebrid.data.api.KodiRequest
+import com.samcod3.alldebrid.data.api.KodiResponse
+import com.samcod3.alldebrid.data.datastore.DeviceRegistryStore
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
+import com.samcod3.alldebrid.data.dlna.AvTransport
+import com.samcod3.alldebrid.data.dlna.DlnaPlaybackMonitor
+import com.samcod3.alldebrid.data.dlna.SoapFaultException
+import com.samcod3.alldebrid.data.kodi.KodiNotConnectedException
+import com.samcod3.alldebrid.data.kodi.KodiSessionManager
 import com.samcod3.alldebrid.data.model.Device
 import com.samcod3.alldebrid.data.model.DeviceType
+import com.samcod3.alldebrid.data.network.Endpoint
+import com.samcod3.alldebrid.data.network.ResilienceExecutor
+import com.samcod3.alldebrid.data.relay.MediaRelayServer
+import com.samcod3.alldebrid.data.relay.VideoMimeTypes
+import com.samcod3.alldebrid.di.ApplicationScope
 import com.samcod3.alldebrid.discovery.DeviceDiscoveryManager
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.asStateFlow
-import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import java.io.IOException
 import java.io.OutputStreamWriter
 import java.net.HttpURLConnection
 import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Outcome of [DeviceRepository.enqueueToKodi]: how many items reached the
+ * playlist, which ones Kodi rejected and whether playback was started.
+ */
+data class KodiQueueResult(
+    val added: Int,
+    val failed: List<KodiQueueFailure>,
+    val playbackStarted: Boolean
+)
+
+data class KodiQueueFailure(
+    val url: String,
+    val message: String
+)
+
 @Singleton
 class DeviceRepository @Inject constructor(
     private val kodiApi: KodiApi,
-    private val settingsDataStore: SettingsDataStore,
+    private val deviceRegistry: DeviceRegistryStore,
     private val discoveryManager: DeviceDiscoveryManager,
+    private val resilience: ResilienceExecutor,
+    private val kodiSessions: KodiSessionManager,
+    private val playbackMonitor: DlnaPlaybackMonitor,
+    private val settingsDataStore: SettingsDataStore,
+    private val mediaRelay: MediaRelayServer,
+    @ApplicationScope private val appScope: CoroutineScope,
     val dlnaQueue: DlnaQueueManager
 ) {
     
-    private val _devices = MutableStateFlow<List<Device>>(emptyList())
+    companion object {
+        // How long a renderer gets to start the preloaded item on its own
+        private const val NEXT_URI_GRACE_MS = 3_000L
+    }
+    
+    /**
+     * A queue item handed to the renderer with SetNextAVTransportURI, and the
+     * URL it was handed as (the relay URL when relaying).
+     */
+    private data class PreloadedDlnaItem(val deviceId: String, val item: DlnaQueueItem, val url: String)
+    
+    // Device id and control URL of the last successful DLNA cast
+    @Volatile
+    private var dlnaTarget: Pair<String, String>? = null
+    @Volatile
+    private var preloadedNext: PreloadedDlnaItem? = null
+    private val nextUriUnsupported = ConcurrentHashMap.newKeySet<String>()
+    private val preloadMutex = Mutex()
+    
+    private val _dlnaAutoAdvanced = MutableSharedFlow<DlnaQueueItem>(extraBufferCapacity = 1)
+    
+    /**
+     * Queue items started automatically because the previous one finished.
+     */
+    val dlnaAutoAdvanced: SharedFlow<DlnaQueueItem> = _dlnaAutoAdvanced.asSharedFlow()
     
     init {
-        // Load cached devices on init - using GlobalScope is intentional for Singleton
-        @OptIn(kotlinx.coroutines.DelicateCoroutinesApi::class)
-        GlobalScope.launch {
-            val cachedDevices = settingsDataStore.getDiscoveredDevicesCache().first()
-            if (cachedDevices.isNotEmpty()) {
-                _devices.value = cachedDevices
-            }
+        playbackMonitor.hasQueuedMedia = { !dlnaQueue.isEmpty() }
+        appScope.launch {
+            playbackMonitor.playbackEnded.collect { device -> advanceDlnaQueue(device) }
+        }
+        appScope.launch {
+            playbackMonitor.currentUriChanged.collect { (device, uri) -> onDlnaTrackChanged(device, uri) }
+        }
+        appScope.launch {
+            restoreQueueDevice()
         }
+        appScope.launch {
+            dlnaQueue.queue
+                .map { it.firstOrNull() }
+                .distinctUntilChanged()
+                .collect { syncDlnaPreload() }
+        }
+    }
+    
+    /**
+     * A queue restored from disk comes back with the device it was playing on,
+     * unless the user has already picked another one.
+     */
+    private suspend fun restoreQueueDevice() {
+        val deviceId = dlnaQueue.restoredDeviceId() ?: return
+        if (dlnaQueue.isEmpty()) return
+        val registry = deviceRegistry.snapshot()
+        if (registry.selectedDevice != null) return
+        registry.devices.firstOrNull { it.id == deviceId }?.let { deviceRegistry.selectDevice(it) }
     }
     
-    fun getDiscoveredDevices(): Flow<List<Device>> = _devices.asStateFlow()
+    fun getDiscoveredDevices(): Flow<List<Device>> = deviceRegistry.devices
     
-    fun getSelectedDevice(): Flow<Device?> = settingsDataStore.selectedDevice
+    fun getSelectedDevice(): Flow<Device?> = deviceRegistry.selectedDevice
     
     suspend fun discoverDevices(): Result<List<Device>> {
         return try {
             val devices = discoveryManager.discoverAll()
             // Merge with existing to preserve customNames
-            val existing = _devices.value
+            val existing = deviceRegistry.snapshot().devices
             val merged = mergeDevices(existing, devices)
-            _devices.value = merged
             // Save to cache
-            settingsDataStore.saveDiscoveredDevices(merged)
+            deviceRegistry.replaceDevices(merged)
             Result.success(merged)
         } catch (e: Exception) {
             Result.failure(e)
@@ -68,10 +153,9 @@ class DeviceRepository @Inject constructor(
         return try {
             val devices = discoveryManager.discoverManualScan()
             // Merge with existing devices - update name but preserve customName
-            val existing = _devices.value
+            val existing = deviceRegistry.snapshot().devices
             val merged = mergeDevices(existing, devices)
-            _devices.value = merged
-            settingsDataStore.saveDiscoveredDevices(merged)
+            deviceRegistry.replaceDevices(merged)
             Result.success(merged)
         } catch (e: Exception) {
             Result.failure(e)
@@ -112,28 +196,26 @@ class DeviceRepository @Inject constructor(
         return result
     }
     
-    suspend fun setSelectedDevice(device: Device) {
-        settingsDataStore.saveSelectedDevice(device)
+    fun setSelectedDevice(device: Device) {
+        deviceRegistry.selectDevice(device)
+        forgetDlnaTarget()
     }
     
-    suspend fun clearSelectedDevice() {
-        settingsDataStore.clearSelectedDevice()
+    fun clearSelectedDevice() {
+        deviceRegistry.clearSelectedDevice()
+        forgetDlnaTarget()
     }
     
-    suspend fun renameDevice(device: Device, customName: String?) {
-        val updatedDevice = device.copy(customName = customName)
-        // Update in devices list
-        val updatedDevices = _devices.value.map { 
-            if (it.id == device.id) updatedDevice else it 
-        }
-        _devices.value = updatedDevices
-        // Save to cache
-        settingsDataStore.saveDiscoveredDevices(updatedDevices)
-        // Update selected device if this was the selected one
-        val currentSelected = settingsDataStore.selectedDevice.first()
-        if (currentSelected?.id == device.id) {
-            settingsDataStore.saveSelectedDevice(updatedDevice)
-        }
+    private fun forgetDlnaTarget() {
+        playbackMonitor.stop()
+        playbackMonitor.followUri = false
+        dlnaTarget = null
+        preloadedNext = null
+    }
+    
+    fun renameDevice(device: Device, customName: String?) {
+        // Updates the list entry and, if selected, the selection
+        deviceRegistry.renameDevice(device.id, customName)
     }
     
     suspend fun castToDevice(device: Device, url: String, addToQueue: Boolean = false, title: String = "Video"): Result<Unit> {
@@ -164,47 +246,234 @@ class DeviceRepository @Inject constructor(
         return castToDlna(device, nextItem.url)
     }
     
+    /**
+     * The renderer finished its item: cast the next queued one right away,
+     * as long as the user is still on that device.
+     */
+    private suspend fun advanceDlnaQueue(device: Device) {
+        preloadedNext?.takeIf { it.deviceId == device.id }?.let { pending ->
+            // Renderers may pass through STOPPED on their way to the preloaded item
+            delay(NEXT_URI_GRACE_MS)
+            if (preloadedNext !== pending) return
+        }
+        if (dlnaQueue.isEmpty()) return
+        if (deviceRegistry.snapshot().selectedDevice?.id != device.id) return
+        val next = dlnaQueue.peekNext() ?: return
+        playNextInDlnaQueue(device)
+            .onSuccess { _dlnaAutoAdvanced.tryEmit(next) }
+            .onFailure { android.util.Log.w("DLNA_CAST", "Auto-advance failed: ${it.message}") }
+    }
+    
+    /**
+     * The renderer moved on by itself. If it is playing the preloaded item,
+     * that item leaves the queue (which preloads the one after it).
+     */
+    private fun onDlnaTrackChanged(device: Device, uri: String) {
+        val preloaded = preloadedNext ?: return
+        if (preloaded.deviceId != device.id || preloaded.url != uri) return
+        preloadedNext = null
+        playbackMonitor.followUri = false
+        dlnaQueue.removeFromQueue(preloaded.item.id)
+        _dlnaAutoAdvanced.tryEmit(preloaded.item)
+    }
+    
+    /**
+     * Keep the renderer's next item in line with the head of the queue, for
+     * renderers that support SetNextAVTransportURI. Others fall back to
+     * casting the next item when playback stops.
+     */
+    private suspend fun syncDlnaPreload() = preloadMutex.withLock {
+        val (deviceId, controlUrl) = dlnaTarget ?: return@withLock
+        val device = deviceRegistry.snapshot().selectedDevice?.takeIf { it.id == deviceId } ?: return@withLock
+        val next = dlnaQueue.peekNext()
+        val current = preloadedNext
+        if (current?.item?.id == next?.id) return@withLock
+        
+        withContext(Dispatchers.IO) {
+            try {
+                if (next == null) {
+                    // The preloaded item left the queue; take it back
+                    sendSoapAction(controlUrl, "${AvTransport.SERVICE_TYPE}#${AvTransport.ACTION_SET_NEXT_URI}", AvTransport.setNextUriEnvelope("", ""))
+                    preloadedNext = null
+                    playbackMonitor.followUri = false
+                    return@withContext
+                }
+                if (!supportsNextUri(device)) return@withContext
+                val url = playableUrl(device, next.url)
+                val envelope = AvTransport.setNextUriEnvelope(escapeXml(url), didlMetadata(url))
+                sendSoapAction(controlUrl, "${AvTransport.SERVICE_TYPE}#${AvTransport.ACTION_SET_NEXT_URI}", envelope)
+                preloadedNext = PreloadedDlnaItem(deviceId, next, url)
+                playbackMonitor.followUri = true
+                android.util.Log.d("DLNA_CAST", "Preloaded next item: ${next.title}")
+            } catch (e: SoapFaultException) {
+                android.util.Log.w("DLNA_CAST", "Renderer rejected SetNextAVTransportURI: ${e.message}")
+                // Only a missing action is permanent; faults such as 701 (transition
+                // not available) are common right after Play and pass
+                if (e.upnpErrorCode == AvTransport.ERROR_INVALID_ACTION ||
+                    e.upnpErrorCode == AvTransport.ERROR_NOT_IMPLEMENTED
+                ) {
+                    nextUriUnsupported.add(deviceId)
+                    preloadedNext = null
+                    playbackMonitor.followUri = false
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                android.util.Log.w("DLNA_CAST", "Preload failed: ${e.message}")
+            }
+        }
+    }
+    
+    private suspend fun supportsNextUri(device: Device): Boolean {
+        if (device.id in nextUriUnsupported) return false
+        val actions = playbackMonitor.supportedActions(device) ?: return true // Unknown: try it
+        if (AvTransport.ACTION_SET_NEXT_URI in actions) return true
+        nextUriUnsupported.add(device.id)
+        return false
+    }
+    
+    /**
+     * Whether Kodi has an active player. Answered from the notification
+     * channel when it is connected; otherwise asked over HTTP.
+     */
     suspend fun checkKodiPlaying(device: Device): Result<Boolean> {
+        kodiSessions.connectedSession(device)?.let { session ->
+            return Result.success(session.state.value.isPlaying)
+        }
         return try {
-            val kodiUrl = "${device.fullAddress}/jsonrpc"
-            val response = kodiApi.sendCommand(kodiUrl, KodiCommands.getActivePlayers())
+            val response = sendKodi(device, Endpoint.KODI_QUERY, KodiCommands.getActivePlayers())
+            val players = response.result as? List<*>
+            Result.success(response.error == null && !players.isNullOrEmpty())
+        } catch (e: Exception) {
+            Result.success(false)
+        }
+    }
+    
+    /**
+     * Queue several URLs on Kodi in one JSON-RPC batch request, optionally
+     * clearing the video playlist first and starting playback from its first
+     * item afterwards. Kodi runs batch entries in order; per-item errors are
+     * matched back by request id and reported in [KodiQueueResult.failed].
+     * Fails only if the request itself fails or no item could be added.
+     */
+    suspend fun enqueueToKodi(
+        device: Device,
+        urls: List<String>,
+        clearFirst: Boolean = false,
+        startPlayback: Boolean = false
+    ): Result<KodiQueueResult> {
+        if (urls.isEmpty()) return Result.failure(Exception("Nothing to queue"))
+        return try {
+            val clearRequest = if (clearFirst) KodiCommands.clearPlaylist() else null
+            val addRequests = urls.map { KodiCommands.addToPlaylist(playableUrl(device, it)) }
+            val playRequest = if (startPlayback) KodiCommands.playPlaylist() else null
+            val batch = KodiCommands.batch(listOfNotNull(clearRequest) + addRequests + listOfNotNull(playRequest))
             
-            if (response.isSuccessful && response.body()?.error == null) {
-                // Parse result to check if there are active players
-                val result = response.body()?.result
-                val isPlaying = result != null && result.toString().contains("playerid")
-                Result.success(isPlaying)
-            } else {
-                Result.success(false)
+            val responses = sendKodiBatch(device, batch)
+            val byId = responses.filter { it.id != null }.associateBy { it.id }
+            fun errorOf(request: KodiRequest): String? {
+                val reply = byId[request.id] ?: return "No response from Kodi"
+                return reply.error?.message
+            }
+            
+            val addOffset = if (clearFirst) 1 else 0
+            if (clearFirst) {
+                errorOf(batch[0])?.let { android.util.Log.w("KODI_BATCH", "Playlist.Clear failed: $it") }
+            }
+            val failures = urls.mapIndexedNotNull { index, url ->
+                errorOf(batch[addOffset + index])?.let { KodiQueueFailure(url, it) }
             }
+            val added = urls.size - failures.size
+            if (added == 0) {
+                return Result.failure(Exception("Kodi rejected every item: ${failures.first().message}"))
+            }
+            val playbackError = if (startPlayback) errorOf(batch.last()) else null
+            
+            Result.success(
+                KodiQueueResult(
+                    added = added,
+                    failed = failures,
+                    playbackStarted = startPlayback && playbackError == null
+                )
+            )
         } catch (e: Exception) {
-            Result.success(false)
+            Result.failure(e)
         }
     }
     
     private suspend fun castToKodi(device: Device, url: String, addToQueue: Boolean = false): Result<Unit> {
         return try {
-            val kodiUrl = "${device.fullAddress}/jsonrpc"
+            val playable = playableUrl(device, url)
             val command = if (addToQueue) {
-                KodiCommands.addToPlaylist(url)
+                KodiCommands.addToPlaylist(playable)
             } else {
-                KodiCommands.playUrl(url)
+                KodiCommands.playUrl(playable)
             }
-            val response = kodiApi.sendCommand(kodiUrl, command)
+            val response = sendKodi(device, Endpoint.KODI_COMMAND, command)
             
-            if (response.isSuccessful && response.body()?.error == null) {
+            if (response.error == null) {
                 Result.success(Unit)
             } else {
-                Result.failure(Exception("Kodi playback failed: ${response.body()?.error}"))
+                Result.failure(Exception("Kodi playback failed: ${response.error}"))
             }
         } catch (e: Exception) {
             Result.failure(e)
         }
     }
     
-    private suspend fun castToDlna(device: Device, videoUrl: String): Result<Unit> = withContext(Dispatchers.IO) {
-        // Try multiple common DLNA endpoints - AVTransport1 is the correct one for Samsung
-        val possibleEndpoints = listOf(
+    /**
+     * Send one JSON-RPC request, over the open notification socket when there
+     * is one and over HTTP otherwise. Only requests that never left the
+     * socket are retried over HTTP, so nothing runs twice.
+     */
+    private suspend fun sendKodi(device: Device, endpoint: Endpoint, request: KodiRequest): KodiResponse {
+        kodiSessions.connectedSession(device)?.let { session ->
+            try {
+                return session.call(request)
+            } catch (e: KodiNotConnectedException) {
+                android.util.Log.d("KODI", "Socket closed, falling back to HTTP")
+            }
+        }
+        val host = "${device.address}:${device.port}"
+        val response = resilience.execute(endpoint, host) {
+            kodiApi.sendCommand("${device.fullAddress}/jsonrpc", request)
+        }
+        return response.body()?.takeIf { response.isSuccessful }
+            ?: throw IOException("Kodi request failed: HTTP ${response.code()}")
+    }
+    
+    /**
+     * Batch counterpart of [sendKodi]. Over the socket the requests are sent
+     * back to back; replies are given the ids of [requests]. The batch goes
+     * over HTTP only if none of it left the socket; requests cut off after
+     * that come back as error replies instead of being resent.
+     */
+    private suspend fun sendKodiBatch(device: Device, requests: List<KodiRequest>): List<KodiResponse> {
+        kodiSessions.connectedSession(device)?.let { session ->
+            try {
+                return session.callAll(requests).mapIndexed { index, reply ->
+                    reply.copy(id = requests[index].id)
+                }
+            } catch (e: KodiNotConnectedException) {
+                android.util.Log.d("KODI", "Socket closed, falling back to HTTP")
+            }
+        }
+        val host = "${device.address}:${device.port}"
+        val response = resilience.execute(Endpoint.KODI_COMMAND, host) {
+            kodiApi.sendBatch("${device.fullAddress}/jsonrpc", requests)
+        }
+        return response.body()?.takeIf { response.isSuccessful }
+            ?: throw IOException("Kodi batch failed: HTTP ${response.code()}")
+    }
+    
+    private suspend fun castToDlna(device: Device, url: String): Result<Unit> = withContext(Dispatchers.IO) {
+        playbackMonitor.expectNewMedia()
+        val videoUrl = playableUrl(device, url)
+        
+        // The control URL from the device description first, then common DLNA
+        // endpoints - AVTransport1 is the correct one for Samsung
+        val possibleEndpoints = listOfNotNull(
+            playbackMonitor.resolveEndpoints(device)?.controlUrl,
             "http://${device.address}:${device.port}/upnp/control/AVTransport1", // Samsung/LG - CORRECT
             "${device.controlUrl ?: "http://${device.address}:${device.port}"}",
             "http://${device.address}:9197/upnp/control/AVTransport1", // Samsung default port
@@ -218,24 +487,8 @@ class DeviceRepository @Inject constructor(
             try {
                 android.util.Log.d("DLNA_CAST", "Trying endpoint: $endpoint")
                 
-                // Escape special XML characters in URL
-                val escapedUrl = videoUrl
-                    .replace("&", "&amp;")
-                    .replace("<", "&lt;")
-                    .replace(">", "&gt;")
-                    .replace("\"", "&quot;")
-                
-                // Determine MIME type from URL
-                val mimeType = when {
-                    videoUrl.contains(".mkv", ignoreCase = true) -> "video/x-mkv"
-                    videoUrl.contains(".mp4", ignoreCase = true) -> "video/mp4"
-                    videoUrl.contains(".avi", ignoreCase = true) -> "video/avi"
-                    videoUrl.contains(".webm", ignoreCase = true) -> "video/webm"
-                    else -> "video/mp4" // default
-                }
-                
-                // DIDL-Lite metadata required by Samsung TVs (error 714 = Illegal MIME-type)
-                val didlMetadata = """&lt;DIDL-Lite xmlns=&quot;urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/&quot; xmlns:dc=&quot;http://purl.org/dc/elements/1.1/&quot; xmlns:upnp=&quot;urn:schemas-upnp-org:metadata-1-0/upnp/&quot;&gt;&lt;item id=&quot;0&quot; parentID=&quot;-1&quot; restricted=&quot;1&quot;&gt;&lt;dc:title&gt;Video&lt;/dc:title&gt;&lt;upnp:class&gt;object.item.videoItem&lt;/upnp:class&gt;&lt;res protocolInfo=&quot;http-get:*:$mimeType:*&quot;&gt;$escapedUrl&lt;/res&gt;&lt;/item&gt;&lt;/DIDL-Lite&gt;"""
+                val escapedUrl = escapeXml(videoUrl)
+                val metadata = didlMetadata(videoUrl)
                 
                 // 0. Stop any current playback first (helps when switching videos)
                 val stopSoap = """<?xml version="1.0" encoding="utf-8"?><s:Envelope s:encodingStyle="http://schemas.xmlsoap.org/soap/encoding/" xmlns:s="http://schemas.xmlsoap.org/soap/envelope/"><s:Body><u:Stop xmlns:u="urn:schemas-upnp-org:service:AVTransport:1"><InstanceID>0</InstanceID></u:Stop></s:Body></s:Envelope>"""
@@ -247,7 +500,7 @@ class DeviceRepository @Inject constructor(
                 }
                 
                 // 1. SetAVTransportURI with DIDL-Lite metadata
-                val setUriSoap = """<?xml version="1.0" encoding="utf-8"?><s:Envelope s:encodingStyle="http://schemas.xmlsoap.org/soap/encoding/" xmlns:s="http://schemas.xmlsoap.org/soap/envelope/"><s:Body><u:SetAVTransportURI xmlns:u="urn:schemas-upnp-org:service:AVTransport:1"><InstanceID>0</InstanceID><CurrentURI>$escapedUrl</CurrentURI><CurrentURIMetaData>$didlMetadata</CurrentURIMetaData></u:SetAVTransportURI></s:Body></s:Envelope>"""
+                val setUriSoap = """<?xml version="1.0" encoding="utf-8"?><s:Envelope s:encodingStyle="http://schemas.xmlsoap.org/soap/encoding/" xmlns:s="http://schemas.xmlsoap.org/soap/envelope/"><s:Body><u:SetAVTransportURI xmlns:u="urn:schemas-upnp-org:service:AVTransport:1"><InstanceID>0</InstanceID><CurrentURI>$escapedUrl</CurrentURI><CurrentURIMetaData>$metadata</CurrentURIMetaData></u:SetAVTransportURI></s:Body></s:Envelope>"""
                 
                 sendSoapAction(endpoint, "urn:schemas-upnp-org:service:AVTransport:1#SetAVTransportURI", setUriSoap)
                 
@@ -257,6 +510,13 @@ class DeviceRepository @Inject constructor(
                 sendSoapAction(endpoint, "urn:schemas-upnp-org:service:AVTransport:1#Play", playSoap)
                 
                 android.util.Log.d("DLNA_CAST", "SUCCESS with endpoint: $endpoint")
+                playbackMonitor.watch(device, endpoint)
+                // A new SetAVTransportURI drops whatever was preloaded
+                dlnaTarget = device.id to endpoint
+                dlnaQueue.bindToDevice(device.id)
+                preloadedNext = null
+                playbackMonitor.followUri = false
+                appScope.launch { syncDlnaPreload() }
                 return@withContext Result.success(Unit)
             } catch (e: Exception) {
                 android.util.Log.w("DLNA_CAST", "Failed with $endpoint: ${e.message}")
@@ -269,6 +529,36 @@ class DeviceRepository @Inject constructor(
         Result.failure(lastError ?: Exception("All DLNA endpoints failed"))
     }
     
+    /**
+     * URL to hand to [device]: the on-device relay's when streaming through
+     * it is enabled and the device is reachable, the link itself otherwise.
+     */
+    private suspend fun playableUrl(device: Device, url: String): String {
+        if (!settingsDataStore.snapshot().useMediaRelay) return url
+        return mediaRelay.relayUrl(url, device.address) ?: url.also {
+            android.util.Log.w("MEDIA_RELAY", "No route to ${device.address}, sending the direct link")
+        }
+    }
+    
+    // Escape special XML characters in URL
+    private fun escapeXml(value: String): String {
+        return value
+            .replace("&", "&amp;")
+            .replace("<", "&lt;")
+            .replace(">", "&gt;")
+            .replace("\"", "&quot;")
+    }
+    
+    /**
+     * DIDL-Lite metadata (already escaped for a SOAP argument) required by
+     * Samsung TVs (error 714 = Illegal MIME-type).
+     */
+    private fun didlMetadata(videoUrl: String): String {
+        val mimeType = VideoMimeTypes.forUrl(videoUrl)
+        val escapedUrl = escapeXml(videoUrl)
+        return """&lt;DIDL-Lite xmlns=&quot;urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/&quot; xmlns:dc=&quot;http://purl.org/dc/elements/1.1/&quot; xmlns:upnp=&quot;urn:schemas-upnp-org:metadata-1-0/upnp/&quot;&gt;&lt;item id=&quot;0&quot; parentID=&quot;-1&quot; restricted=&quot;1&quot;&gt;&lt;dc:title&gt;Video&lt;/dc:title&gt;&lt;upnp:class&gt;object.item.videoItem&lt;/upnp:class&gt;&lt;res protocolInfo=&quot;http-get:*:$mimeType:*&quot;&gt;$escapedUrl&lt;/res&gt;&lt;/item&gt;&lt;/DIDL-Lite&gt;"""
+    }
+    
     private fun sendSoapAction(urlStr: String, soapAction: String, xmlBody: String) {
         val url = URL(urlStr)
         val connection = url.openConnection() as HttpURLConnection
@@ -298,7 +588,11 @@ class DeviceRepository @Inject constructor(
             val errorStream = connection.errorStream
             val errorBody = errorStream?.bufferedReader()?.readText() ?: "No error body"
             android.util.Log.e("DLNA_CAST", "Error body: $errorBody")
-            throw Exception("SOAP failed ($responseCode): ${errorBody.take(100)}")
+            throw SoapFaultException(
+                httpCode = responseCode,
+                upnpErrorCode = AvTransport.parseFaultErrorCode(errorBody),
+                message = "SOAP failed ($responseCode): ${errorBody.take(100)}"
+            )
         }
         
         connection.disconnect()
@@ -1,8 +1,22 @@
 package com.samcod3.alldebrid.data.repository
 
-import kotlinx.coroutines.flow.MutableStateFlow
+import android.content.Context
+import androidx.datastore.core.DataStoreFactory
+import androidx.datastore.core.handlers.ReplaceFileCorruptionHandler
+import androidx.datastore.dataStoreFile
+import com.samcod3.alldebrid.data.datastore.PlaybackQueue
+import com.samcod3.alldebrid.data.datastore.PlaybackQueueSerializer
+import com.samcod3.alldebrid.data.datastore.WriteBehindStore
+import com.samcod3.alldebrid.di.ApplicationScope
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.collections.immutable.PersistentList
+import kotlinx.collections.immutable.persistentListOf
+import kotlinx.collections.immutable.toPersistentList
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
-import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.stateIn
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -16,58 +30,166 @@ data class DlnaQueueItem(
     val addedAt: Long = System.currentTimeMillis()
 )
 
+/**
+ * Outcome of [DlnaQueueManager.addAll]: items added, and the queue length
+ * right before they were.
+ */
+data class DlnaQueueAddition(
+    val added: Int,
+    val queuedBefore: Int
+)
+
 /**
  * Manages a queue of videos for DLNA playback.
  * Since DLNA doesn't support native queuing, this handles it app-side.
+ *
+ * Every mutation is a transform applied atomically by [WriteBehindStore], so
+ * concurrent adds and pops cannot lose items, and the persistent list shares
+ * structure between versions instead of copying it. The queue survives
+ * process death; bursts of edits are written to disk as one batch.
  */
 @Singleton
-class DlnaQueueManager @Inject constructor() {
-    
-    private val _queue = MutableStateFlow<List<DlnaQueueItem>>(emptyList())
-    val queue: StateFlow<List<DlnaQueueItem>> = _queue.asStateFlow()
-    
+class DlnaQueueManager @Inject constructor(
+    @ApplicationContext context: Context,
+    @ApplicationScope scope: CoroutineScope
+) {
+
+    companion object {
+        private const val FILE_NAME = "playback_queue.bin"
+    }
+
+    private val store = WriteBehindStore(
+        dataStore = DataStoreFactory.create(
+            serializer = PlaybackQueueSerializer,
+            corruptionHandler = ReplaceFileCorruptionHandler { PlaybackQueue() },
+            produceFile = { context.dataStoreFile(FILE_NAME) }
+        ),
+        scope = scope,
+        defaultValue = PlaybackQueue(),
+        name = "playback queue"
+    )
+
+    // Serializes "look at the head, then remove it" so two pops never return the same item
+    private val popLock = Any()
+
+    val queue: StateFlow<List<DlnaQueueItem>> = store.state
+        .map { it?.items ?: persistentListOf() }
+        .stateIn(scope, SharingStarted.Eagerly, persistentListOf())
+
+    private val items: PersistentList<DlnaQueueItem>
+        get() = store.state.value?.items ?: persistentListOf()
+
     /**
      * Add a video to the queue
      */
     fun addToQueue(url: String, title: String) {
         val item = DlnaQueueItem(url = url, title = title)
-        _queue.value = _queue.value + item
+        update { it.copy(items = it.items.add(item)) }
     }
-    
+
+    /**
+     * Add several videos (url to title) in one step. URLs already queued, or
+     * repeated within [entries], are skipped. Waits for the stored queue to
+     * load, so both counts in the result are of the real queue.
+     */
+    suspend fun addAll(entries: List<Pair<String, String>>): DlnaQueueAddition {
+        val candidates = entries.distinctBy { it.first }
+            .map { (url, title) -> DlnaQueueItem(url = url, title = title) }
+        store.current()
+        var result: DlnaQueueAddition? = null
+        update { queue ->
+            val added = candidates.filter { item -> queue.items.none { it.url == item.url } }
+            // The store replays this transform on the file when it writes; the
+            // count is taken from the first run, against the in-memory queue
+            if (result == null) result = DlnaQueueAddition(added = added.size, queuedBefore = queue.items.size)
+            if (added.isEmpty()) queue else queue.copy(items = queue.items.addAll(added))
+        }
+        return result ?: DlnaQueueAddition(added = 0, queuedBefore = items.size)
+    }
+
     /**
      * Remove an item from the queue
      */
     fun removeFromQueue(itemId: String) {
-        _queue.value = _queue.value.filter { it.id != itemId }
+        update { queue ->
+            val index = queue.items.indexOfFirst { it.id == itemId }
+            if (index < 0) queue else queue.copy(items = queue.items.removeAt(index))
+        }
     }
-    
+
+    /**
+     * Move an item to [toIndex] (clamped to the queue bounds).
+     */
+    fun moveItem(itemId: String, toIndex: Int) {
+        update { queue ->
+            val index = queue.items.indexOfFirst { it.id == itemId }
+            if (index < 0) return@update queue
+            val item = queue.items[index]
+            val without = queue.items.removeAt(index)
+            queue.copy(items = without.add(toIndex.coerceIn(0, without.size), item))
+        }
+    }
+
+    /**
+     * Drop later entries whose URL is already queued earlier.
+     */
+    fun removeDuplicates() {
+        update { queue ->
+            val unique = queue.items.distinctBy { it.url }
+            if (unique.size == queue.items.size) queue else queue.copy(items = unique.toPersistentList())
+        }
+    }
+
     /**
      * Clear the entire queue
      */
     fun clearQueue() {
-        _queue.value = emptyList()
+        update { it.copy(items = persistentListOf()) }
     }
-    
+
     /**
      * Get the next item to play and remove it from queue
      */
     fun popNext(): DlnaQueueItem? {
-        val items = _queue.value
-        if (items.isEmpty()) return null
-        
-        val next = items.first()
-        _queue.value = items.drop(1)
-        return next
+        synchronized(popLock) {
+            val next = items.firstOrNull() ?: return null
+            removeFromQueue(next.id)
+            return next
+        }
     }
-    
+
+    fun peekNext(): DlnaQueueItem? = items.firstOrNull()
+
+    /**
+     * Remember which device the queue plays on, so it can be restored with it.
+     */
+    fun bindToDevice(deviceId: String) {
+        update { it.copy(deviceId = deviceId) }
+    }
+
+    /**
+     * Device the restored queue was playing on; waits for the first read.
+     */
+    suspend fun restoredDeviceId(): String? = store.current().deviceId
+
     /**
      * Get queue size
      */
-    fun queueSize(): Int = _queue.value.size
-    
+    fun queueSize(): Int = items.size
+
     /**
      * Check if queue is empty
      */
-    fun isEmpty(): Boolean = _queue.value.isEmpty()
-}
+    fun isEmpty(): Boolean = items.isEmpty()
+
+    /**
+     * Write any buffered edits to disk now.
+     */
+    suspend fun flush() {
+        store.flush()
+    }
 
+    private fun update(transform: (PlaybackQueue) -> PlaybackQueue) {
+        store.update(transform)
+    }
+}
@@ -3,20 +3,24 @@ package com.samcod3.alldebrid.data.repository
 import com.samcod3.alldebrid.data.api.JackettApi
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
 import com.samcod3.alldebrid.data.model.SearchResult
-import kotlinx.coroutines.flow.first
+import com.samcod3.alldebrid.data.network.Endpoint
+import com.samcod3.alldebrid.data.network.ResilienceExecutor
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import javax.inject.Inject
 import javax.inject.Singleton
 
 @Singleton
 class JackettRepository @Inject constructor(
     private val api: JackettApi,
-    private val settingsDataStore: SettingsDataStore
+    private val settingsDataStore: SettingsDataStore,
+    private val resilience: ResilienceExecutor
 ) {
     
     suspend fun search(query: String): Result<List<SearchResult>> {
         return try {
-            val jackettUrl = settingsDataStore.jackettUrl.first()
-            val jackettApiKey = settingsDataStore.jackettApiKey.first()
+            val settings = settingsDataStore.snapshot()
+            val jackettUrl = settings.jackettUrl
+            val jackettApiKey = settings.jackettApiKey
             
             if (jackettUrl.isBlank() || jackettApiKey.isBlank()) {
                 return Result.failure(Exception("Jackett not configured"))
@@ -24,11 +28,14 @@ class JackettRepository @Inject constructor(
             
             val searchUrl = "${jackettUrl.trimEnd('/')}/api/v2.0/indexers/all/results"
             
-            val response = api.search(
-                baseUrl = searchUrl,
-                apiKey = jackettApiKey,
-                query = query
-            )
+            val host = searchUrl.toHttpUrlOrNull()?.let { "${it.host}:${it.port}" }
+            val response = resilience.execute(Endpoint.JACKETT_SEARCH, host) {
+                api.search(
+                    baseUrl = searchUrl,
+                    apiKey = jackettApiKey,
+                    query = query
+                )
+            }
             
             if (response.isSuccessful) {
                 val results = response.body()?.results ?: emptyList()
@@ -42,8 +49,7 @@ class JackettRepository @Inject constructor(
     }
     
     suspend fun isConfigured(): Boolean {
-        val url = settingsDataStore.jackettUrl.first()
-        val apiKey = settingsDataStore.jackettApiKey.first()
-        return url.isNotBlank() && apiKey.isNotBlank()
+        val settings = settingsDataStore.snapshot()
+        return settings.jackettUrl.isNotBlank() && settings.jackettApiKey.isNotBlank()
     }
 }
@@ -0,0 +1,68 @@
+package com.samcod3.alldebrid.data.repository
+
+import com.samcod3.alldebrid.data.model.Magnet
+import com.samcod3.alldebrid.data.model.MagnetLink
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * File lists loaded with `magnet/files`, per magnet id, stored already split
+ * for display. Each entry remembers the status code it was loaded under: a
+ * magnet whose status changed (e.g. it finished downloading) has different
+ * files, so its entry is dropped.
+ */
+class MagnetFilesCache {
+
+    private class Entry(val statusCode: Int, val files: MagnetFilesPresentation)
+
+    @Volatile
+    private var entries: Map<Long, Entry> = emptyMap()
+    private val _files = MutableStateFlow<Map<Long, MagnetFilesPresentation>>(emptyMap())
+
+    /**
+     * Loaded file lists by magnet id.
+     */
+    val files: StateFlow<Map<Long, MagnetFilesPresentation>> = _files.asStateFlow()
+
+    fun get(magnet: Magnet): List<MagnetLink>? {
+        return entries[magnet.id]?.takeIf { it.statusCode == magnet.statusCode }?.files?.all
+    }
+
+    fun put(loaded: Map<Magnet, List<MagnetLink>>) {
+        if (loaded.isEmpty()) return
+        // Split and sorted outside the lock
+        val added = loaded.map { (magnet, files) -> magnet.id to Entry(magnet.statusCode, MagnetFilesPresentation.of(files)) }
+        update { current -> current + added }
+    }
+
+    /**
+     * Ids with a loaded file list.
+     */
+    fun ids(): Set<Long> = entries.keys
+
+    /**
+     * Drop entries among [checked] whose magnet is gone from [statuses] or
+     * changed status. Entries added since [checked] was taken are kept.
+     */
+    fun retainMatching(checked: Set<Long>, statuses: Map<Long, Int>) {
+        update { current ->
+            val kept = current.filter { (id, entry) -> id !in checked || statuses[id] == entry.statusCode }
+            if (kept.size == current.size) current else kept
+        }
+    }
+
+    fun clear() {
+        update { emptyMap() }
+    }
+
+    private fun update(transform: (Map<Long, Entry>) -> Map<Long, Entry>) {
+        synchronized(this) {
+            val before = entries
+            val after = transform(before)
+            if (after === before) return
+            entries = after
+            _files.value = after.mapValues { it.value.files }
+        }
+    }
+}
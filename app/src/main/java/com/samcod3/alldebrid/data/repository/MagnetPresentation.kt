@@ -0,0 +1,134 @@
+package com.samcod3.alldebrid.data.repository
+
+import androidx.compose.runtime.Immutable
+import com.samcod3.alldebrid.data.model.Magnet
+import com.samcod3.alldebrid.data.model.MagnetLink
+import kotlinx.collections.immutable.ImmutableList
+import kotlinx.collections.immutable.toImmutableList
+
+/**
+ * Display state of a magnet, from its numeric status code rather than the
+ * (localizable) `status` text.
+ */
+enum class MagnetState {
+    QUEUED,
+    DOWNLOADING,
+    READY,
+    ERROR;
+
+    companion object {
+        fun of(magnet: Magnet): MagnetState = when (magnet.statusCode) {
+            0 -> QUEUED
+            // Downloading, compressing/moving, uploading
+            in 1..3 -> DOWNLOADING
+            4 -> READY
+            else -> ERROR
+        }
+    }
+}
+
+/**
+ * Everything a downloads row shows for a magnet, computed once when the
+ * magnet changes instead of on every recomposition.
+ */
+@Immutable
+data class MagnetPresentation(
+    val magnet: Magnet,
+    val state: MagnetState,
+    val sizeText: String,
+    val progress: Float,
+    val progressText: String,
+    val transferredText: String,
+    val speedText: String
+) {
+    val id: Long
+        get() = magnet.id
+
+    companion object {
+        fun of(magnet: Magnet): MagnetPresentation {
+            val progress = if (magnet.size > 0) {
+                (magnet.downloaded.toFloat() / magnet.size.toFloat()).coerceIn(0f, 1f)
+            } else {
+                0f
+            }
+            return MagnetPresentation(
+                magnet = magnet,
+                state = MagnetState.of(magnet),
+                sizeText = formatSize(magnet.size),
+                progress = progress,
+                progressText = "${(progress * 100).toInt()}%",
+                transferredText = "${formatSize(magnet.downloaded)} / ${formatSize(magnet.size)}",
+                speedText = "${formatSize(magnet.downloadSpeed)}/s"
+            )
+        }
+    }
+}
+
+/**
+ * A magnet's file list split for display: playable media in episode order,
+ * everything else in API order.
+ */
+@Immutable
+data class MagnetFilesPresentation(
+    val all: ImmutableList<MagnetLink>,
+    val media: ImmutableList<MagnetLink>,
+    val other: ImmutableList<MagnetLink>
+) {
+    companion object {
+        private val VIDEO_EXTENSIONS = setOf("mp4", "mkv", "avi", "mov", "wmv", "flv", "webm", "m4v", "mpg", "mpeg", "3gp")
+        private val AUDIO_EXTENSIONS = setOf("mp3", "flac", "wav", "aac", "ogg", "m4a", "wma", "ape", "opus")
+
+        fun of(links: List<MagnetLink>): MagnetFilesPresentation {
+            val (media, other) = links.partition { it.filename.isMediaFile() }
+            return MagnetFilesPresentation(
+                all = links.toImmutableList(),
+                media = media.sortedWith(compareBy(NaturalOrder) { it.filename }).toImmutableList(),
+                other = other.toImmutableList()
+            )
+        }
+
+        private fun String.isMediaFile(): Boolean {
+            val extension = substringAfterLast('.', "").lowercase()
+            return extension in VIDEO_EXTENSIONS || extension in AUDIO_EXTENSIONS
+        }
+    }
+}
+
+/**
+ * Case-insensitive order where digit runs compare by value, so "E2" sorts
+ * before "E10".
+ */
+internal object NaturalOrder : Comparator<String> {
+    override fun compare(a: String, b: String): Int {
+        var i = 0
+        var j = 0
+        while (i < a.length && j < b.length) {
+            if (a[i].isDigit() && b[j].isDigit()) {
+                val startA = i
+                val startB = j
+                while (i < a.length && a[i].isDigit()) i++
+                while (j < b.length && b[j].isDigit()) j++
+                val numberA = a.substring(startA, i).trimStart('0')
+                val numberB = b.substring(startB, j).trimStart('0')
+                if (numberA.length != numberB.length) return numberA.length - numberB.length
+                val byValue = numberA.compareTo(numberB)
+                if (byValue != 0) return byValue
+            } else {
+                val byChar = a[i].lowercaseChar().compareTo(b[j].lowercaseChar())
+                if (byChar != 0) return byChar
+                i++
+                j++
+            }
+        }
+        return (a.length - i) - (b.length - j)
+    }
+}
+
+internal fun formatSize(bytes: Long): String {
+    return when {
+        bytes >= 1_000_000_000 -> String.format("%.2f GB", bytes / 1_000_000_000.0)
+        bytes >= 1_000_000 -> String.format("%.2f MB", bytes / 1_000_000.0)
+        bytes >= 1_000 -> String.format("%.2f KB", bytes / 1_000.0)
+        else -> "$bytes B"
+    }
+}
@@ -0,0 +1,213 @@
+package com.samcod3.alldebrid.data.repository
+
+import androidx.paging.PagingSource
+import com.samcod3.alldebrid.data.db.MagnetDao
+import com.samcod3.alldebrid.data.db.MagnetEntity
+import com.samcod3.alldebrid.data.db.MagnetSearch
+import com.samcod3.alldebrid.data.model.Magnet
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.update
+import java.security.MessageDigest
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Server-side subsets of `magnet/status`, as accepted by its `status` parameter.
+ */
+enum class MagnetStatusFilter(val apiValue: String) {
+    ACTIVE("active"),
+    READY("ready"),
+    EXPIRED("expired"),
+    ERROR("error");
+
+    companion object {
+        /**
+         * Subset a magnet from an unfiltered listing belongs to. Status codes
+         * 0-3 are still in progress and 4 is ready; anything higher is an error
+         * (expired magnets are only told apart when asked for explicitly).
+         */
+        fun of(magnet: Magnet): MagnetStatusFilter = when (magnet.statusCode) {
+            in 0..3 -> ACTIVE
+            4 -> READY
+            else -> ERROR
+        }
+
+        /**
+         * Like [of], keeping a magnet the explicit `expired` listing put in
+         * [EXPIRED] there: its error-range status code can't tell the two apart.
+         */
+        fun of(magnet: Magnet, stored: MagnetStatusFilter?): MagnetStatusFilter {
+            val subset = of(magnet)
+            return if (subset == ERROR && stored == EXPIRED) EXPIRED else subset
+        }
+
+        fun fromApiValue(value: String): MagnetStatusFilter? = entries.firstOrNull { it.apiValue == value }
+
+        /**
+         * Subsets an unfiltered listing fills completely; expired magnets show
+         * up in it as errors, so neither of those two can be considered fetched.
+         */
+        val LISTED_IN_FULL: Set<MagnetStatusFilter> = setOf(ACTIVE, READY)
+    }
+}
+
+/**
+ * Unified magnet list built from separately fetched subsets, kept in the
+ * `magnets` table so the list pages from disk instead of holding the whole
+ * account in memory. Refreshing the active downloads replaces only that subset
+ * and leaves the (much larger) ready subset alone. A magnet that moved
+ * between subsets is kept under the most recent fetch; one that left a
+ * subset without showing up in another is dropped until it does.
+ *
+ * The table, when each subset was fetched and which API key it belongs to
+ * survive restarts, so the list opens on the stored magnets and only stale
+ * subsets are fetched again.
+ */
+@Singleton
+class MagnetStore @Inject constructor(
+    private val dao: MagnetDao
+) {
+
+    // Hash of the API key the stored magnets belong to, once read or claimed
+    @Volatile
+    private var ownerHash: String? = null
+
+    private val _changes = MutableStateFlow(0L)
+
+    /**
+     * Bumped after every write, for state derived from the stored magnets.
+     */
+    val changes: StateFlow<Long> = _changes.asStateFlow()
+
+    /**
+     * Stored magnets per subset.
+     */
+    val counts: Flow<Map<MagnetStatusFilter, Int>> = dao.observeCounts().map { rows ->
+        val bySubset = rows.associate { it.subset to it.count }
+        MagnetStatusFilter.entries.associateWith { bySubset[it.apiValue] ?: 0 }
+    }
+
+    /**
+     * Whether [filter] was listed less than [maxAgeMs] ago. A subset never
+     * listed is stale, and so is one stamped in the future by a clock change.
+     */
+    suspend fun isFresh(filter: MagnetStatusFilter, maxAgeMs: Long): Boolean {
+        val at = dao.fetchedAt(filter.apiValue) ?: return false
+        return System.currentTimeMillis() - at in 0 until maxAgeMs
+    }
+
+    /**
+     * Make [filters] stale, so the next refresh fetches them even if they
+     * were listed moments ago (e.g. right after adding a magnet).
+     */
+    suspend fun invalidate(filters: Collection<MagnetStatusFilter>) {
+        dao.markStale(filters.map { it.apiValue })
+    }
+
+    /**
+     * Take the store for [apiKey] before writing its magnets, dropping
+     * whatever another key left behind.
+     */
+    suspend fun claim(apiKey: String) {
+        val hash = keyHash(apiKey)
+        if (ownerHash == hash) return
+        if (dao.claim(hash)) changed()
+        ownerHash = hash
+    }
+
+    suspend fun isOwnedBy(apiKey: String): Boolean {
+        val owner = ownerHash ?: dao.owner().also { ownerHash = it }
+        return owner == keyHash(apiKey)
+    }
+
+    /**
+     * Newest first, limited to [filters] and, when [query] has any letters or
+     * digits, to names containing it (ignoring case, accents and punctuation,
+     * like the field always has). Invalidated by Room
+     * whenever the table changes.
+     */
+    fun pagingSource(filters: Set<MagnetStatusFilter>, query: String): PagingSource<Int, MagnetEntity> {
+        val subsets = filters.map { it.apiValue }
+        val pattern = MagnetSearch.likePattern(query)
+        return if (pattern == null) dao.page(subsets) else dao.search(subsets, pattern)
+    }
+
+    suspend fun byIds(ids: List<Long>): List<Magnet> {
+        return ids.chunked(MAX_IDS_PER_QUERY).flatMap { chunk -> dao.byIds(chunk).map { it.toMagnet() } }
+    }
+
+    suspend fun findByHash(infoHash: String): Magnet? {
+        return dao.byHash(infoHash.lowercase())?.toMagnet()
+    }
+
+    /**
+     * Status code of each stored magnet among [ids]; missing ids are gone.
+     */
+    suspend fun statuses(ids: Collection<Long>): Map<Long, Int> {
+        return dao.statuses(ids).associate { it.id to it.statusCode }
+    }
+
+    /**
+     * Replace one subset. Returns the ids that were in it before and no longer
+     * are, i.e. magnets that moved to another subset or were deleted.
+     */
+    suspend fun replaceSubset(filter: MagnetStatusFilter, magnets: List<Magnet>): Set<Long> {
+        val left = dao.replaceSubset(
+            filter.apiValue,
+            magnets.map { MagnetEntity.of(it, filter.apiValue) },
+            System.currentTimeMillis()
+        )
+        changed()
+        return left
+    }
+
+    /**
+     * Replace every subset from one unfiltered listing. Only the subsets it
+     * fills completely become fresh; magnets already known to be expired stay so.
+     */
+    suspend fun replaceAll(magnets: List<Magnet>) {
+        val expired = dao.idsIn(MagnetStatusFilter.EXPIRED.apiValue).toHashSet()
+        val entities = magnets.map { magnet ->
+            val stored = if (magnet.id in expired) MagnetStatusFilter.EXPIRED else null
+            MagnetEntity.of(magnet, MagnetStatusFilter.of(magnet, stored).apiValue)
+        }
+        val fresh = MagnetStatusFilter.LISTED_IN_FULL.map { it.apiValue }
+        dao.replaceAll(entities, fresh, System.currentTimeMillis())
+        changed()
+    }
+
+    /**
+     * Replace one magnet from an id-targeted status call, moving it to the
+     * subset its status now belongs to. Other entries are left untouched, and
+     * a subset never listed stays stale so the next chip switch still fetches it.
+     */
+    suspend fun upsert(magnet: Magnet) {
+        val stored = dao.subsetOf(magnet.id)?.let { MagnetStatusFilter.fromApiValue(it) }
+        dao.upsert(listOf(MagnetEntity.of(magnet, MagnetStatusFilter.of(magnet, stored).apiValue)))
+        changed()
+    }
+
+    suspend fun remove(id: Long) {
+        dao.delete(listOf(id))
+        changed()
+    }
+
+    // Only a hash is stored; the key itself stays in the settings store
+    private fun keyHash(apiKey: String): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(apiKey.toByteArray())
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+
+    private fun changed() {
+        _changes.update { it + 1 }
+    }
+
+    private companion object {
+        // Stays under SQLite's 999 bound parameters on older Android versions
+        const val MAX_IDS_PER_QUERY = 500
+    }
+}
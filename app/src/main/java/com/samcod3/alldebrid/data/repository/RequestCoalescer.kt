@@ -0,0 +1,82 @@
+package com.samcod3.alldebrid.data.repository
+
+import android.os.SystemClock
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Single-flight layer for repository calls.
+ *
+ * Concurrent callers asking for the same key share one in-flight call and all
+ * receive its result. A successful result stays fresh for [execute]'s
+ * `freshnessMs`, so a burst of identical refreshes costs a single round trip.
+ * Failures are never kept: the next caller always retries.
+ *
+ * The shared call runs in [scope], so a caller being cancelled (e.g. its
+ * ViewModel cleared) does not cancel the request for everyone else.
+ */
+class RequestCoalescer(private val scope: CoroutineScope) {
+
+    private class Entry(val deferred: Deferred<Result<*>>) {
+        @Volatile
+        var completedAt: Long = 0L
+    }
+
+    private val mutex = Mutex()
+    private val entries = HashMap<String, Entry>()
+
+    @Suppress("UNCHECKED_CAST")
+    suspend fun <T> execute(
+        key: String,
+        freshnessMs: Long,
+        block: suspend () -> Result<T>
+    ): Result<T> {
+        val deferred = mutex.withLock {
+            val now = SystemClock.elapsedRealtime()
+            val existing = entries[key]
+            val reusable = existing != null && (
+                !existing.deferred.isCompleted ||
+                (existing.completedAt > 0L && now - existing.completedAt < freshnessMs)
+            )
+            if (reusable) {
+                existing!!.deferred
+            } else {
+                lateinit var entry: Entry
+                val call = scope.async(start = CoroutineStart.LAZY) {
+                    var result: Result<T>? = null
+                    try {
+                        result = block()
+                        result
+                    } finally {
+                        mutex.withLock {
+                            if (result?.isSuccess == true) {
+                                entry.completedAt = SystemClock.elapsedRealtime()
+                            } else if (entries[key] === entry) {
+                                entries.remove(key)
+                            }
+                        }
+                    }
+                }
+                entry = Entry(call)
+                entries[key] = entry
+                call.start()
+                call
+            }
+        }
+        return deferred.await() as Result<T>
+    }
+
+    /**
+     * Drop every cached or in-flight entry whose key starts with [keyPrefix].
+     * Call after a mutation so the next read goes to the network.
+     */
+    suspend fun invalidate(keyPrefix: String) {
+        mutex.withLock {
+            entries.keys.removeAll { it.startsWith(keyPrefix) }
+        }
+    }
+}
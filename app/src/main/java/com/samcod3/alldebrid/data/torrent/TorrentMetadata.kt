@@ -0,0 +1,47 @@
+package com.samcod3.alldebrid.data.torrent
+
+import java.net.URLEncoder
+
+/**
+ * What the app needs from a .torrent file to stand in for it with a magnet.
+ *
+ * @param infoHash lowercase hex SHA-1 of the bencoded `info` dictionary (BTIH)
+ * @param hasV1Pieces false for v2-only torrents, whose BTIH is not a SHA-1
+ */
+data class TorrentMetadata(
+    val infoHash: String,
+    val name: String?,
+    val trackers: List<String>,
+    val isPrivate: Boolean,
+    val hasV1Pieces: Boolean
+) {
+    /**
+     * Private torrents must keep their own tracker/passkey handling, and v2-only
+     * torrents have no v1 infohash, so both still go up as files.
+     */
+    val canUseMagnet: Boolean
+        get() = !isPrivate && hasV1Pieces
+
+    fun toMagnetUri(): String = buildString {
+        append("magnet:?xt=urn:btih:").append(infoHash)
+        name?.takeIf { it.isNotBlank() }?.let { append("&dn=").append(encode(it)) }
+        trackers.forEach { append("&tr=").append(encode(it)) }
+    }
+
+    private fun encode(value: String): String {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20")
+    }
+
+    companion object {
+        private val BTIH_HEX = Regex("""urn:btih:([0-9a-fA-F]{40})""")
+
+        /**
+         * Lowercase hex infohash of a magnet URI, or null for base32/v2 hashes
+         * or non-magnet links.
+         */
+        fun infoHashOf(magnetUri: String): String? {
+            if (!magnetUri.startsWith("magnet:")) return null
+            return BTIH_HEX.find(magnetUri)?.groupValues?.get(1)?.lowercase()
+        }
+    }
+}
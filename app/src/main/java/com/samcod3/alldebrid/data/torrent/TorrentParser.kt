@@ -0,0 +1,221 @@
+package com.samcod3.alldebrid.data.torrent
+
+import okio.BufferedSource
+import java.io.IOException
+import java.security.MessageDigest
+
+class TorrentParseException(message: String) : IOException(message)
+
+class TorrentTooLargeException(val limit: Long) :
+    IOException("El torrent supera el tamaño máximo (${limit / (1024 * 1024)} MB)")
+
+/**
+ * Single-pass .torrent reader.
+ *
+ * Walks the bencoded stream once, keeping only the handful of fields in
+ * [TorrentMetadata]. Bytes of the top-level `info` dictionary are fed into
+ * SHA-1 as they are consumed, so the infohash is ready when the dictionary
+ * closes; large values such as `pieces` are skipped through a reusable
+ * scratch buffer instead of being materialized.
+ */
+object TorrentParser {
+
+    private const val MAX_KEY_BYTES = 1_024L
+    private const val MAX_TEXT_BYTES = 64L * 1024
+
+    /**
+     * @param maxBytes fail with [TorrentTooLargeException] past this many bytes
+     * @throws TorrentParseException if the data is not a well-formed torrent
+     */
+    fun parse(source: BufferedSource, maxBytes: Long): TorrentMetadata {
+        val reader = BencodeReader(source, maxBytes)
+        var infoHash: String? = null
+        var name: String? = null
+        var utf8Name: String? = null
+        var isPrivate = false
+        var hasPieces = false
+        val trackers = LinkedHashSet<String>()
+
+        reader.expect('d')
+        while (reader.peek() != 'e'.code) {
+            when (reader.readUtf8(MAX_KEY_BYTES)) {
+                "announce" -> trackers.add(reader.readUtf8(MAX_TEXT_BYTES))
+                "announce-list" -> {
+                    reader.expect('l')
+                    while (reader.peek() != 'e'.code) {
+                        if (reader.peek() == 'l'.code) {
+                            reader.expect('l')
+                            while (reader.peek() != 'e'.code) {
+                                trackers.add(reader.readUtf8(MAX_TEXT_BYTES))
+                            }
+                            reader.expect('e')
+                        } else {
+                            reader.skipValue()
+                        }
+                    }
+                    reader.expect('e')
+                }
+                "info" -> {
+                    reader.startDigest()
+                    reader.expect('d')
+                    while (reader.peek() != 'e'.code) {
+                        when (reader.readUtf8(MAX_KEY_BYTES)) {
+                            "name" -> name = reader.readUtf8(MAX_TEXT_BYTES)
+                            "name.utf-8" -> utf8Name = reader.readUtf8(MAX_TEXT_BYTES)
+                            "private" -> isPrivate = reader.readInteger() == 1L
+                            "pieces" -> {
+                                hasPieces = true
+                                reader.skipValue()
+                            }
+                            else -> reader.skipValue()
+                        }
+                    }
+                    reader.expect('e')
+                    infoHash = reader.finishDigest()
+                }
+                else -> reader.skipValue()
+            }
+        }
+        reader.expect('e')
+
+        return TorrentMetadata(
+            infoHash = infoHash ?: throw TorrentParseException("Torrent sin diccionario info"),
+            name = utf8Name ?: name,
+            trackers = trackers.filter { it.isNotBlank() },
+            isPrivate = isPrivate,
+            hasV1Pieces = hasPieces
+        )
+    }
+
+    private class BencodeReader(
+        private val source: BufferedSource,
+        private val maxBytes: Long
+    ) {
+        private companion object {
+            const val MAX_DEPTH = 64
+            val HEX = "0123456789abcdef".toCharArray()
+        }
+
+        private val scratch = ByteArray(8 * 1024)
+        private var position = 0L
+        private var digest: MessageDigest? = null
+
+        fun startDigest() {
+            digest = MessageDigest.getInstance("SHA-1")
+        }
+
+        fun finishDigest(): String {
+            val bytes = digest!!.digest()
+            digest = null
+            val chars = CharArray(bytes.size * 2)
+            bytes.forEachIndexed { i, b ->
+                val v = b.toInt() and 0xFF
+                chars[i * 2] = HEX[v ushr 4]
+                chars[i * 2 + 1] = HEX[v and 0x0F]
+            }
+            return String(chars)
+        }
+
+        /** Next byte without consuming it. */
+        fun peek(): Int {
+            if (!source.request(1)) throw TorrentParseException("Torrent truncado")
+            return source.buffer[0].toInt() and 0xFF
+        }
+
+        fun expect(c: Char) {
+            val b = readByte()
+            if (b != c.code) {
+                throw TorrentParseException("Se esperaba '$c' en la posición ${position - 1}")
+            }
+        }
+
+        fun readInteger(): Long {
+            expect('i')
+            return readNumber('e'.code)
+        }
+
+        fun readUtf8(maxLength: Long): String {
+            val length = readNumber(':'.code)
+            if (length > maxLength) throw TorrentParseException("Cadena demasiado larga ($length bytes)")
+            consume(length)
+            if (!source.request(length)) throw TorrentParseException("Torrent truncado")
+            val bytes = source.readByteArray(length)
+            digest?.update(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+
+        fun skipValue(depth: Int = 0) {
+            if (depth > MAX_DEPTH) throw TorrentParseException("Anidamiento demasiado profundo")
+            when (peek()) {
+                'i'.code -> readInteger()
+                'l'.code -> {
+                    expect('l')
+                    while (peek() != 'e'.code) skipValue(depth + 1)
+                    expect('e')
+                }
+                'd'.code -> {
+                    expect('d')
+                    while (peek() != 'e'.code) {
+                        skipString()
+                        skipValue(depth + 1)
+                    }
+                    expect('e')
+                }
+                in '0'.code..'9'.code -> skipString()
+                else -> throw TorrentParseException("Byte inesperado en la posición $position")
+            }
+        }
+
+        private fun skipString() {
+            var remaining = readNumber(':'.code)
+            consume(remaining)
+            val hashing = digest
+            if (hashing == null) {
+                if (!source.request(remaining)) throw TorrentParseException("Torrent truncado")
+                source.skip(remaining)
+                return
+            }
+            while (remaining > 0) {
+                val read = source.read(scratch, 0, minOf(remaining, scratch.size.toLong()).toInt())
+                if (read == -1) throw TorrentParseException("Torrent truncado")
+                hashing.update(scratch, 0, read)
+                remaining -= read
+            }
+        }
+
+        private fun readByte(): Int {
+            if (!source.request(1)) throw TorrentParseException("Torrent truncado")
+            consume(1)
+            val b = source.readByte()
+            digest?.update(b)
+            return b.toInt() and 0xFF
+        }
+
+        /** Digits up to [terminator], with an optional leading minus sign. */
+        private fun readNumber(terminator: Int): Long {
+            var value = 0L
+            var digits = 0
+            var negative = false
+            while (true) {
+                val b = readByte()
+                when {
+                    b == terminator -> break
+                    b == '-'.code && digits == 0 && !negative -> negative = true
+                    b in '0'.code..'9'.code && digits < 18 -> {
+                        value = value * 10 + (b - '0'.code)
+                        digits++
+                    }
+                    else -> throw TorrentParseException("Número inválido en la posición ${position - 1}")
+                }
+            }
+            if (digits == 0) throw TorrentParseException("Número vacío en la posición $position")
+            return if (negative) -value else value
+        }
+
+        private fun consume(count: Long) {
+            if (count < 0) throw TorrentParseException("Longitud negativa")
+            position += count
+            if (position > maxBytes) throw TorrentTooLargeException(maxBytes)
+        }
+    }
+}
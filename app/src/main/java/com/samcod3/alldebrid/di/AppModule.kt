@@ -1,15 +1,22 @@
 package com.samcod3.alldebrid.di
 
 import android.content.Context
+import androidx.room.Room
 import com.samcod3.alldebrid.data.api.AllDebridApi
 import com.samcod3.alldebrid.data.api.JackettApi
 import com.samcod3.alldebrid.data.api.KodiApi
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
+import com.samcod3.alldebrid.data.db.AppDatabase
+import com.samcod3.alldebrid.data.db.MagnetDao
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.components.SingletonComponent
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import okhttp3.Dispatcher
 import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Retrofit
@@ -26,10 +33,43 @@ annotation class AllDebridRetrofit
 @Retention(AnnotationRetention.BINARY)
 annotation class GenericRetrofit
 
+/**
+ * Shares the main client's connection pool and dispatcher but skips body
+ * logging, which would buffer whole responses; use it for anything that is
+ * read incrementally or may be large.
+ */
+@Qualifier
+@Retention(AnnotationRetention.BINARY)
+annotation class StreamingHttpClient
+
+/**
+ * [AllDebridApi] on the [StreamingHttpClient]. Use it for requests whose body
+ * is streamed once: body logging would read it to the end before the real
+ * request is written, which a multipart wrapper does not prevent.
+ */
+@Qualifier
+@Retention(AnnotationRetention.BINARY)
+annotation class StreamingAllDebridApi
+
+/**
+ * Process-wide scope for work that must outlive any single screen
+ * (shared requests, hot settings, background persistence).
+ */
+@Qualifier
+@Retention(AnnotationRetention.BINARY)
+annotation class ApplicationScope
+
 @Module
 @InstallIn(SingletonComponent::class)
 object AppModule {
     
+    @Provides
+    @Singleton
+    @ApplicationScope
+    fun provideApplicationScope(): CoroutineScope {
+        return CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    }
+    
     @Provides
     @Singleton
     fun provideOkHttpClient(): OkHttpClient {
@@ -37,7 +77,12 @@ object AppModule {
             level = HttpLoggingInterceptor.Level.BODY
         }
         
+        // OkHttp allows 5 concurrent calls per host by default; key health
+        // checks fan out to api.alldebrid.com in parallel
+        val dispatcher = Dispatcher().apply { maxRequestsPerHost = 10 }
+        
         return OkHttpClient.Builder()
+            .dispatcher(dispatcher)
             .addInterceptor(loggingInterceptor)
             .connectTimeout(30, TimeUnit.SECONDS)
             .readTimeout(30, TimeUnit.SECONDS)
@@ -45,6 +90,15 @@ object AppModule {
             .build()
     }
     
+    @Provides
+    @Singleton
+    @StreamingHttpClient
+    fun provideStreamingHttpClient(okHttpClient: OkHttpClient): OkHttpClient {
+        return okHttpClient.newBuilder()
+            .apply { interceptors().removeAll { it is HttpLoggingInterceptor } }
+            .build()
+    }
+    
     @Provides
     @Singleton
     @AllDebridRetrofit
@@ -73,6 +127,18 @@ object AppModule {
         return retrofit.create(AllDebridApi::class.java)
     }
     
+    @Provides
+    @Singleton
+    @StreamingAllDebridApi
+    fun provideStreamingAllDebridApi(@StreamingHttpClient okHttpClient: OkHttpClient): AllDebridApi {
+        return Retrofit.Builder()
+            .baseUrl(AllDebridApi.BASE_URL)
+            .client(okHttpClient)
+            .addConverterFactory(GsonConverterFactory.create())
+            .build()
+            .create(AllDebridApi::class.java)
+    }
+    
     @Provides
     @Singleton
     fun provideJackettApi(@GenericRetrofit retrofit: Retrofit): JackettApi {
@@ -87,7 +153,23 @@ object AppModule {
     
     @Provides
     @Singleton
-    fun provideSettingsDataStore(@ApplicationContext context: Context): SettingsDataStore {
-        return SettingsDataStore(context)
+    fun provideSettingsDataStore(
+        @ApplicationContext context: Context,
+        @ApplicationScope scope: CoroutineScope
+    ): SettingsDataStore {
+        return SettingsDataStore(context, scope)
+    }
+    
+    @Provides
+    @Singleton
+    fun provideAppDatabase(@ApplicationContext context: Context): AppDatabase {
+        return Room.databaseBuilder(context, AppDatabase::class.java, AppDatabase.NAME)
+            .fallbackToDestructiveMigration()
+            .build()
+    }
+    
+    @Provides
+    fun provideMagnetDao(database: AppDatabase): MagnetDao {
+        return database.magnetDao()
     }
 }
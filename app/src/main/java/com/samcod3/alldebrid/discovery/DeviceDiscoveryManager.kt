@@ -4,6 +4,7 @@ import android.content.Context
 import android.util.Log
 import com.samcod3.alldebrid.data.api.KodiApi
 import com.samcod3.alldebrid.data.api.KodiCommands
+import com.samcod3.alldebrid.data.datastore.DeviceRegistryStore
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
 import com.samcod3.alldebrid.data.model.Device
 import com.samcod3.alldebrid.data.model.DeviceType
@@ -12,7 +13,6 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
-import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.coroutines.sync.Semaphore
@@ -29,7 +29,8 @@ import javax.inject.Singleton
 class DeviceDiscoveryManager @Inject constructor(
     @ApplicationContext private val context: Context,
     private val kodiApi: KodiApi,
-    private val settingsDataStore: SettingsDataStore
+    private val settingsDataStore: SettingsDataStore,
+    private val deviceRegistry: DeviceRegistryStore
 ) {
     
     companion object {
@@ -55,7 +56,7 @@ class DeviceDiscoveryManager @Inject constructor(
         allDevices.addAll(ssdpDevices)
         
         // Add saved device if it exists and hasn't been found
-        val savedDevice = settingsDataStore.selectedDevice.first()
+        val savedDevice = deviceRegistry.snapshot().selectedDevice
         if (savedDevice != null) {
             val alreadyFound = allDevices.any { 
                 it.address == savedDevice.address && it.port == savedDevice.port 
@@ -82,7 +83,7 @@ class DeviceDiscoveryManager @Inject constructor(
         allDevices.addAll(manualDevices)
         
         // Add saved device if not found
-        val savedDevice = settingsDataStore.selectedDevice.first()
+        val savedDevice = deviceRegistry.snapshot().selectedDevice
         if (savedDevice != null) {
             val alreadyFound = allDevices.any { 
                 it.address == savedDevice.address && it.port == savedDevice.port 
@@ -271,8 +272,9 @@ class DeviceDiscoveryManager @Inject constructor(
         val devices = mutableListOf<Device>()
         
         // Check if custom IP range is enabled
-        val useCustomRange = settingsDataStore.useCustomIpRange.first()
-        val customPrefix = settingsDataStore.customIpPrefix.first()
+        val settings = settingsDataStore.snapshot()
+        val useCustomRange = settings.useCustomIpRange
+        val customPrefix = settings.customIpPrefix
         
         val localIpPrefix = if (useCustomRange && customPrefix.isNotBlank()) {
             Log.d(TAG, "Using custom IP range: $customPrefix")
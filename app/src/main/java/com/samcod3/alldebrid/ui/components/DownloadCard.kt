@@ -16,7 +16,9 @@ import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.verticalScroll
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.automirrored.filled.InsertDriveFile
+import androidx.compose.material.icons.automirrored.filled.PlaylistPlay
 import androidx.compose.material.icons.filled.Delete
+import androidx.compose.material.icons.filled.Download
 import androidx.compose.material.icons.filled.ExpandMore
 import androidx.compose.material.icons.filled.PlayArrow
 import androidx.compose.material.icons.filled.Visibility
@@ -42,29 +44,28 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
-import com.samcod3.alldebrid.data.model.Magnet
 import com.samcod3.alldebrid.data.model.MagnetLink
+import com.samcod3.alldebrid.data.repository.MagnetFilesPresentation
+import com.samcod3.alldebrid.data.repository.MagnetPresentation
+import com.samcod3.alldebrid.data.repository.MagnetState
 import com.samcod3.alldebrid.ui.theme.StatusDownloading
 import com.samcod3.alldebrid.ui.theme.StatusError
 import com.samcod3.alldebrid.ui.theme.StatusQueued
 import com.samcod3.alldebrid.ui.theme.StatusReady
 
-// Media file extensions
-private val VIDEO_EXTENSIONS = setOf("mp4", "mkv", "avi", "mov", "wmv", "flv", "webm", "m4v", "mpg", "mpeg", "3gp")
-private val AUDIO_EXTENSIONS = setOf("mp3", "flac", "wav", "aac", "ogg", "m4a", "wma", "ape", "opus")
-
-private fun String.isMediaFile(): Boolean {
-    val extension = this.substringAfterLast('.', "").lowercase()
-    return extension in VIDEO_EXTENSIONS || extension in AUDIO_EXTENSIONS
-}
-
 @OptIn(ExperimentalMaterial3Api::class, ExperimentalFoundationApi::class)
 @Composable
 fun DownloadCard(
-    magnet: Magnet,
+    // Sizes, progress and state are precomputed when the magnet changes
+    magnet: MagnetPresentation,
+    // Loaded file list, or null until [onLoadFiles] has brought it in
+    files: MagnetFilesPresentation?,
+    onLoadFiles: () -> Unit,
     onDelete: () -> Unit,
     onCopyLink: (String) -> Unit,
     onPlay: (link: String, title: String) -> Unit,
+    onQueueAll: ((links: List<MagnetLink>) -> Unit)? = null,
+    onDownload: ((link: MagnetLink) -> Unit)? = null,
     refreshCallback: (() -> Unit)? = null,
     modifier: Modifier = Modifier
 ) {
@@ -72,16 +73,16 @@ fun DownloadCard(
     var showAllFiles by remember { mutableStateOf(false) }
     val sheetState = rememberModalBottomSheetState(skipPartiallyExpanded = true)
     
-    val statusColor = when (magnet.status) {
-        "Ready" -> StatusReady
-        "Downloading" -> StatusDownloading
-        "Queued" -> StatusQueued
-        else -> StatusError
+    val statusColor = when (magnet.state) {
+        MagnetState.READY -> StatusReady
+        MagnetState.DOWNLOADING -> StatusDownloading
+        MagnetState.QUEUED -> StatusQueued
+        MagnetState.ERROR -> StatusError
     }
     
-    // Filter links
-    val mediaLinks = magnet.links.filter { it.filename.isMediaFile() }
-    val otherLinks = magnet.links.filter { !it.filename.isMediaFile() }
+    // Split (and media sorted) when the file list was loaded
+    val mediaLinks = files?.media.orEmpty()
+    val otherLinks = files?.other.orEmpty()
     val hasOtherFiles = otherLinks.isNotEmpty()
 
     // BottomSheet for file list
@@ -90,6 +91,11 @@ fun DownloadCard(
             onDismissRequest = { showBottomSheet = false },
             sheetState = sheetState
         ) {
+            // The file list is only fetched once the sheet is opened
+            if (files == null && magnet.state == MagnetState.READY) {
+                androidx.compose.runtime.LaunchedEffect(magnet.id) { onLoadFiles() }
+            }
+            
             Column(
                 modifier = Modifier
                     .fillMaxWidth()
@@ -99,14 +105,14 @@ fun DownloadCard(
             ) {
                 // Header
                 Text(
-                    text = magnet.filename,
+                    text = magnet.magnet.filename,
                     style = MaterialTheme.typography.titleMedium,
                     maxLines = 2,
                     overflow = TextOverflow.Ellipsis
                 )
                 Spacer(modifier = Modifier.height(4.dp))
                 // Progress Header for Downloading items
-                if (magnet.status != "Ready") {
+                if (magnet.state != MagnetState.READY) {
                     // Auto-refresh every 10 seconds while sheet is open
                     androidx.compose.runtime.LaunchedEffect(Unit) {
                         while(true) {
@@ -128,32 +134,28 @@ fun DownloadCard(
                                 verticalAlignment = Alignment.CenterVertically
                             ) {
                                 Text(
-                                    text = magnet.status,
+                                    text = magnet.magnet.status,
                                     style = MaterialTheme.typography.titleSmall,
                                     color = statusColor
                                 )
                                 Text(
-                                    text = "${magnet.seeders} seeders",
+                                    text = "${magnet.magnet.seeders} seeders",
                                     style = MaterialTheme.typography.labelSmall
                                 )
                             }
                             
                             Spacer(modifier = Modifier.height(8.dp))
                             
-                            // Calculate progress
-                            val progress = if (magnet.size > 0) magnet.downloaded.toFloat() / magnet.size.toFloat() else 0f
-                            val progressPercent = (progress * 100).toInt()
-                            
                             Row(
                                 modifier = Modifier.fillMaxWidth(),
                                 horizontalArrangement = Arrangement.SpaceBetween
                             ) {
                                 Text(
-                                    text = "$progressPercent%",
+                                    text = magnet.progressText,
                                     style = MaterialTheme.typography.bodyMedium
                                 )
                                 Text(
-                                    text = "${formatSize(magnet.downloadSpeed)}/s",
+                                    text = magnet.speedText,
                                     style = MaterialTheme.typography.bodyMedium,
                                     color = MaterialTheme.colorScheme.primary
                                 )
@@ -162,7 +164,7 @@ fun DownloadCard(
                             Spacer(modifier = Modifier.height(4.dp))
                             
                             LinearProgressIndicator(
-                                progress = { progress },
+                                progress = { magnet.progress },
                                 modifier = Modifier.fillMaxWidth().height(8.dp),
                                 trackColor = MaterialTheme.colorScheme.surfaceVariant,
                                 color = MaterialTheme.colorScheme.primary,
@@ -175,7 +177,7 @@ fun DownloadCard(
                                 horizontalArrangement = Arrangement.SpaceBetween
                             ) {
                                 Text(
-                                    text = "${formatSize(magnet.downloaded)} / ${formatSize(magnet.size)}",
+                                    text = magnet.transferredText,
                                     style = MaterialTheme.typography.labelSmall,
                                     color = MaterialTheme.colorScheme.onSurfaceVariant
                                 )
@@ -185,7 +187,7 @@ fun DownloadCard(
                     Spacer(modifier = Modifier.height(16.dp))
                 } else {
                     Text(
-                        text = "${formatSize(magnet.size)} • ${magnet.links.size} files",
+                        text = if (files != null) "${magnet.sizeText} • ${files.all.size} files" else magnet.sizeText,
                         style = MaterialTheme.typography.bodySmall,
                         color = MaterialTheme.colorScheme.onSurfaceVariant
                     )
@@ -195,13 +197,39 @@ fun DownloadCard(
                 HorizontalDivider()
                 Spacer(modifier = Modifier.height(16.dp))
                 
+                if (files == null && magnet.state == MagnetState.READY) {
+                    LinearProgressIndicator(modifier = Modifier.fillMaxWidth())
+                }
+                
                 // Media files
                 if (mediaLinks.isNotEmpty()) {
-                    Text(
-                        text = "Media Files (${mediaLinks.size})",
-                        style = MaterialTheme.typography.labelLarge,
-                        color = MaterialTheme.colorScheme.primary
-                    )
+                    Row(
+                        modifier = Modifier.fillMaxWidth(),
+                        horizontalArrangement = Arrangement.SpaceBetween,
+                        verticalAlignment = Alignment.CenterVertically
+                    ) {
+                        Text(
+                            text = "Media Files (${mediaLinks.size})",
+                            style = MaterialTheme.typography.labelLarge,
+                            color = MaterialTheme.colorScheme.primary
+                        )
+                        if (onQueueAll != null && mediaLinks.size > 1) {
+                            TextButton(
+                                onClick = {
+                                    onQueueAll(mediaLinks)
+                                    showBottomSheet = false
+                                }
+                            ) {
+                                Icon(
+                                    imageVector = Icons.AutoMirrored.Filled.PlaylistPlay,
+                                    contentDescription = null,
+                                    modifier = Modifier.size(16.dp)
+                                )
+                                Spacer(modifier = Modifier.width(4.dp))
+                                Text("Queue all")
+                            }
+                        }
+                    }
                     Spacer(modifier = Modifier.height(8.dp))
                     Column(verticalArrangement = Arrangement.spacedBy(4.dp)) {
                         mediaLinks.forEach { link ->
@@ -210,7 +238,8 @@ fun DownloadCard(
                                 onClick = { 
                                     onPlay(link.link, link.filename)
                                     showBottomSheet = false
-                                }
+                                },
+                                onDownload = onDownload?.let { { it(link) } }
                             )
                         }
                     }
@@ -254,7 +283,8 @@ fun DownloadCard(
                                     onLongPress = { 
                                         onCopyLink(link.link)
                                         // Don't close sheet - user can close manually
-                                    }
+                                    },
+                                    onDownload = onDownload?.let { { it(link) } }
                                 )
                             }
                         }
@@ -268,7 +298,7 @@ fun DownloadCard(
     Card(
         modifier = modifier
             .fillMaxWidth()
-            .clickable(enabled = magnet.links.isNotEmpty() || magnet.status != "Ready") { showBottomSheet = true },
+            .clickable(enabled = files == null || files.all.isNotEmpty() || magnet.state != MagnetState.READY) { showBottomSheet = true },
         colors = CardDefaults.cardColors(
             containerColor = MaterialTheme.colorScheme.surfaceVariant
         )
@@ -283,7 +313,7 @@ fun DownloadCard(
             ) {
                 Column(modifier = Modifier.weight(1f)) {
                     Text(
-                        text = magnet.filename,
+                        text = magnet.magnet.filename,
                         style = MaterialTheme.typography.bodyMedium,
                         maxLines = 1,
                         overflow = TextOverflow.Ellipsis
@@ -294,13 +324,13 @@ fun DownloadCard(
                         horizontalArrangement = Arrangement.spacedBy(6.dp)
                     ) {
                         Text(
-                            text = magnet.status,
+                            text = magnet.magnet.status,
                             style = MaterialTheme.typography.labelSmall,
                             color = statusColor
                         )
                         Text("•", style = MaterialTheme.typography.labelSmall)
                         Text(
-                            text = formatSize(magnet.size),
+                            text = magnet.sizeText,
                             style = MaterialTheme.typography.labelSmall
                         )
                         if (mediaLinks.isNotEmpty()) {
@@ -315,7 +345,7 @@ fun DownloadCard(
                 }
                 
                 Row {
-                    if (magnet.links.isNotEmpty()) {
+                    if (files == null || files.all.isNotEmpty()) {
                         Icon(
                             imageVector = Icons.Default.ExpandMore,
                             contentDescription = "View files",
@@ -338,10 +368,10 @@ fun DownloadCard(
             }
             
             // Progress bar for downloading
-            if (magnet.status == "Downloading" && magnet.downloaded > 0) {
+            if (magnet.state == MagnetState.DOWNLOADING && magnet.magnet.downloaded > 0) {
                 Spacer(modifier = Modifier.height(6.dp))
                 LinearProgressIndicator(
-                    progress = { (magnet.downloaded.toFloat() / magnet.size.toFloat()) },
+                    progress = { magnet.progress },
                     modifier = Modifier.fillMaxWidth().height(3.dp),
                     color = StatusDownloading
                 )
@@ -353,7 +383,8 @@ fun DownloadCard(
 @Composable
 private fun LinkItem(
     link: MagnetLink,
-    onClick: () -> Unit
+    onClick: () -> Unit,
+    onDownload: (() -> Unit)? = null
 ) {
     Row(
         modifier = Modifier
@@ -377,6 +408,9 @@ private fun LinkItem(
             overflow = TextOverflow.Ellipsis,
             color = MaterialTheme.colorScheme.onSurface
         )
+        if (onDownload != null) {
+            DownloadButton(onClick = onDownload)
+        }
         Icon(
             imageVector = Icons.Default.PlayArrow,
             contentDescription = "Play",
@@ -390,7 +424,8 @@ private fun LinkItem(
 @Composable
 private fun OtherFileItem(
     link: MagnetLink,
-    onLongPress: () -> Unit
+    onLongPress: () -> Unit,
+    onDownload: (() -> Unit)? = null
 ) {
     Row(
         modifier = Modifier
@@ -417,14 +452,23 @@ private fun OtherFileItem(
             overflow = TextOverflow.Ellipsis,
             color = MaterialTheme.colorScheme.onSurfaceVariant
         )
+        if (onDownload != null) {
+            DownloadButton(onClick = onDownload)
+        }
     }
 }
 
-private fun formatSize(bytes: Long): String {
-    return when {
-        bytes >= 1_000_000_000 -> String.format("%.2f GB", bytes / 1_000_000_000.0)
-        bytes >= 1_000_000 -> String.format("%.2f MB", bytes / 1_000_000.0)
-        bytes >= 1_000 -> String.format("%.2f KB", bytes / 1_000.0)
-        else -> "$bytes B"
+@Composable
+private fun DownloadButton(onClick: () -> Unit) {
+    IconButton(
+        onClick = onClick,
+        modifier = Modifier.size(28.dp)
+    ) {
+        Icon(
+            imageVector = Icons.Default.Download,
+            contentDescription = "Download to device",
+            modifier = Modifier.size(18.dp),
+            tint = MaterialTheme.colorScheme.onSurfaceVariant
+        )
     }
 }
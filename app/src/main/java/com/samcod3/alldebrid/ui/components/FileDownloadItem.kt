@@ -0,0 +1,125 @@
+package com.samcod3.alldebrid.ui.components
+
+import androidx.compose.foundation.layout.Column
+import androidx.compose.foundation.layout.Row
+import androidx.compose.foundation.layout.Spacer
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.height
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.layout.size
+import androidx.compose.material.icons.Icons
+import androidx.compose.material.icons.filled.Close
+import androidx.compose.material.icons.filled.Pause
+import androidx.compose.material.icons.filled.PlayArrow
+import androidx.compose.material3.Card
+import androidx.compose.material3.CardDefaults
+import androidx.compose.material3.Icon
+import androidx.compose.material3.IconButton
+import androidx.compose.material3.LinearProgressIndicator
+import androidx.compose.material3.MaterialTheme
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.text.style.TextOverflow
+import androidx.compose.ui.unit.dp
+import com.samcod3.alldebrid.data.download.FileDownload
+import com.samcod3.alldebrid.data.download.FileDownloadStatus
+import com.samcod3.alldebrid.ui.theme.StatusDownloading
+import com.samcod3.alldebrid.ui.theme.StatusError
+import com.samcod3.alldebrid.ui.theme.StatusReady
+
+/**
+ * One file being saved to the device, with pause/resume and remove actions.
+ */
+@Composable
+fun FileDownloadItem(
+    download: FileDownload,
+    onPause: () -> Unit,
+    onResume: () -> Unit,
+    onRemove: () -> Unit,
+    modifier: Modifier = Modifier
+) {
+    Card(
+        modifier = modifier.fillMaxWidth(),
+        colors = CardDefaults.cardColors(
+            containerColor = MaterialTheme.colorScheme.surfaceVariant
+        )
+    ) {
+        Column(modifier = Modifier.padding(horizontal = 12.dp, vertical = 8.dp)) {
+            Row(verticalAlignment = Alignment.CenterVertically) {
+                Column(modifier = Modifier.weight(1f)) {
+                    Text(
+                        text = download.fileName,
+                        style = MaterialTheme.typography.bodySmall,
+                        maxLines = 1,
+                        overflow = TextOverflow.Ellipsis
+                    )
+                    Text(
+                        text = statusLine(download),
+                        style = MaterialTheme.typography.labelSmall,
+                        color = when (download.status) {
+                            FileDownloadStatus.COMPLETED -> StatusReady
+                            FileDownloadStatus.FAILED -> StatusError
+                            else -> MaterialTheme.colorScheme.onSurfaceVariant
+                        },
+                        maxLines = 1,
+                        overflow = TextOverflow.Ellipsis
+                    )
+                }
+                when (download.status) {
+                    FileDownloadStatus.QUEUED, FileDownloadStatus.RUNNING -> {
+                        IconButton(onClick = onPause, modifier = Modifier.size(32.dp)) {
+                            Icon(Icons.Default.Pause, "Pause", modifier = Modifier.size(18.dp))
+                        }
+                    }
+                    FileDownloadStatus.PAUSED, FileDownloadStatus.FAILED -> {
+                        IconButton(onClick = onResume, modifier = Modifier.size(32.dp)) {
+                            Icon(Icons.Default.PlayArrow, "Resume", modifier = Modifier.size(18.dp))
+                        }
+                    }
+                    FileDownloadStatus.COMPLETED -> Unit
+                }
+                IconButton(onClick = onRemove, modifier = Modifier.size(32.dp)) {
+                    Icon(Icons.Default.Close, "Remove", modifier = Modifier.size(18.dp))
+                }
+            }
+            if (download.status != FileDownloadStatus.COMPLETED) {
+                Spacer(modifier = Modifier.height(4.dp))
+                LinearProgressIndicator(
+                    progress = { download.progress },
+                    modifier = Modifier.fillMaxWidth().height(3.dp),
+                    color = StatusDownloading
+                )
+            }
+        }
+    }
+}
+
+private fun statusLine(download: FileDownload): String {
+    val size = if (download.totalBytes > 0) {
+        "${formatBytes(download.downloadedBytes)} / ${formatBytes(download.totalBytes)}"
+    } else {
+        ""
+    }
+    return when (download.status) {
+        FileDownloadStatus.QUEUED -> "En cola"
+        FileDownloadStatus.RUNNING -> buildString {
+            append(size)
+            if (download.bytesPerSecond > 0) append(" • ${formatBytes(download.bytesPerSecond)}/s")
+            if (download.connections > 0) append(" • ${download.connections} conn")
+        }
+        FileDownloadStatus.PAUSED -> "Pausado • $size"
+        FileDownloadStatus.COMPLETED -> "Completado • ${formatBytes(download.totalBytes)}"
+        FileDownloadStatus.FAILED -> "Error: ${download.error ?: "unknown"}"
+    }
+}
+
+private fun formatBytes(bytes: Long): String {
+    return when {
+        bytes >= 1_000_000_000 -> String.format("%.2f GB", bytes / 1_000_000_000.0)
+        bytes >= 1_000_000 -> String.format("%.1f MB", bytes / 1_000_000.0)
+        bytes >= 1_000 -> String.format("%.0f KB", bytes / 1_000.0)
+        else -> "$bytes B"
+    }
+}
@@ -205,7 +205,11 @@ fun DevicesScreen(
                         contentPadding = PaddingValues(16.dp),
                         verticalArrangement = Arrangement.spacedBy(12.dp)
                     ) {
-                        items(uiState.devices) { device ->
+                        items(
+                            items = uiState.devices,
+                            key = { it.id },
+                            contentType = { "device" }
+                        ) { device ->
                             val isSelected = uiState.selectedDevice?.id == device.id ||
                                     (uiState.selectedDevice?.address == device.address && 
                                      uiState.selectedDevice?.port == device.port)
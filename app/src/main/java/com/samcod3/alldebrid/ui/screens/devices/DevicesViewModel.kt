@@ -5,6 +5,9 @@ import androidx.lifecycle.viewModelScope
 import com.samcod3.alldebrid.data.model.Device
 import com.samcod3.alldebrid.data.repository.DeviceRepository
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.collections.immutable.ImmutableList
+import kotlinx.collections.immutable.persistentListOf
+import kotlinx.collections.immutable.toImmutableList
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -16,7 +19,7 @@ import javax.inject.Inject
 data class DevicesUiState(
     val isDiscovering: Boolean = false,
     val isManualScanning: Boolean = false,
-    val devices: List<Device> = emptyList(),
+    val devices: ImmutableList<Device> = persistentListOf(),
     val selectedDevice: Device? = null,
     val error: String? = null
 )
@@ -39,7 +42,8 @@ class DevicesViewModel @Inject constructor(
                 deviceRepository.getDiscoveredDevices(),
                 deviceRepository.getSelectedDevice()
             ) { devices, selectedDevice ->
-                Pair(devices, selectedDevice)
+                // Ids key the list rows, so they must be unique
+                Pair(devices.distinctBy { it.id }.toImmutableList(), selectedDevice)
             }.collect { (devices, selectedDevice) ->
                 _uiState.update { 
                     it.copy(
@@ -1,8 +1,5 @@
 package com.samcod3.alldebrid.ui.screens.downloads
 
-import android.content.ClipData
-import android.content.ClipboardManager
-import android.content.Context
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.Box
@@ -17,7 +14,7 @@ import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.layout.size
 import androidx.compose.foundation.layout.width
 import androidx.compose.foundation.lazy.LazyColumn
-import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.lazy.rememberLazyListState
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Cast
 import androidx.compose.material.icons.filled.CastConnected
@@ -42,23 +39,35 @@ import androidx.compose.material3.RadioButton
 import androidx.compose.material3.Scaffold
 import androidx.compose.material3.Text
 import androidx.compose.material3.TextButton
-import androidx.compose.material3.TopAppBar
-import androidx.compose.material3.TopAppBarDefaults
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.collectAsState
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.setValue
+import androidx.compose.runtime.snapshotFlow
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.unit.dp
 import androidx.hilt.navigation.compose.hiltViewModel
+import androidx.paging.LoadState as PagingLoadState
+import androidx.paging.compose.collectAsLazyPagingItems
+import androidx.paging.compose.itemContentType
+import androidx.paging.compose.itemKey
 import com.samcod3.alldebrid.R
+import com.samcod3.alldebrid.data.model.DeviceType
+import com.samcod3.alldebrid.data.repository.MagnetState
 import com.samcod3.alldebrid.ui.components.DownloadCard
+import com.samcod3.alldebrid.ui.components.FileDownloadItem
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.distinctUntilChanged
 
+// Each section below collects only the flows it shows, so a message or a
+// device change doesn't recompose the magnet list
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
 fun DownloadsScreen(
@@ -66,15 +75,15 @@ fun DownloadsScreen(
     onNavigateToIpAuth: () -> Unit = {},
     onNavigateToDevices: () -> Unit = {}
 ) {
-    val uiState by viewModel.uiState.collectAsState()
+    val loadState by viewModel.loadState.collectAsState()
 
     // Show IP Authorization dialog when needed
-    if (uiState.requiresIpAuthorization) {
+    if (loadState.requiresIpAuthorization) {
         AlertDialog(
             onDismissRequest = { viewModel.clearIpAuthorizationFlag() },
             icon = { Icon(Icons.Default.Warning, null, tint = MaterialTheme.colorScheme.error) },
             title = { Text("IP Authorization Required") },
-            text = { 
+            text = {
                 Text("AllDebrid has detected a new IP address (VPN?). You need to authorize this IP to continue using the service.")
             },
             confirmButton = {
@@ -92,180 +101,17 @@ fun DownloadsScreen(
             }
         )
     }
-    
-    // Show Device Selection Required dialog
-    if (uiState.showNoDeviceDialog) {
-        AlertDialog(
-            onDismissRequest = { viewModel.dismissNoDeviceDialog() },
-            icon = { Icon(Icons.Default.Cast, null) },
-            title = { Text("No Device Selected") },
-            text = { 
-                Column {
-                    Text("Please select a device to cast media to.")
-                    if (uiState.discoveredDevices.isEmpty()) {
-                        Spacer(Modifier.height(8.dp))
-                        Text(
-                            "No devices found. Go to Devices tab to discover devices on your network.",
-                            style = MaterialTheme.typography.bodySmall,
-                            color = MaterialTheme.colorScheme.onSurfaceVariant
-                        )
-                    }
-                }
-            },
-            confirmButton = {
-                Button(onClick = {
-                    viewModel.dismissNoDeviceDialog()
-                    onNavigateToDevices()
-                }) {
-                    Text(if (uiState.discoveredDevices.isEmpty()) "Discover Devices" else "Select Device")
-                }
-            },
-            dismissButton = {
-                TextButton(onClick = { viewModel.dismissNoDeviceDialog() }) {
-                    Text("Cancel")
-                }
-            }
-        )
-    }
-    
-    // Show Kodi Queue Dialog
-    if (uiState.showKodiQueueDialog) {
-        AlertDialog(
-            onDismissRequest = { viewModel.dismissKodiQueueDialog() },
-            icon = { Icon(Icons.Default.PlayArrow, null) },
-            title = { Text("Kodi is Playing") },
-            text = { Text("Kodi is currently playing content. Do you want to play this now or add it to the queue?") },
-            confirmButton = {
-                Button(onClick = { viewModel.playNow() }) {
-                    Text("Play Now")
-                }
-            },
-            dismissButton = {
-                TextButton(onClick = { viewModel.addToQueue() }) {
-                    Text("Add to Queue")
-                }
-            }
-        )
-    }
-    
-    // Show DLNA Queue Dialog
-    if (uiState.showDlnaQueueDialog) {
-        AlertDialog(
-            onDismissRequest = { viewModel.dismissDlnaQueueDialog() },
-            icon = { Icon(Icons.Default.Cast, null) },
-            title = { Text("Queue has items") },
-            text = { 
-                Column {
-                    Text("You have ${uiState.dlnaQueue.size} video(s) in queue.")
-                    Spacer(Modifier.height(8.dp))
-                    Text("Do you want to play this now or add it to the queue?")
-                }
-            },
-            confirmButton = {
-                Button(onClick = { viewModel.playNow() }) {
-                    Text("Play Now")
-                }
-            },
-            dismissButton = {
-                TextButton(onClick = { viewModel.addToQueue() }) {
-                    Text("Add to Queue")
-                }
-            }
-        )
-    }
+
+    CastDialogs(viewModel = viewModel, onNavigateToDevices = onNavigateToDevices)
 
     // Device selector dialog
     var showDeviceSelector by remember { mutableStateOf(false) }
-    
+
     if (showDeviceSelector) {
-        AlertDialog(
-            onDismissRequest = { showDeviceSelector = false },
-            icon = { Icon(Icons.Default.Cast, null) },
-            title = { Text("Select Device") },
-            text = {
-                Column {
-                    if (uiState.discoveredDevices.isEmpty()) {
-                        Text("No devices found. Tap 'Discover' to scan.")
-                    } else {
-                        uiState.discoveredDevices.forEach { device ->
-                            Row(
-                                modifier = Modifier
-                                    .fillMaxWidth()
-                                    .clickable {
-                                        viewModel.selectDevice(device)
-                                        showDeviceSelector = false
-                                    }
-                                    .padding(vertical = 8.dp),
-                                verticalAlignment = Alignment.CenterVertically
-                            ) {
-                                RadioButton(
-                                    selected = uiState.selectedDevice?.id == device.id,
-                                    onClick = {
-                                        viewModel.selectDevice(device)
-                                        showDeviceSelector = false
-                                    }
-                                )
-                                Spacer(Modifier.width(8.dp))
-                                Column {
-                                    Text(device.displayName, style = MaterialTheme.typography.bodyMedium)
-                                    Text(
-                                        "${device.type.name} • ${device.address}",
-                                        style = MaterialTheme.typography.bodySmall,
-                                        color = MaterialTheme.colorScheme.onSurfaceVariant
-                                    )
-                                }
-                            }
-                        }
-                        
-                        // DLNA Queue info
-                        if (uiState.selectedDevice?.type == com.samcod3.alldebrid.data.model.DeviceType.DLNA && 
-                            uiState.dlnaQueue.isNotEmpty()) {
-                            Spacer(Modifier.height(12.dp))
-                            Row(
-                                modifier = Modifier.fillMaxWidth(),
-                                horizontalArrangement = Arrangement.SpaceBetween,
-                                verticalAlignment = Alignment.CenterVertically
-                            ) {
-                                Text(
-                                    "Queue: ${uiState.dlnaQueue.size} video(s)",
-                                    style = MaterialTheme.typography.labelMedium,
-                                    color = MaterialTheme.colorScheme.primary
-                                )
-                                Row {
-                                    TextButton(
-                                        onClick = { 
-                                            viewModel.playNextInDlnaQueue()
-                                            showDeviceSelector = false
-                                        }
-                                    ) {
-                                        Text("Play Next")
-                                    }
-                                    TextButton(
-                                        onClick = { viewModel.clearDlnaQueue() }
-                                    ) {
-                                        Text("Clear", color = MaterialTheme.colorScheme.error)
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            },
-            confirmButton = {
-                Button(onClick = {
-                    showDeviceSelector = false
-                    onNavigateToDevices()
-                }) {
-                    Icon(Icons.Default.Search, null, Modifier.size(18.dp))
-                    Spacer(Modifier.width(4.dp))
-                    Text("Discover")
-                }
-            },
-            dismissButton = {
-                TextButton(onClick = { showDeviceSelector = false }) {
-                    Text("Cancel")
-                }
-            }
+        DeviceSelectorDialog(
+            viewModel = viewModel,
+            onDismiss = { showDeviceSelector = false },
+            onNavigateToDevices = onNavigateToDevices
         )
     }
 
@@ -288,196 +134,486 @@ fun DownloadsScreen(
                 .fillMaxSize()
                 .padding(paddingValues)
         ) {
-            // Cast device row
-            Row(
-                modifier = Modifier
-                    .fillMaxWidth()
-                    .padding(horizontal = 16.dp, vertical = 4.dp),
-                horizontalArrangement = Arrangement.SpaceBetween,
-                verticalAlignment = Alignment.CenterVertically
-            ) {
-                // Show device name if selected
-                uiState.selectedDevice?.let { device ->
-                    Text(
-                        text = "📺 ${device.displayName}",
-                        style = MaterialTheme.typography.bodyMedium,
-                        color = MaterialTheme.colorScheme.primary
-                    )
-                } ?: Text(
-                    text = "No device",
-                    style = MaterialTheme.typography.bodyMedium,
-                    color = MaterialTheme.colorScheme.onSurfaceVariant
-                )
-                
-                // Cast icon with device selector
-                IconButton(
-                    onClick = { 
-                        if (uiState.discoveredDevices.isEmpty()) {
-                            onNavigateToDevices()
-                        } else {
-                            showDeviceSelector = true
-                        }
-                    }
-                ) {
-                    Icon(
-                        imageVector = if (uiState.selectedDevice != null) 
-                            Icons.Default.CastConnected else Icons.Default.Cast,
-                        contentDescription = "Cast",
-                        tint = if (uiState.selectedDevice != null)
-                            MaterialTheme.colorScheme.primary
-                        else
-                            MaterialTheme.colorScheme.onSurfaceVariant
-                    )
-                }
-            }
-            
+            CastDeviceRow(
+                viewModel = viewModel,
+                onOpenSelector = { showDeviceSelector = true },
+                onNavigateToDevices = onNavigateToDevices
+            )
+
+            FileDownloadsSection(viewModel = viewModel)
+
             // Content
             Box(modifier = Modifier.fillMaxSize()) {
             when {
-                uiState.isLoading -> {
+                loadState.isLoading -> {
                     CircularProgressIndicator(
                         modifier = Modifier.align(Alignment.Center)
                     )
                 }
-                uiState.error != null && 
-                !uiState.requiresIpAuthorization && 
-                !uiState.error!!.contains("No device selected") -> {
+                loadState.error != null && !loadState.requiresIpAuthorization -> {
                     Column(
                         modifier = Modifier.align(Alignment.Center),
                         horizontalAlignment = Alignment.CenterHorizontally,
                         verticalArrangement = Arrangement.spacedBy(8.dp)
                     ) {
                         Text(
-                            text = uiState.error ?: stringResource(R.string.error_network),
+                            text = loadState.error ?: stringResource(R.string.error_network),
                             color = MaterialTheme.colorScheme.error
                         )
                     }
                 }
-                uiState.magnets.isEmpty() -> {
-                    Text(
-                        text = stringResource(R.string.downloads_empty),
-                        modifier = Modifier.align(Alignment.Center),
-                        style = MaterialTheme.typography.bodyLarge
-                    )
-                }
-                else -> {
-                    // Filter states
-                    var searchFilter by remember { mutableStateOf("") }
-                    var statusFilter by remember { mutableStateOf("ready") } // Default to ready (Disponibles)
-                    
-                    // Apply filters
-                    val filteredMagnets = uiState.magnets.filter { magnet ->
-                        val matchesSearch = searchFilter.isBlank() || magnet.filename.contains(searchFilter, ignoreCase = true)
-                        val matchesStatus = when (statusFilter) {
-                            "downloading" -> magnet.status != "Ready"
-                            "ready" -> magnet.status == "Ready"
-                            else -> true
+                else -> MagnetList(viewModel = viewModel)
+            }
+            }
+
+            MessageToast(viewModel = viewModel)
+        }
+    }
+}
+
+@Composable
+private fun CastDialogs(
+    viewModel: DownloadsViewModel,
+    onNavigateToDevices: () -> Unit
+) {
+    val dialog by viewModel.dialog.collectAsState()
+
+    when (dialog) {
+        // Show Device Selection Required dialog
+        CastDialog.NoDevice -> {
+            val devices by viewModel.devices.collectAsState()
+            AlertDialog(
+                onDismissRequest = { viewModel.dismissDialog() },
+                icon = { Icon(Icons.Default.Cast, null) },
+                title = { Text("No Device Selected") },
+                text = {
+                    Column {
+                        Text("Please select a device to cast media to.")
+                        if (devices.discovered.isEmpty()) {
+                            Spacer(Modifier.height(8.dp))
+                            Text(
+                                "No devices found. Go to Devices tab to discover devices on your network.",
+                                style = MaterialTheme.typography.bodySmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant
+                            )
                         }
-                        matchesSearch && matchesStatus
                     }
-                    
-                    // Count for chips
-                    val downloadingCount = uiState.magnets.count { it.status != "Ready" }
-                    val readyCount = uiState.magnets.count { it.status == "Ready" }
-                    
+                },
+                confirmButton = {
+                    Button(onClick = {
+                        viewModel.dismissDialog()
+                        onNavigateToDevices()
+                    }) {
+                        Text(if (devices.discovered.isEmpty()) "Discover Devices" else "Select Device")
+                    }
+                },
+                dismissButton = {
+                    TextButton(onClick = { viewModel.dismissDialog() }) {
+                        Text("Cancel")
+                    }
+                }
+            )
+        }
+        // Show Kodi Queue Dialog
+        is CastDialog.KodiPlaying -> {
+            AlertDialog(
+                onDismissRequest = { viewModel.dismissDialog() },
+                icon = { Icon(Icons.Default.PlayArrow, null) },
+                title = { Text("Kodi is Playing") },
+                text = { Text("Kodi is currently playing content. Do you want to play this now or add it to the queue?") },
+                confirmButton = {
+                    Button(onClick = { viewModel.playNow() }) {
+                        Text("Play Now")
+                    }
+                },
+                dismissButton = {
+                    TextButton(onClick = { viewModel.addToQueue() }) {
+                        Text("Add to Queue")
+                    }
+                }
+            )
+        }
+        // Show DLNA Queue Dialog
+        is CastDialog.DlnaQueued -> {
+            val queue by viewModel.dlnaQueue.collectAsState()
+            AlertDialog(
+                onDismissRequest = { viewModel.dismissDialog() },
+                icon = { Icon(Icons.Default.Cast, null) },
+                title = { Text("Queue has items") },
+                text = {
                     Column {
-                        // Search filter
-                        OutlinedTextField(
-                            value = searchFilter,
-                            onValueChange = { searchFilter = it },
-                            placeholder = { Text("Filtrar por nombre...") },
-                            modifier = Modifier
-                                .fillMaxWidth()
-                                .padding(horizontal = 16.dp, vertical = 4.dp),
-                            singleLine = true,
-                            trailingIcon = {
-                                if (searchFilter.isNotBlank()) {
-                                    IconButton(onClick = { searchFilter = "" }) {
-                                        Icon(Icons.Default.Close, "Clear")
-                                    }
-                                }
-                            }
-                        )
-                        
-                        // Status filter chips
+                        Text("You have ${queue.size} video(s) in queue.")
+                        Spacer(Modifier.height(8.dp))
+                        Text("Do you want to play this now or add it to the queue?")
+                    }
+                },
+                confirmButton = {
+                    Button(onClick = { viewModel.playNow() }) {
+                        Text("Play Now")
+                    }
+                },
+                dismissButton = {
+                    TextButton(onClick = { viewModel.addToQueue() }) {
+                        Text("Add to Queue")
+                    }
+                }
+            )
+        }
+        null -> Unit
+    }
+}
+
+@Composable
+private fun DeviceSelectorDialog(
+    viewModel: DownloadsViewModel,
+    onDismiss: () -> Unit,
+    onNavigateToDevices: () -> Unit
+) {
+    val devices by viewModel.devices.collectAsState()
+    val queue by viewModel.dlnaQueue.collectAsState()
+
+    AlertDialog(
+        onDismissRequest = onDismiss,
+        icon = { Icon(Icons.Default.Cast, null) },
+        title = { Text("Select Device") },
+        text = {
+            Column {
+                if (devices.discovered.isEmpty()) {
+                    Text("No devices found. Tap 'Discover' to scan.")
+                } else {
+                    devices.discovered.forEach { device ->
                         Row(
                             modifier = Modifier
                                 .fillMaxWidth()
-                                .padding(horizontal = 16.dp, vertical = 4.dp),
-                            horizontalArrangement = Arrangement.spacedBy(8.dp)
+                                .clickable {
+                                    viewModel.selectDevice(device)
+                                    onDismiss()
+                                }
+                                .padding(vertical = 8.dp),
+                            verticalAlignment = Alignment.CenterVertically
                         ) {
-                            FilterChip(
-                                selected = statusFilter == "ready",
-                                onClick = { statusFilter = "ready" },
-                                label = { Text("✅ ($readyCount)") }
-                            )
-                            FilterChip(
-                                selected = statusFilter == "downloading",
-                                onClick = { statusFilter = "downloading" },
-                                label = { Text("📥 ($downloadingCount)") }
-                            )
-                            FilterChip(
-                                selected = statusFilter == "all",
-                                onClick = { statusFilter = "all" },
-                                label = { Text("Todos (${uiState.magnets.size})") }
+                            RadioButton(
+                                selected = devices.selected?.id == device.id,
+                                onClick = {
+                                    viewModel.selectDevice(device)
+                                    onDismiss()
+                                }
                             )
-                        }
-                        
-                        LazyColumn(
-                            contentPadding = PaddingValues(16.dp),
-                            verticalArrangement = Arrangement.spacedBy(12.dp)
-                        ) {
-                            items(filteredMagnets) { magnet ->
-                                val context = LocalContext.current
-                                DownloadCard(
-                                    magnet = magnet,
-                                    onDelete = { viewModel.deleteMagnet(magnet.id) },
-                                    onCopyLink = { link ->
-                                        viewModel.copyLinkToClipboard(context, link)
-                                    },
-                                    onPlay = { link, title -> viewModel.playLink(link, title) },
-                                    refreshCallback = { viewModel.refreshSilent() }
+                            Spacer(Modifier.width(8.dp))
+                            Column {
+                                Text(device.displayName, style = MaterialTheme.typography.bodyMedium)
+                                Text(
+                                    "${device.type.name} • ${device.address}",
+                                    style = MaterialTheme.typography.bodySmall,
+                                    color = MaterialTheme.colorScheme.onSurfaceVariant
                                 )
                             }
-                            
-                            // No results message
-                            if (filteredMagnets.isEmpty()) {
-                                item {
-                                    Text(
-                                        text = if (searchFilter.isNotBlank()) 
-                                            "No se encontraron resultados para \"$searchFilter\""
-                                        else 
-                                            "No hay elementos en esta categoría",
-                                        style = MaterialTheme.typography.bodyMedium,
-                                        color = MaterialTheme.colorScheme.onSurfaceVariant,
-                                        modifier = Modifier.padding(16.dp)
-                                    )
+                        }
+                    }
+
+                    // DLNA Queue info
+                    if (devices.selected?.type == DeviceType.DLNA && queue.isNotEmpty()) {
+                        Spacer(Modifier.height(12.dp))
+                        Row(
+                            modifier = Modifier.fillMaxWidth(),
+                            horizontalArrangement = Arrangement.SpaceBetween,
+                            verticalAlignment = Alignment.CenterVertically
+                        ) {
+                            Text(
+                                "Queue: ${queue.size} video(s)",
+                                style = MaterialTheme.typography.labelMedium,
+                                color = MaterialTheme.colorScheme.primary
+                            )
+                            Row {
+                                TextButton(
+                                    onClick = {
+                                        viewModel.playNextInDlnaQueue()
+                                        onDismiss()
+                                    }
+                                ) {
+                                    Text("Play Next")
+                                }
+                                TextButton(
+                                    onClick = { viewModel.clearDlnaQueue() }
+                                ) {
+                                    Text("Clear", color = MaterialTheme.colorScheme.error)
                                 }
                             }
                         }
                     }
                 }
             }
+        },
+        confirmButton = {
+            Button(onClick = {
+                onDismiss()
+                onNavigateToDevices()
+            }) {
+                Icon(Icons.Default.Search, null, Modifier.size(18.dp))
+                Spacer(Modifier.width(4.dp))
+                Text("Discover")
+            }
+        },
+        dismissButton = {
+            TextButton(onClick = onDismiss) {
+                Text("Cancel")
             }
-            
-            // Casting Overlay/Toast
-            uiState.castingMessage?.let { message ->
-                Card(
-                    modifier = Modifier
-                        .padding(16.dp)
-                        .fillMaxWidth(),
-                    colors = CardDefaults.cardColors(
-                        containerColor = MaterialTheme.colorScheme.inverseSurface
+        }
+    )
+}
+
+@Composable
+private fun CastDeviceRow(
+    viewModel: DownloadsViewModel,
+    onOpenSelector: () -> Unit,
+    onNavigateToDevices: () -> Unit
+) {
+    val devices by viewModel.devices.collectAsState()
+
+    Row(
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(horizontal = 16.dp, vertical = 4.dp),
+        horizontalArrangement = Arrangement.SpaceBetween,
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        // Show device name if selected
+        devices.selected?.let { device ->
+            Text(
+                text = "📺 ${device.displayName}",
+                style = MaterialTheme.typography.bodyMedium,
+                color = MaterialTheme.colorScheme.primary
+            )
+        } ?: Text(
+            text = "No device",
+            style = MaterialTheme.typography.bodyMedium,
+            color = MaterialTheme.colorScheme.onSurfaceVariant
+        )
+
+        // Cast icon with device selector
+        IconButton(
+            onClick = {
+                if (devices.discovered.isEmpty()) {
+                    onNavigateToDevices()
+                } else {
+                    onOpenSelector()
+                }
+            }
+        ) {
+            Icon(
+                imageVector = if (devices.selected != null)
+                    Icons.Default.CastConnected else Icons.Default.Cast,
+                contentDescription = "Cast",
+                tint = if (devices.selected != null)
+                    MaterialTheme.colorScheme.primary
+                else
+                    MaterialTheme.colorScheme.onSurfaceVariant
+            )
+        }
+    }
+}
+
+// Files being saved to this device
+@Composable
+private fun FileDownloadsSection(viewModel: DownloadsViewModel) {
+    val fileDownloads by viewModel.fileDownloads.collectAsState()
+
+    if (fileDownloads.isNotEmpty()) {
+        Column(
+            modifier = Modifier.padding(horizontal = 16.dp, vertical = 4.dp),
+            verticalArrangement = Arrangement.spacedBy(4.dp)
+        ) {
+            fileDownloads.forEach { download ->
+                FileDownloadItem(
+                    download = download,
+                    onPause = { viewModel.pauseFileDownload(download.id) },
+                    onResume = { viewModel.resumeFileDownload(download.id) },
+                    onRemove = { viewModel.removeFileDownload(download.id) }
+                )
+            }
+        }
+    }
+}
+
+@Composable
+private fun MagnetList(viewModel: DownloadsViewModel) {
+    val magnets = viewModel.magnets.collectAsLazyPagingItems()
+    val counts by viewModel.counts.collectAsState()
+    val statusFilter by viewModel.statusFilter.collectAsState()
+    val magnetFiles by viewModel.magnetFiles.collectAsState()
+
+    if (counts.totalCount == 0) {
+        Box(modifier = Modifier.fillMaxSize()) {
+            Text(
+                text = stringResource(R.string.downloads_empty),
+                modifier = Modifier.align(Alignment.Center),
+                style = MaterialTheme.typography.bodyLarge
+            )
+        }
+        return
+    }
+
+    Column {
+        SearchField(viewModel = viewModel)
+
+        // Status filter chips
+        Row(
+            modifier = Modifier
+                .fillMaxWidth()
+                .padding(horizontal = 16.dp, vertical = 4.dp),
+            horizontalArrangement = Arrangement.spacedBy(8.dp)
+        ) {
+            FilterChip(
+                selected = statusFilter == MagnetListFilter.READY,
+                onClick = { viewModel.setStatusFilter(MagnetListFilter.READY) },
+                label = { Text("✅ (${counts.readyCount})") }
+            )
+            FilterChip(
+                selected = statusFilter == MagnetListFilter.DOWNLOADING,
+                onClick = { viewModel.setStatusFilter(MagnetListFilter.DOWNLOADING) },
+                label = { Text("📥 (${counts.downloadingCount})") }
+            )
+            FilterChip(
+                selected = statusFilter == MagnetListFilter.ALL,
+                onClick = { viewModel.setStatusFilter(MagnetListFilter.ALL) },
+                label = { Text("Todos (${counts.totalCount})") }
+            )
+        }
+
+        // File lists of ready magnets in view are fetched in one batch
+        // once scrolling settles
+        val lazyListState = rememberLazyListState()
+        LaunchedEffect(lazyListState, magnets) {
+            snapshotFlow { lazyListState.layoutInfo.visibleItemsInfo.map { it.index } }
+                .distinctUntilChanged()
+                .collectLatest { indices ->
+                    delay(300)
+                    viewModel.prefetchFiles(
+                        // peek() reads loaded rows without triggering page loads
+                        indices.filter { it < magnets.itemCount }
+                            .mapNotNull { magnets.peek(it) }
+                            .filter { it.state == MagnetState.READY }
+                            .map { it.id }
                     )
-                ) {
+                }
+        }
+
+        LazyColumn(
+            state = lazyListState,
+            contentPadding = PaddingValues(16.dp),
+            verticalArrangement = Arrangement.spacedBy(12.dp)
+        ) {
+            // Keyed by id so a refresh only recomposes the rows that changed
+            // and the scroll position stays anchored to the same magnet.
+            // Rows come from the database a page at a time; rows not loaded
+            // yet are placeholders that keep the scrollbar honest
+            items(
+                count = magnets.itemCount,
+                key = magnets.itemKey { it.id },
+                contentType = magnets.itemContentType { "magnet" }
+            ) { index ->
+                val magnet = magnets[index]
+                if (magnet == null) {
+                    Spacer(Modifier.fillMaxWidth().height(64.dp))
+                    return@items
+                }
+                val context = LocalContext.current
+                DownloadCard(
+                    magnet = magnet,
+                    files = magnetFiles[magnet.id],
+                    onLoadFiles = { viewModel.loadFiles(magnet.id) },
+                    onDelete = { viewModel.deleteMagnet(magnet.id) },
+                    onCopyLink = { link ->
+                        viewModel.copyLinkToClipboard(context, link)
+                    },
+                    onPlay = { link, title -> viewModel.playLink(link, title) },
+                    onQueueAll = { links ->
+                        viewModel.queueAll(links.map { it.link to it.filename })
+                    },
+                    onDownload = { link ->
+                        viewModel.downloadFile(link.link, link.filename)
+                    },
+                    refreshCallback = { viewModel.refreshMagnet(magnet.id) }
+                )
+            }
+
+            // No results message
+            if (magnets.itemCount == 0 && magnets.loadState.refresh is PagingLoadState.NotLoading) {
+                item(key = "empty", contentType = "empty") {
+                    val searchQuery by viewModel.searchQuery.collectAsState()
                     Text(
-                        text = message,
-                        color = MaterialTheme.colorScheme.inverseOnSurface,
-                        modifier = Modifier.padding(16.dp),
-                        style = MaterialTheme.typography.bodyMedium
+                        text = if (searchQuery.isNotBlank())
+                            "No se encontraron resultados para \"$searchQuery\""
+                        else
+                            "No hay elementos en esta categoría",
+                        style = MaterialTheme.typography.bodyMedium,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant,
+                        modifier = Modifier.padding(16.dp)
                     )
                 }
             }
         }
     }
 }
+
+// Reads the query on its own so typing only recomposes the field
+@Composable
+private fun SearchField(viewModel: DownloadsViewModel) {
+    val searchQuery by viewModel.searchQuery.collectAsState()
+
+    OutlinedTextField(
+        value = searchQuery,
+        onValueChange = viewModel::setSearchQuery,
+        placeholder = { Text("Filtrar por nombre...") },
+        modifier = Modifier
+            .fillMaxWidth()
+            .padding(horizontal = 16.dp, vertical = 4.dp),
+        singleLine = true,
+        trailingIcon = {
+            if (searchQuery.isNotBlank()) {
+                IconButton(onClick = { viewModel.setSearchQuery("") }) {
+                    Icon(Icons.Default.Close, "Clear")
+                }
+            }
+        }
+    )
+}
+
+// Casting Overlay/Toast
+@Composable
+private fun MessageToast(viewModel: DownloadsViewModel) {
+    var message by remember { mutableStateOf<DownloadsMessage?>(null) }
+
+    LaunchedEffect(viewModel) {
+        viewModel.messages.collectLatest { next ->
+            message = next
+            // Progress normally gets replaced by the step's outcome well before this
+            delay(if (next is DownloadsMessage.Progress) 15_000 else 3_000)
+            message = null
+        }
+    }
+
+    message?.let { current ->
+        Card(
+            modifier = Modifier
+                .padding(16.dp)
+                .fillMaxWidth(),
+            colors = CardDefaults.cardColors(
+                containerColor = if (current is DownloadsMessage.Error)
+                    MaterialTheme.colorScheme.errorContainer
+                else
+                    MaterialTheme.colorScheme.inverseSurface
+            )
+        ) {
+            Text(
+                text = current.text,
+                color = if (current is DownloadsMessage.Error)
+                    MaterialTheme.colorScheme.onErrorContainer
+                else
+                    MaterialTheme.colorScheme.inverseOnSurface,
+                modifier = Modifier.padding(16.dp),
+                style = MaterialTheme.typography.bodyMedium
+            )
+        }
+    }
+}
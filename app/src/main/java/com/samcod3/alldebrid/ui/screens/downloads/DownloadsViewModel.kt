@@ -3,128 +3,300 @@ package com.samcod3.alldebrid.ui.screens.downloads
 import android.content.ClipData
 import android.content.ClipboardManager
 import android.content.Context
-import android.net.Uri
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import com.samcod3.alldebrid.data.download.FileDownload
+import com.samcod3.alldebrid.data.download.SegmentedDownloader
 import com.samcod3.alldebrid.data.model.Device
-import com.samcod3.alldebrid.data.model.Magnet
 import com.samcod3.alldebrid.data.repository.AllDebridRepository
 import com.samcod3.alldebrid.data.repository.DeviceRepository
 import com.samcod3.alldebrid.data.repository.IpAuthorizationRequiredException
+import com.samcod3.alldebrid.data.repository.MagnetFilesPresentation
+import com.samcod3.alldebrid.data.repository.MagnetPresentation
+import com.samcod3.alldebrid.data.repository.MagnetStatusFilter
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.collections.immutable.ImmutableList
+import kotlinx.collections.immutable.ImmutableMap
+import kotlinx.collections.immutable.persistentListOf
+import kotlinx.collections.immutable.persistentMapOf
+import kotlinx.collections.immutable.toImmutableList
+import kotlinx.collections.immutable.toImmutableMap
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.delay
-import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import com.samcod3.alldebrid.data.repository.DlnaQueueItem
 import javax.inject.Inject
 
-data class DownloadsUiState(
+/**
+ * Filter chips of the downloads list and the server-side subsets behind them.
+ */
+enum class MagnetListFilter(val subsets: Set<MagnetStatusFilter>) {
+    READY(setOf(MagnetStatusFilter.READY)),
+    DOWNLOADING(setOf(MagnetStatusFilter.ACTIVE, MagnetStatusFilter.EXPIRED, MagnetStatusFilter.ERROR)),
+    ALL(MagnetStatusFilter.entries.toSet())
+}
+
+/**
+ * Stored magnets behind each chip.
+ */
+data class MagnetCounts(
+    val readyCount: Int = 0,
+    val downloadingCount: Int = 0,
+    val totalCount: Int = 0
+)
+
+/**
+ * Outcome of the last full list load.
+ */
+data class LoadState(
     val isLoading: Boolean = false,
-    val magnets: List<Magnet> = emptyList(),
     val error: String? = null,
-    val requiresIpAuthorization: Boolean = false,
-    val selectedDevice: Device? = null,
-    val discoveredDevices: List<Device> = emptyList(),
-    val castingMessage: String? = null,
-    val showKodiQueueDialog: Boolean = false,
-    val showDlnaQueueDialog: Boolean = false,
-    val showNoDeviceDialog: Boolean = false,
-    val pendingCastLink: String? = null,
-    val pendingCastTitle: String? = null,
-    val dlnaQueue: List<DlnaQueueItem> = emptyList()
+    val requiresIpAuthorization: Boolean = false
 )
 
+data class CastDevices(
+    val selected: Device? = null,
+    val discovered: ImmutableList<Device> = persistentListOf()
+)
+
+/**
+ * Dialog asking how to cast a link; at most one is shown.
+ */
+sealed interface CastDialog {
+    data object NoDevice : CastDialog
+    data class KodiPlaying(val link: String, val title: String) : CastDialog
+    data class DlnaQueued(val link: String, val title: String) : CastDialog
+}
+
+/**
+ * Transient feedback shown over the list. [Progress] is normally replaced by
+ * the outcome of the step it describes; the others are dismissed after a few
+ * seconds.
+ */
+sealed interface DownloadsMessage {
+    val text: String
+
+    data class Progress(override val text: String) : DownloadsMessage
+    data class Info(override val text: String) : DownloadsMessage
+    data class Error(override val text: String) : DownloadsMessage
+}
+
+/**
+ * Each part of the screen has its own flow, so a message, a queue change or
+ * a device change only recomposes the part that shows it.
+ */
 @HiltViewModel
 class DownloadsViewModel @Inject constructor(
     private val repository: AllDebridRepository,
-    private val deviceRepository: DeviceRepository
+    private val deviceRepository: DeviceRepository,
+    private val downloader: SegmentedDownloader
 ) : ViewModel() {
 
-    private val _uiState = MutableStateFlow(DownloadsUiState())
-    val uiState: StateFlow<DownloadsUiState> = _uiState.asStateFlow()
-    
-    private var messageClearJob: Job? = null
+    companion object {
+        private const val UNLOCK_CONCURRENCY = 4
+        private const val SEARCH_DEBOUNCE_MS = 150L
+    }
+
+    private val _statusFilter = MutableStateFlow(MagnetListFilter.READY)
+    val statusFilter: StateFlow<MagnetListFilter> = _statusFilter.asStateFlow()
+
+    // The field shows this at once; the list follows once typing pauses
+    private val _searchQuery = MutableStateFlow("")
+    val searchQuery: StateFlow<String> = _searchQuery.asStateFlow()
+
+    /**
+     * Magnets matching the chip and the search query, paged from the local
+     * database. Typing is debounced (clearing the field is not); a new chip
+     * or query starts a new pager, and the pages survive recomposition and
+     * configuration changes.
+     */
+    @OptIn(FlowPreview::class, ExperimentalCoroutinesApi::class)
+    val magnets: Flow<PagingData<MagnetPresentation>> = combine(
+        _statusFilter,
+        _searchQuery.debounce { if (it.isEmpty()) 0L else SEARCH_DEBOUNCE_MS },
+        ::Pair
+    )
+        .distinctUntilChanged()
+        .flatMapLatest { (filter, query) -> repository.pagedMagnets(filter.subsets, query) }
+        .cachedIn(viewModelScope)
+
+    val counts: StateFlow<MagnetCounts> = repository.magnetCounts
+        .map { bySubset ->
+            MagnetCounts(
+                readyCount = MagnetListFilter.READY.subsets.sumOf { bySubset[it] ?: 0 },
+                downloadingCount = MagnetListFilter.DOWNLOADING.subsets.sumOf { bySubset[it] ?: 0 },
+                totalCount = bySubset.values.sum()
+            )
+        }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, MagnetCounts())
+
+    private val _loadState = MutableStateFlow(LoadState())
+    val loadState: StateFlow<LoadState> = _loadState.asStateFlow()
+
+    /**
+     * File lists loaded so far, by magnet id.
+     */
+    val magnetFiles: StateFlow<ImmutableMap<Long, MagnetFilesPresentation>> = repository.magnetFiles
+        .map { it.toImmutableMap() }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, persistentMapOf())
+
+    val devices: StateFlow<CastDevices> = combine(
+        deviceRepository.getSelectedDevice(),
+        deviceRepository.getDiscoveredDevices()
+    ) { selected, discovered ->
+        CastDevices(selected, discovered.toImmutableList())
+    }.stateIn(viewModelScope, SharingStarted.Eagerly, CastDevices())
+
+    val dlnaQueue: StateFlow<ImmutableList<DlnaQueueItem>> = deviceRepository.dlnaQueue.queue
+        .map { it.toImmutableList() }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, persistentListOf())
+
+    val fileDownloads: StateFlow<ImmutableList<FileDownload>> = downloader.downloads
+        .map { it.toImmutableList() }
+        .stateIn(viewModelScope, SharingStarted.Eagerly, persistentListOf())
+
+    private val _dialog = MutableStateFlow<CastDialog?>(null)
+    val dialog: StateFlow<CastDialog?> = _dialog.asStateFlow()
+
+    // Only the latest message matters, so an unread one is simply replaced
+    private val _messages = Channel<DownloadsMessage>(Channel.CONFLATED)
+    val messages: Flow<DownloadsMessage> = _messages.receiveAsFlow()
 
     init {
-        observeSelectedDevice()
-        observeDiscoveredDevices()
-        observeDlnaQueue()
-        refresh()
+        observeDlnaAutoAdvance()
+        refreshStale()
+    }
+
+    private fun show(message: DownloadsMessage) {
+        _messages.trySend(message)
     }
-    
-    private fun observeSelectedDevice() {
+
+    /**
+     * Load the file list of a magnet whose sheet was opened.
+     */
+    fun loadFiles(id: Long) {
         viewModelScope.launch {
-            deviceRepository.getSelectedDevice().collect { device ->
-                _uiState.update { it.copy(selectedDevice = device) }
-            }
+            repository.loadMagnetFiles(listOf(id))
+                .onFailure { error ->
+                    show(DownloadsMessage.Error("Could not load files: ${error.message}"))
+                }
         }
     }
-    
-    private fun observeDiscoveredDevices() {
+
+    /**
+     * Load the file lists of magnets scrolled into view, in one batch.
+     */
+    fun prefetchFiles(ids: List<Long>) {
+        val missing = ids.filterNot { it in magnetFiles.value }
+        if (missing.isEmpty()) return
         viewModelScope.launch {
-            deviceRepository.getDiscoveredDevices().collect { devices ->
-                _uiState.update { it.copy(discoveredDevices = devices) }
-            }
+            repository.loadMagnetFiles(missing)
+        }
+    }
+
+    /**
+     * Switch chips. The list is re-queried from what is stored, then the
+     * chip's subsets are fetched if they are stale.
+     */
+    fun setStatusFilter(filter: MagnetListFilter) {
+        _statusFilter.value = filter
+        viewModelScope.launch {
+            repository.refreshMagnets(filter.subsets)
         }
     }
-    
-    private fun observeDlnaQueue() {
+
+    fun setSearchQuery(query: String) {
+        _searchQuery.value = query
+    }
+
+    private fun observeDlnaAutoAdvance() {
         viewModelScope.launch {
-            deviceRepository.dlnaQueue.queue.collect { queue ->
-                _uiState.update { it.copy(dlnaQueue = queue) }
+            deviceRepository.dlnaAutoAdvanced.collect { item ->
+                show(DownloadsMessage.Info("Now playing: ${item.title}"))
             }
         }
     }
-    
+
     fun selectDevice(device: Device) {
         viewModelScope.launch {
             deviceRepository.setSelectedDevice(device)
         }
     }
 
+    /**
+     * Full reload of the account, for the refresh button.
+     */
     fun refresh() {
         viewModelScope.launch {
-            _uiState.update { it.copy(isLoading = true, error = null, requiresIpAuthorization = false) }
+            _loadState.value = LoadState(isLoading = true)
             repository.getMagnets()
-                .onSuccess { magnets ->
-                    _uiState.update { it.copy(isLoading = false, magnets = magnets) }
+                .onSuccess {
+                    // The list itself arrives through magnets
+                    _loadState.update { it.copy(isLoading = false) }
                 }
                 .onFailure { error ->
                     handleError(error)
                 }
         }
     }
-    
-    fun refreshSilent() {
+
+    /**
+     * Fetch only the current chip's subsets that are stale; the stored list
+     * shows meanwhile. Used on start and after a delete.
+     */
+    private fun refreshStale() {
         viewModelScope.launch {
-            // Don't set isLoading = true
-            repository.getMagnets()
-                .onSuccess { magnets ->
-                    _uiState.update { it.copy(magnets = magnets) }
-                }
-                .onFailure { error ->
-                    // Silently ignore or log error
-                    // handleError(error) 
-                }
+            _loadState.value = LoadState(isLoading = true)
+            repository.refreshMagnets(_statusFilter.value.subsets)
+                .onSuccess { _loadState.update { it.copy(isLoading = false) } }
+                .onFailure { error -> handleError(error) }
+        }
+    }
+
+    /**
+     * Poll one magnet's progress (its sheet is open); only its entry changes.
+     */
+    fun refreshMagnet(id: Long) {
+        viewModelScope.launch {
+            // Errors are ignored until the next poll
+            repository.refreshMagnet(id)
         }
     }
 
     fun deleteMagnet(id: Long) {
         viewModelScope.launch {
+            // The repository already dropped the row
             repository.deleteMagnet(id)
-                .onSuccess { refresh() }
+                .onSuccess { refreshStale() }
                 .onFailure { error ->
-                    handleError(error)
+                    reportError(error)
                 }
         }
     }
 
     fun playLink(link: String, title: String = "Video") {
-        val device = _uiState.value.selectedDevice
+        val device = devices.value.selected
         if (device != null) {
             // Check if it's Kodi and if something is playing
             if (device.type == com.samcod3.alldebrid.data.model.DeviceType.KODI) {
@@ -133,13 +305,7 @@ class DownloadsViewModel @Inject constructor(
                         .onSuccess { isPlaying ->
                             if (isPlaying) {
                                 // Show dialog: Play now or add to queue?
-                                _uiState.update { 
-                                    it.copy(
-                                        showKodiQueueDialog = true,
-                                        pendingCastLink = link,
-                                        pendingCastTitle = title
-                                    ) 
-                                }
+                                _dialog.value = CastDialog.KodiPlaying(link, title)
                             } else {
                                 // Not playing, just cast
                                 castLink(link, device, addToQueue = false, title = title)
@@ -153,13 +319,7 @@ class DownloadsViewModel @Inject constructor(
             } else if (device.type == com.samcod3.alldebrid.data.model.DeviceType.DLNA) {
                 // DLNA: Check if queue has items - offer to add to queue
                 if (deviceRepository.dlnaQueue.queueSize() > 0) {
-                    _uiState.update {
-                        it.copy(
-                            showDlnaQueueDialog = true,
-                            pendingCastLink = link,
-                            pendingCastTitle = title
-                        )
-                    }
+                    _dialog.value = CastDialog.DlnaQueued(link, title)
                 } else {
                     // Queue is empty, play directly
                     castLink(link, device, addToQueue = false, title = title)
@@ -167,157 +327,235 @@ class DownloadsViewModel @Inject constructor(
             }
         } else {
             // No device selected - show dialog to help user
-            _uiState.update { it.copy(showNoDeviceDialog = true, pendingCastLink = link, pendingCastTitle = title) }
+            _dialog.value = CastDialog.NoDevice
         }
     }
-    
-    fun dismissNoDeviceDialog() {
-        _uiState.update { it.copy(showNoDeviceDialog = false) }
-    }
-    
-    fun dismissKodiQueueDialog() {
-        _uiState.update { it.copy(showKodiQueueDialog = false, pendingCastLink = null, pendingCastTitle = null) }
-    }
-    
-    fun dismissDlnaQueueDialog() {
-        _uiState.update { it.copy(showDlnaQueueDialog = false, pendingCastLink = null, pendingCastTitle = null) }
+
+    fun dismissDialog() {
+        _dialog.value = null
     }
-    
+
     fun playNow() {
-        val link = _uiState.value.pendingCastLink
-        val title = _uiState.value.pendingCastTitle ?: "Video"
-        val device = _uiState.value.selectedDevice
-        if (link != null && device != null) {
-            dismissKodiQueueDialog()
-            dismissDlnaQueueDialog()
-            castLink(link, device, addToQueue = false, title = title)
-        }
+        castPending(addToQueue = false)
     }
-    
+
     fun addToQueue() {
-        val link = _uiState.value.pendingCastLink
-        val title = _uiState.value.pendingCastTitle ?: "Video"
-        val device = _uiState.value.selectedDevice
-        if (link != null && device != null) {
-            dismissKodiQueueDialog()
-            dismissDlnaQueueDialog()
-            castLink(link, device, addToQueue = true, title = title)
+        castPending(addToQueue = true)
+    }
+
+    private fun castPending(addToQueue: Boolean) {
+        val (link, title) = when (val dialog = _dialog.value) {
+            is CastDialog.KodiPlaying -> dialog.link to dialog.title
+            is CastDialog.DlnaQueued -> dialog.link to dialog.title
+            else -> return
         }
+        val device = devices.value.selected ?: return
+        dismissDialog()
+        castLink(link, device, addToQueue = addToQueue, title = title)
     }
-    
+
     fun playNextInDlnaQueue() {
-        val device = _uiState.value.selectedDevice
+        val device = devices.value.selected
         if (device != null && device.type == com.samcod3.alldebrid.data.model.DeviceType.DLNA) {
             viewModelScope.launch {
-                _uiState.update { it.copy(castingMessage = "Playing next...") }
+                show(DownloadsMessage.Progress("Playing next..."))
                 deviceRepository.playNextInDlnaQueue(device)
                     .onSuccess {
-                        _uiState.update { it.copy(castingMessage = "Playing next!", error = null) }
-                        scheduleMessageClear()
+                        show(DownloadsMessage.Info("Playing next!"))
                     }
                     .onFailure { error ->
-                        _uiState.update { it.copy(castingMessage = null, error = "Queue: ${error.message}") }
+                        show(DownloadsMessage.Error("Queue: ${error.message}"))
+                    }
+            }
+        }
+    }
+
+    /**
+     * Queue every given file (link to title) on the selected device. Links are
+     * unlocked in parallel; Kodi receives them all in one batch request and
+     * starts playing if it was idle.
+     */
+    fun queueAll(links: List<Pair<String, String>>) {
+        val device = devices.value.selected
+        if (device == null) {
+            _dialog.value = CastDialog.NoDevice
+            return
+        }
+        if (links.isEmpty()) return
+
+        viewModelScope.launch {
+            show(DownloadsMessage.Progress("Unlocking ${links.size} links..."))
+            val permits = Semaphore(UNLOCK_CONCURRENCY)
+            val unlocked = coroutineScope {
+                links.map { (link, title) ->
+                    async {
+                        permits.withPermit {
+                            repository.unlockLink(link).getOrNull()?.let { it.link to title }
+                        }
+                    }
+                }.awaitAll()
+            }.filterNotNull()
+
+            if (unlocked.isEmpty()) {
+                show(DownloadsMessage.Error("Could not unlock any link"))
+                return@launch
+            }
+            val notUnlocked = links.size - unlocked.size
+
+            when (device.type) {
+                com.samcod3.alldebrid.data.model.DeviceType.KODI -> {
+                    val isPlaying = deviceRepository.checkKodiPlaying(device).getOrDefault(false)
+                    show(DownloadsMessage.Progress("Adding to queue..."))
+                    deviceRepository.enqueueToKodi(
+                        device = device,
+                        urls = unlocked.map { it.first },
+                        clearFirst = !isPlaying,
+                        startPlayback = !isPlaying
+                    )
+                        .onSuccess { result ->
+                            val skipped = notUnlocked + result.failed.size
+                            val message = if (skipped > 0) {
+                                "Queued ${result.added} items ($skipped failed)"
+                            } else {
+                                "Queued ${result.added} items!"
+                            }
+                            show(DownloadsMessage.Info(message))
+                        }
+                        .onFailure { error ->
+                            show(DownloadsMessage.Error("Queue failed: ${error.message}"))
+                        }
+                }
+                com.samcod3.alldebrid.data.model.DeviceType.DLNA -> {
+                    val result = deviceRepository.dlnaQueue.addAll(unlocked)
+                    if (result.queuedBefore == 0 && result.added > 0) {
+                        playNextInDlnaQueue()
+                    } else {
+                        show(DownloadsMessage.Info("Added ${result.added} to queue!"))
                     }
+                }
             }
         }
     }
-    
+
     fun removeFromDlnaQueue(itemId: String) {
         deviceRepository.dlnaQueue.removeFromQueue(itemId)
     }
-    
+
+    fun moveInDlnaQueue(itemId: String, toIndex: Int) {
+        deviceRepository.dlnaQueue.moveItem(itemId, toIndex)
+    }
+
     fun clearDlnaQueue() {
         deviceRepository.dlnaQueue.clearQueue()
     }
-    
+
     private fun castLink(link: String, device: Device, addToQueue: Boolean, title: String = "Video") {
         viewModelScope.launch {
-            _uiState.update { it.copy(castingMessage = "Unlocking link...") }
-            
+            show(DownloadsMessage.Progress("Unlocking link..."))
+
             repository.unlockLink(link)
                 .onSuccess { unlockedLink ->
                     val action = if (addToQueue) "Adding to queue..." else "Casting to ${device.name}..."
-                    _uiState.update { it.copy(castingMessage = action) }
-                    
+                    show(DownloadsMessage.Progress(action))
+
                     deviceRepository.castToDevice(device, unlockedLink.link, addToQueue, title)
                         .onSuccess {
                              val message = if (addToQueue) "Added to queue!" else "Casting started!"
-                             _uiState.update { it.copy(castingMessage = message, error = null) }
-                             scheduleMessageClear()
+                             show(DownloadsMessage.Info(message))
                         }
                         .onFailure { error ->
-                             _uiState.update { it.copy(castingMessage = null, error = "Casting failed: ${error.message}") }
+                             show(DownloadsMessage.Error("Casting failed: ${error.message}"))
                         }
                 }
                 .onFailure { error ->
-                    handleError(error)
-                    _uiState.update { it.copy(castingMessage = null) }
+                    reportError(error)
                 }
         }
     }
-    
+
     // Fallback for non-media files or when explicitly requested
     fun unlockAndCopy(link: String) {
          viewModelScope.launch {
             repository.unlockLink(link)
                 .onSuccess { unlockedLink ->
-                    // UI should observe this event or property to copy/open
-                    _uiState.update { it.copy(castingMessage = "Link unlocked: ${unlockedLink.link}") }
+                    show(DownloadsMessage.Info("Link unlocked: ${unlockedLink.link}"))
                 }
-                .onFailure { handleError(it) }
+                .onFailure { reportError(it) }
         }
     }
-    
+
     fun copyLinkToClipboard(context: Context, link: String) {
         viewModelScope.launch {
-            _uiState.update { it.copy(castingMessage = "Unlocking...") }
+            show(DownloadsMessage.Progress("Unlocking..."))
             repository.unlockLink(link)
                 .onSuccess { unlockedLink ->
                     val clipboard = context.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
                     val clip = ClipData.newPlainText("AllDebrid Link", unlockedLink.link)
                     clipboard.setPrimaryClip(clip)
-                    _uiState.update { it.copy(castingMessage = "Link copied!") }
-                    scheduleMessageClear()
+                    show(DownloadsMessage.Info("Link copied!"))
+                }
+                .onFailure { error ->
+                    show(DownloadsMessage.Error("Failed: ${error.message}"))
+                }
+        }
+    }
+
+    /**
+     * Unlock a link and save the file to this device.
+     */
+    fun downloadFile(link: String, fileName: String) {
+        viewModelScope.launch {
+            show(DownloadsMessage.Progress("Unlocking..."))
+            repository.unlockLink(link)
+                .onSuccess { unlockedLink ->
+                    downloader.start(unlockedLink.link, unlockedLink.filename.ifBlank { fileName })
+                    show(DownloadsMessage.Info("Downloading $fileName"))
                 }
                 .onFailure { error ->
-                    _uiState.update { it.copy(castingMessage = null, error = "Failed: ${error.message}") }
+                    show(DownloadsMessage.Error("Failed: ${error.message}"))
                 }
         }
     }
-    
+
+    fun pauseFileDownload(id: String) {
+        downloader.pause(id)
+    }
+
+    fun resumeFileDownload(id: String) {
+        downloader.resume(id)
+    }
+
+    fun removeFileDownload(id: String) {
+        downloader.remove(id)
+    }
+
+    /**
+     * A failed list load replaces the list with the error.
+     */
     private fun handleError(error: Throwable) {
         if (error is IpAuthorizationRequiredException) {
-            _uiState.update { it.copy(
-                isLoading = false,
+            _loadState.value = LoadState(
                 requiresIpAuthorization = true,
                 error = "IP authorization required. Tap to authorize."
-            )}
+            )
         } else {
-            _uiState.update { it.copy(isLoading = false, error = error.message) }
+            _loadState.value = LoadState(error = error.message)
         }
     }
-    
-    fun clearIpAuthorizationFlag() {
-        _uiState.update { it.copy(requiresIpAuthorization = false) }
-    }
-    
-    fun clearMessage() {
-        _uiState.update { it.copy(castingMessage = null, error = null) }
-        messageClearJob?.cancel()
-        messageClearJob = null
-    }
-    
-    fun clearAllMessages() {
-        _uiState.update { it.copy(castingMessage = null, error = null) }
-        messageClearJob?.cancel()
-        messageClearJob = null
-    }
-    
-    private fun scheduleMessageClear() {
-        messageClearJob?.cancel()
-        messageClearJob = viewModelScope.launch {
-            delay(3000) // 3 seconds
-            _uiState.update { it.copy(castingMessage = null) }
+
+    /**
+     * A failed action keeps the list and shows a message, unless the IP has
+     * to be authorized first.
+     */
+    private fun reportError(error: Throwable) {
+        if (error is IpAuthorizationRequiredException) {
+            _loadState.update { it.copy(requiresIpAuthorization = true) }
+        } else {
+            show(DownloadsMessage.Error(error.message ?: "Unknown error"))
         }
     }
+
+    fun clearIpAuthorizationFlag() {
+        _loadState.update { it.copy(requiresIpAuthorization = false) }
+    }
 }
@@ -10,6 +10,7 @@ import androidx.compose.foundation.layout.fillMaxSize
 import androidx.compose.foundation.layout.fillMaxWidth
 import androidx.compose.foundation.layout.height
 import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.layout.size
 import androidx.compose.foundation.layout.width
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
@@ -54,6 +55,7 @@ import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.hilt.navigation.compose.hiltViewModel
+import com.samcod3.alldebrid.data.repository.KeyHealth
 
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
@@ -92,7 +94,7 @@ fun ApiKeyManagerScreen(
                     }
                 },
                 actions = {
-                    IconButton(onClick = { viewModel.loadKeys() }) {
+                    IconButton(onClick = { viewModel.loadKeys(forceRefresh = true) }) {
                         Icon(Icons.Default.Refresh, "Refresh")
                     }
                 },
@@ -189,6 +191,7 @@ fun ApiKeyManagerScreen(
                                 name = key.name,
                                 apiKey = key.apikey,
                                 isSelected = key.apikey == uiState.selectedKey,
+                                health = uiState.keyHealth[key.apikey],
                                 onSelect = { 
                                     viewModel.selectKey(key.apikey)
                                     onKeySelected(key.apikey)
@@ -309,6 +312,7 @@ private fun ApiKeyCard(
     name: String,
     apiKey: String,
     isSelected: Boolean,
+    health: KeyHealth?,
     onSelect: () -> Unit,
     onRename: () -> Unit,
     onDelete: () -> Unit
@@ -351,6 +355,9 @@ private fun ApiKeyCard(
                         maxLines = 1,
                         overflow = TextOverflow.Ellipsis
                     )
+                    if (health != null) {
+                        KeyHealthLabel(health)
+                    }
                 }
                 if (isSelected) {
                     Icon(
@@ -400,3 +407,36 @@ private fun ApiKeyCard(
         }
     }
 }
+
+@Composable
+private fun KeyHealthLabel(health: KeyHealth) {
+    val (text, color) = when (health) {
+        KeyHealth.Checking -> "Checking..." to MaterialTheme.colorScheme.onSurfaceVariant
+        is KeyHealth.Healthy -> {
+            val plan = if (health.user.isPremium) "Premium" else "Free"
+            "$plan · ${health.user.username}" to MaterialTheme.colorScheme.primary
+        }
+        is KeyHealth.IpBlocked -> "IP not authorized" to MaterialTheme.colorScheme.error
+        is KeyHealth.Invalid -> health.message to MaterialTheme.colorScheme.error
+        is KeyHealth.Unreachable -> "Unreachable: ${health.message}" to MaterialTheme.colorScheme.onSurfaceVariant
+    }
+    Row(
+        modifier = Modifier.padding(top = 4.dp),
+        verticalAlignment = Alignment.CenterVertically
+    ) {
+        if (health is KeyHealth.Checking) {
+            CircularProgressIndicator(
+                modifier = Modifier.size(12.dp),
+                strokeWidth = 2.dp
+            )
+            Spacer(modifier = Modifier.width(6.dp))
+        }
+        Text(
+            text = text,
+            style = MaterialTheme.typography.labelSmall,
+            color = color,
+            maxLines = 1,
+            overflow = TextOverflow.Ellipsis
+        )
+    }
+}
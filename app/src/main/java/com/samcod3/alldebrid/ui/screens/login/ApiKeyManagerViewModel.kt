@@ -5,11 +5,13 @@ import androidx.lifecycle.viewModelScope
 import com.samcod3.alldebrid.data.api.ApiKeyData
 import com.samcod3.alldebrid.data.api.DashboardApi
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
+import com.samcod3.alldebrid.data.repository.ApiKeyHealthChecker
+import com.samcod3.alldebrid.data.repository.KeyHealth
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
-import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import javax.inject.Inject
@@ -19,22 +21,26 @@ data class ApiKeyManagerUiState(
     val isLoggedIn: Boolean = false,
     val keys: List<ApiKeyData> = emptyList(),
     val selectedKey: String? = null,
+    val keyHealth: Map<String, KeyHealth> = emptyMap(),
     val message: String? = null
 )
 
 @HiltViewModel
 class ApiKeyManagerViewModel @Inject constructor(
     private val dashboardApi: DashboardApi,
-    private val settingsDataStore: SettingsDataStore
+    private val settingsDataStore: SettingsDataStore,
+    private val healthChecker: ApiKeyHealthChecker
 ) : ViewModel() {
 
     private val _uiState = MutableStateFlow(ApiKeyManagerUiState())
     val uiState: StateFlow<ApiKeyManagerUiState> = _uiState.asStateFlow()
+    
+    private var healthJob: Job? = null
 
     init {
         // Check login status and load current key
         viewModelScope.launch {
-            val currentKey = settingsDataStore.apiKey.first()
+            val currentKey = settingsDataStore.snapshot().apiKey
             _uiState.update { it.copy(
                 isLoggedIn = dashboardApi.isLoggedIn(),
                 selectedKey = currentKey.ifBlank { null }
@@ -42,7 +48,10 @@ class ApiKeyManagerViewModel @Inject constructor(
         }
     }
 
-    fun loadKeys() {
+    /**
+     * Load keys; served from the dashboard cache unless [forceRefresh] is set.
+     */
+    fun loadKeys(forceRefresh: Boolean = false) {
         viewModelScope.launch {
             _uiState.update { it.copy(isLoading = true) }
             
@@ -55,13 +64,14 @@ class ApiKeyManagerViewModel @Inject constructor(
                 return@launch
             }
             
-            dashboardApi.fetchKeys()
+            dashboardApi.fetchKeys(forceRefresh)
                 .onSuccess { keys ->
                     _uiState.update { it.copy(
                         isLoading = false,
                         isLoggedIn = true,
                         keys = keys
                     )}
+                    checkKeyHealth(forceRefresh)
                 }
                 .onFailure { error ->
                     _uiState.update { it.copy(
@@ -79,7 +89,7 @@ class ApiKeyManagerViewModel @Inject constructor(
             dashboardApi.createKey(name)
                 .onSuccess {
                     _uiState.update { it.copy(message = "Key created successfully") }
-                    loadKeys() // Refresh the list
+                    loadKeys() // Cache was refreshed by the mutation
                 }
                 .onFailure { error ->
                     _uiState.update { it.copy(
@@ -97,12 +107,13 @@ class ApiKeyManagerViewModel @Inject constructor(
             dashboardApi.deleteKey(apikey)
                 .onSuccess {
                     // If deleting the selected key, clear selection
+                    healthChecker.invalidate(apikey)
                     if (_uiState.value.selectedKey == apikey) {
                         settingsDataStore.saveApiKey("")
                         _uiState.update { it.copy(selectedKey = null) }
                     }
                     _uiState.update { it.copy(message = "Key deleted successfully") }
-                    loadKeys() // Refresh the list
+                    loadKeys() // Cache was refreshed by the mutation
                 }
                 .onFailure { error ->
                     _uiState.update { it.copy(
@@ -120,7 +131,7 @@ class ApiKeyManagerViewModel @Inject constructor(
             dashboardApi.renameKey(apikey, newName)
                 .onSuccess {
                     _uiState.update { it.copy(message = "Key renamed successfully") }
-                    loadKeys() // Refresh the list
+                    loadKeys() // Cache was refreshed by the mutation
                 }
                 .onFailure { error ->
                     _uiState.update { it.copy(
@@ -131,6 +142,19 @@ class ApiKeyManagerViewModel @Inject constructor(
         }
     }
 
+    /**
+     * Validate every listed key in parallel; results fill in as they arrive.
+     */
+    fun checkKeyHealth(forceRefresh: Boolean = false) {
+        healthJob?.cancel()
+        val apiKeys = _uiState.value.keys.map { it.apikey }
+        healthJob = viewModelScope.launch {
+            healthChecker.checkAll(apiKeys, forceRefresh).collect { (apiKey, health) ->
+                _uiState.update { it.copy(keyHealth = it.keyHealth + (apiKey to health)) }
+            }
+        }
+    }
+
     fun selectKey(apikey: String) {
         viewModelScope.launch {
             settingsDataStore.saveApiKey(apikey)
@@ -148,7 +172,7 @@ class ApiKeyManagerViewModel @Inject constructor(
     fun refreshLoginState() {
         _uiState.update { it.copy(isLoggedIn = dashboardApi.isLoggedIn()) }
         if (dashboardApi.isLoggedIn()) {
-            loadKeys()
+            loadKeys(forceRefresh = true)
         }
     }
 }
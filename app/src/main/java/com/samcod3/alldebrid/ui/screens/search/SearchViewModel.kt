@@ -5,19 +5,33 @@ import androidx.lifecycle.viewModelScope
 import com.samcod3.alldebrid.data.model.SearchResult
 import com.samcod3.alldebrid.data.repository.AllDebridRepository
 import com.samcod3.alldebrid.data.repository.JackettRepository
+import com.samcod3.alldebrid.data.torrent.TorrentMetadata
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.collections.immutable.ImmutableList
+import kotlinx.collections.immutable.persistentListOf
+import kotlinx.collections.immutable.toImmutableList
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import javax.inject.Inject
 
 data class SearchUiState(
     val query: String = "",
     val isLoading: Boolean = false,
-    val results: List<SearchResult> = emptyList(),
+    // Unique by listKey; immutable so Compose can skip unchanged rows
+    val results: ImmutableList<SearchResult> = persistentListOf(),
     val error: String? = null,
     val hasSearched: Boolean = false,
     val message: String? = null
@@ -29,8 +43,60 @@ class SearchViewModel @Inject constructor(
     private val allDebridRepository: AllDebridRepository
 ) : ViewModel() {
 
+    companion object {
+        // Rows past the last visible one that are prefetched as well
+        private const val PREFETCH_AHEAD = 5
+        private const val PREFETCH_CONCURRENCY = 2
+        private const val PREFETCH_SETTLE_MS = 300L
+    }
+
     private val _uiState = MutableStateFlow(SearchUiState())
     val uiState: StateFlow<SearchUiState> = _uiState.asStateFlow()
+    
+    private val visibleRange = MutableStateFlow(IntRange.EMPTY)
+    
+    init {
+        // Resolve torrent links of the rows on screen once scrolling settles;
+        // a new window, or new results under the same one, cancels downloads
+        // for rows no longer in view
+        @OptIn(FlowPreview::class)
+        viewModelScope.launch {
+            combine(visibleRange, _uiState.map { it.results }.distinctUntilChanged(), ::prefetchCandidates)
+                .distinctUntilChanged()
+                .debounce(PREFETCH_SETTLE_MS)
+                .collectLatest { links -> prefetch(links) }
+        }
+    }
+    
+    /**
+     * Called by the list with the indexes of the rows currently on screen.
+     */
+    fun onVisibleRangeChanged(first: Int, last: Int) {
+        visibleRange.value = first..last
+    }
+    
+    /**
+     * Torrent links of the rows in [range] (and a few past it) that still
+     * need resolving.
+     */
+    private fun prefetchCandidates(range: IntRange, results: List<SearchResult>): List<String> {
+        if (range.isEmpty()) return emptyList()
+        return (range.first..range.last + PREFETCH_AHEAD)
+            .mapNotNull { results.getOrNull(it) }
+            .filter { it.magnetUri == null && it.link != null && !it.addedToDebrid }
+            .mapNotNull { it.link }
+    }
+    
+    private suspend fun prefetch(candidates: List<String>) {
+        if (candidates.isEmpty()) return
+        
+        val permits = Semaphore(PREFETCH_CONCURRENCY)
+        coroutineScope {
+            candidates.forEach { link ->
+                launch { permits.withPermit { allDebridRepository.prefetchTorrent(link) } }
+            }
+        }
+    }
 
     fun updateQuery(query: String) {
         _uiState.update { it.copy(query = query) }
@@ -44,8 +110,13 @@ class SearchViewModel @Inject constructor(
             
             jackettRepository.search(_uiState.value.query)
                 .onSuccess { results ->
-                    // Sort by size descending (largest first)
-                    val sortedResults = results.sortedByDescending { it.size ?: 0 }
+                    // Sort by size descending (largest first). Trackers often list the
+                    // same torrent; only the first copy is kept so rows have unique keys
+                    val sortedResults = results
+                        .map { it.copy(infoHash = it.magnetUri?.let { uri -> TorrentMetadata.infoHashOf(uri) }) }
+                        .sortedByDescending { it.size ?: 0 }
+                        .distinctBy { it.listKey }
+                        .toImmutableList()
                     _uiState.update { it.copy(isLoading = false, results = sortedResults) }
                 }
                 .onFailure { error ->
@@ -77,7 +148,7 @@ class SearchViewModel @Inject constructor(
                             message = message,
                             results = state.results.map {
                                 if (it == result) it.copy(addedToDebrid = true, isDownloading = isDownloading) else it
-                            }
+                            }.toImmutableList()
                         )
                     }
                     // Clear message after delay
@@ -91,7 +162,7 @@ class SearchViewModel @Inject constructor(
                             message = null,
                             results = state.results.map {
                                 if (it == result) it.copy(failed = true) else it
-                            }
+                            }.toImmutableList()
                         )
                     }
                 }
@@ -47,6 +47,7 @@ import androidx.compose.ui.text.input.PasswordVisualTransformation
 import androidx.compose.ui.text.input.VisualTransformation
 import androidx.compose.ui.unit.dp
 import androidx.hilt.navigation.compose.hiltViewModel
+import com.samcod3.alldebrid.BuildConfig
 import com.samcod3.alldebrid.R
 
 @OptIn(ExperimentalMaterial3Api::class)
@@ -297,6 +298,81 @@ fun SettingsScreen(
                     }
                 }
             }
+            
+            // Streaming section
+            Card(
+                modifier = Modifier.fillMaxWidth(),
+                colors = CardDefaults.cardColors(
+                    containerColor = MaterialTheme.colorScheme.surfaceVariant
+                )
+            ) {
+                Column(
+                    modifier = Modifier.padding(16.dp),
+                    verticalArrangement = Arrangement.spacedBy(12.dp)
+                ) {
+                    Text(
+                        text = "Streaming",
+                        style = MaterialTheme.typography.titleMedium
+                    )
+                    
+                    Text(
+                        text = "Serve videos to TVs through this phone. Helps renderers that reject long HTTPS links or seek slowly; the app must stay open while playing.",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = MaterialTheme.colorScheme.onSurfaceVariant
+                    )
+                    
+                    Row(
+                        modifier = Modifier.fillMaxWidth(),
+                        horizontalArrangement = Arrangement.SpaceBetween,
+                        verticalAlignment = Alignment.CenterVertically
+                    ) {
+                        Text("Relay streams through this phone")
+                        androidx.compose.material3.Switch(
+                            checked = uiState.useMediaRelay,
+                            onCheckedChange = { viewModel.setUseMediaRelay(it) }
+                        )
+                    }
+                }
+            }
+            
+            // Network diagnostics (debug builds only)
+            if (BuildConfig.DEBUG) {
+                Card(
+                    modifier = Modifier.fillMaxWidth(),
+                    colors = CardDefaults.cardColors(
+                        containerColor = MaterialTheme.colorScheme.surfaceVariant
+                    )
+                ) {
+                    Column(
+                        modifier = Modifier.padding(16.dp),
+                        verticalArrangement = Arrangement.spacedBy(8.dp)
+                    ) {
+                        Text(
+                            text = "Network diagnostics",
+                            style = MaterialTheme.typography.titleMedium
+                        )
+                        
+                        if (uiState.networkStats.isEmpty()) {
+                            Text(
+                                text = "No calls yet",
+                                style = MaterialTheme.typography.bodySmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant
+                            )
+                        }
+                        uiState.networkStats.forEach { line ->
+                            Text(
+                                text = line,
+                                style = MaterialTheme.typography.bodySmall,
+                                color = MaterialTheme.colorScheme.onSurfaceVariant
+                            )
+                        }
+                        
+                        androidx.compose.material3.TextButton(onClick = { viewModel.refreshNetworkStats() }) {
+                            Text("Refresh")
+                        }
+                    }
+                }
+            }
         }
     }
 }
@@ -2,14 +2,15 @@ package com.samcod3.alldebrid.ui.screens.settings
 
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
+import com.samcod3.alldebrid.BuildConfig
 import com.samcod3.alldebrid.data.datastore.SettingsDataStore
 import com.samcod3.alldebrid.data.model.User
+import com.samcod3.alldebrid.data.network.ResilienceExecutor
 import com.samcod3.alldebrid.data.repository.AllDebridRepository
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
-import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import javax.inject.Inject
@@ -20,7 +21,10 @@ data class SettingsUiState(
     val jackettApiKey: String = "",
     val useCustomIpRange: Boolean = false,
     val customIpPrefix: String = "",
+    val useMediaRelay: Boolean = false,
     val user: User? = null,
+    // Debug builds only: one line of call outcomes per endpoint
+    val networkStats: List<String> = emptyList(),
     val message: String? = null,
     val isLoading: Boolean = false
 )
@@ -28,7 +32,8 @@ data class SettingsUiState(
 @HiltViewModel
 class SettingsViewModel @Inject constructor(
     private val settingsDataStore: SettingsDataStore,
-    private val repository: AllDebridRepository
+    private val repository: AllDebridRepository,
+    private val resilience: ResilienceExecutor
 ) : ViewModel() {
 
     private val _uiState = MutableStateFlow(SettingsUiState())
@@ -64,27 +69,40 @@ class SettingsViewModel @Inject constructor(
      */
     fun refreshSettings() {
         viewModelScope.launch {
-            val apiKey = settingsDataStore.apiKey.first()
-            val jackettUrl = settingsDataStore.jackettUrl.first()
-            val jackettApiKey = settingsDataStore.jackettApiKey.first()
-            val useCustomIpRange = settingsDataStore.useCustomIpRange.first()
-            val customIpPrefix = settingsDataStore.customIpPrefix.first()
+            val settings = settingsDataStore.snapshot()
             
             _uiState.update {
                 it.copy(
-                    apiKey = apiKey,
-                    jackettUrl = jackettUrl,
-                    jackettApiKey = jackettApiKey,
-                    useCustomIpRange = useCustomIpRange,
-                    customIpPrefix = customIpPrefix
+                    apiKey = settings.apiKey,
+                    jackettUrl = settings.jackettUrl,
+                    jackettApiKey = settings.jackettApiKey,
+                    useCustomIpRange = settings.useCustomIpRange,
+                    customIpPrefix = settings.customIpPrefix,
+                    useMediaRelay = settings.useMediaRelay
                 )
             }
             
             // Test connection if we have an API key
-            if (apiKey.isNotBlank()) {
+            if (settings.apiKey.isNotBlank()) {
                 testConnection()
             }
         }
+        refreshNetworkStats()
+    }
+    
+    /**
+     * Reload the per-endpoint retry/hedge/breaker counters (debug builds only)
+     */
+    fun refreshNetworkStats() {
+        if (!BuildConfig.DEBUG) return
+        val lines = resilience.metrics.snapshot().entries
+            .sortedBy { it.key.ordinal }
+            .map { (endpoint, outcomes) ->
+                val counts = outcomes.filterValues { it > 0 }.entries
+                    .joinToString(" · ") { (outcome, count) -> "${outcome.name.lowercase()} $count" }
+                "${endpoint.name}: $counts"
+            }
+        _uiState.update { it.copy(networkStats = lines) }
     }
 
     fun updateApiKey(value: String) {
@@ -134,6 +152,11 @@ class SettingsViewModel @Inject constructor(
         }
     }
 
+    fun setUseMediaRelay(value: Boolean) {
+        _uiState.update { it.copy(useMediaRelay = value) }
+        settingsDataStore.saveUseMediaRelay(value)
+    }
+
     fun testConnection() {
         viewModelScope.launch {
             _uiState.update { it.copy(isLoading = true) }
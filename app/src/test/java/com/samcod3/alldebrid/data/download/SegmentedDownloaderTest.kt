@@ -0,0 +1,219 @@
+package com.samcod3.alldebrid.data.download
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.Buffer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+class SegmentedDownloaderTest {
+
+    companion object {
+        private const val SIZE = 1024 * 1024
+        private const val PROBE = "bytes=0-0"
+        private const val TIMEOUT_MS = 20_000L
+    }
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val content = Random(42).nextBytes(SIZE)
+    private val server = MockWebServer()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Range header of every request, in arrival order (null when absent)
+    private val ranges = CopyOnWriteArrayList<String?>()
+
+    private var acceptRanges = true
+    private var probeDelayMs = 0L
+    private var throttle: (start: Long) -> Boolean = { false }
+    private var throttleBytes = 4L * 1024
+    private var throttlePeriodMs = 50L
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse = serve(request)
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        server.shutdown()
+    }
+
+    @Test
+    fun rangeDownloadSplitsIntoSegments() {
+        val downloader = downloader()
+        val id = downloader.start(url(), "movie.mkv")
+
+        val done = awaitStatus(downloader, id, FileDownloadStatus.COMPLETED)
+
+        assertArrayEquals(content, File(done.path).readBytes())
+        assertEquals(PROBE, ranges.first())
+        val starts = fetchStarts()
+        val quarter = SIZE / 4L
+        assertTrue(starts.containsAll(listOf(0L, quarter, 2 * quarter, 3 * quarter)))
+    }
+
+    @Test
+    fun serverWithoutRangesUsesOneConnection() {
+        acceptRanges = false
+        val downloader = downloader()
+        val id = downloader.start(url(), "movie.mkv")
+
+        val done = awaitStatus(downloader, id, FileDownloadStatus.COMPLETED)
+
+        assertArrayEquals(content, File(done.path).readBytes())
+        // The probe, then a single full request
+        assertEquals(2, ranges.size)
+        assertEquals(null, ranges[1])
+    }
+
+    @Test
+    fun idleConnectionTakesOverTailOfSlowSegment() {
+        throttle = { start -> start == 0L }
+        val downloader = downloader()
+        val id = downloader.start(url(), "movie.mkv")
+
+        val done = awaitStatus(downloader, id, FileDownloadStatus.COMPLETED)
+
+        assertArrayEquals(content, File(done.path).readBytes())
+        val quarter = SIZE / 4L
+        val initial = setOf(0L, quarter, 2 * quarter, 3 * quarter)
+        val stolen = fetchStarts().filter { it !in initial }
+        assertTrue("expected a request for a stolen tail, got ${fetchStarts()}", stolen.any { it in 1 until quarter })
+    }
+
+    @Test
+    fun pauseAndResumeContinueFromCheckpoint() {
+        throttle = { true }
+        // Segments too small to split, so every resumed request is a remainder
+        val downloader = downloader(minSegment = SIZE / 4L)
+        val id = downloader.start(url(), "movie.mkv")
+        awaitStatus(downloader, id, FileDownloadStatus.RUNNING)
+        Thread.sleep(700)
+
+        downloader.pause(id)
+        val paused = awaitStatus(downloader, id, FileDownloadStatus.PAUSED)
+        val beforeResume = ranges.size
+        resumeWhenIdle(downloader, id)
+        val done = awaitStatus(downloader, id, FileDownloadStatus.COMPLETED)
+
+        assertArrayEquals(content, File(done.path).readBytes())
+        assertTrue(paused.downloadedBytes > 0)
+        val resumedBytes = ranges.drop(beforeResume).filterNotNull().sumOf { range ->
+            val (start, end) = parseRange(range)
+            end - start + 1
+        }
+        assertTrue("resumed requests covered $resumedBytes bytes", resumedBytes < SIZE)
+    }
+
+    @Test
+    fun pauseDuringProbeStaysPausedAndResumes() {
+        probeDelayMs = 500
+        val downloader = downloader()
+        val id = downloader.start(url(), "movie.mkv")
+        // Pause while the probe is held up on the server
+        val deadline = System.currentTimeMillis() + TIMEOUT_MS
+        while (ranges.isEmpty()) {
+            assertTrue("probe never arrived", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+        downloader.pause(id)
+
+        // Past the probe: the job has unwound, and must not have marked itself running
+        Thread.sleep(1_000)
+        assertEquals(FileDownloadStatus.PAUSED, current(downloader, id).status)
+
+        resumeWhenIdle(downloader, id)
+        val done = awaitStatus(downloader, id, FileDownloadStatus.COMPLETED)
+        assertArrayEquals(content, File(done.path).readBytes())
+    }
+
+    private fun downloader(minSegment: Long = 64L * 1024) = SegmentedDownloader(
+        httpClient = OkHttpClient(),
+        scope = scope,
+        stateDir = File(tmp.root, "state"),
+        downloadDir = { File(tmp.root, "files") },
+        minSegment = minSegment,
+        bufferSize = 8 * 1024
+    )
+
+    private fun url(): String = server.url("/file.mkv").toString()
+
+    private fun serve(request: RecordedRequest): MockResponse {
+        val range = request.getHeader("Range")
+        ranges += range
+        if (range == PROBE) Thread.sleep(probeDelayMs)
+
+        if (!acceptRanges || range == null) {
+            return MockResponse()
+                .setResponseCode(200)
+                .setBody(Buffer().write(content))
+        }
+        val (start, end) = parseRange(range)
+        val last = minOf(end, SIZE - 1L)
+        val response = MockResponse()
+            .setResponseCode(206)
+            .setHeader("Content-Range", "bytes $start-$last/$SIZE")
+            .setBody(Buffer().write(content, start.toInt(), (last - start + 1).toInt()))
+        if (range != PROBE && throttle(start)) {
+            response.throttleBody(throttleBytes, throttlePeriodMs, TimeUnit.MILLISECONDS)
+        }
+        return response
+    }
+
+    private fun parseRange(range: String): Pair<Long, Long> {
+        val (start, end) = range.removePrefix("bytes=").split('-')
+        return start.toLong() to end.toLong()
+    }
+
+    // Start offsets of the data requests, probe excluded
+    private fun fetchStarts(): List<Long> = ranges.filterNotNull().filter { it != PROBE }.map { parseRange(it).first }
+
+    private fun current(downloader: SegmentedDownloader, id: String): FileDownload {
+        return downloader.downloads.value.first { it.id == id }
+    }
+
+    private fun awaitStatus(downloader: SegmentedDownloader, id: String, status: FileDownloadStatus): FileDownload {
+        return runBlocking {
+            withTimeout(TIMEOUT_MS) {
+                downloader.downloads.first { list -> list.any { it.id == id && it.status == status } }
+                    .first { it.id == id }
+            }
+        }
+    }
+
+    // resume() ignores a download whose job is still unwinding from the pause
+    private fun resumeWhenIdle(downloader: SegmentedDownloader, id: String) {
+        val deadline = System.currentTimeMillis() + TIMEOUT_MS
+        while (current(downloader, id).status == FileDownloadStatus.PAUSED) {
+            assertTrue("download never resumed", System.currentTimeMillis() < deadline)
+            downloader.resume(id)
+            Thread.sleep(50)
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.samcod3.alldebrid.data.torrent
+
+import okio.Buffer
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class TorrentParserTest {
+
+    companion object {
+        private const val MAX_BYTES = 10L * 1024 * 1024
+        private const val TRACKER = "http://tracker.example/announce"
+
+        // SHA-1 of each fixture's info dictionary, computed outside the parser
+        private const val SINGLE_HASH = "d4ce1ff3dc8955e7dab451d2aa43c840931f6af8"
+        private const val MULTI_HASH = "1b3f831672825d5d7a57d57b2629fbf893341d41"
+        private const val PRIVATE_HASH = "ff2c95d80fe54f34b1245da28ede89187d3029e3"
+        private const val V2_HASH = "5a072ea2226d59066dc0ef98c393e32fc3656e29"
+    }
+
+    private val singleInfo = "d" + s("length") + "i1048576e" + s("name") + s("file.bin") +
+        s("piece length") + "i262144e" + s("pieces") + s("a".repeat(20)) + "e"
+
+    private val multiInfo = "d" + s("files") + "l" +
+        "d" + s("length") + "i100e" + s("path") + "l" + s("a.txt") + "e" + "e" +
+        "d" + s("length") + "i200e" + s("path") + "l" + s("sub") + s("b.txt") + "e" + "e" +
+        "e" + s("name") + s("Pelis") + s("name.utf-8") + s("Películas") +
+        s("piece length") + "i16384e" + s("pieces") + s("b".repeat(40)) + "e"
+
+    private val privateInfo = "d" + s("length") + "i10e" + s("name") + s("priv") +
+        s("piece length") + "i16384e" + s("pieces") + s("c".repeat(20)) + s("private") + "i1e" + "e"
+
+    private val v2Info = "d" + s("file tree") + "d" + s("file.bin") + "d" + s("") + "d" +
+        s("length") + "i10e" + s("pieces root") + s("d".repeat(32)) + "e" + "e" + "e" +
+        s("meta version") + "i2e" + s("name") + s("file.bin") + s("piece length") + "i16384e" + "e"
+
+    @Test
+    fun singleFileTorrent() {
+        val metadata = parse("d" + s("announce") + s(TRACKER) + s("info") + singleInfo + "e")
+
+        assertEquals(SINGLE_HASH, metadata.infoHash)
+        assertEquals("file.bin", metadata.name)
+        assertEquals(listOf(TRACKER), metadata.trackers)
+        assertTrue(metadata.canUseMagnet)
+        assertEquals(
+            "magnet:?xt=urn:btih:$SINGLE_HASH&dn=file.bin&tr=http%3A%2F%2Ftracker.example%2Fannounce",
+            metadata.toMagnetUri()
+        )
+    }
+
+    @Test
+    fun multiFileTorrentPrefersUtf8NameAndMergesTrackers() {
+        val other = "udp://other.example:1337"
+        val torrent = "d" + s("announce") + s(TRACKER) +
+            s("announce-list") + "l" + "l" + s(TRACKER) + "e" + "l" + s(other) + "e" + "e" +
+            s("comment") + s("skipped") + s("info") + multiInfo + "e"
+
+        val metadata = parse(torrent)
+
+        assertEquals(MULTI_HASH, metadata.infoHash)
+        assertEquals("Películas", metadata.name)
+        assertEquals(listOf(TRACKER, other), metadata.trackers)
+        assertTrue(metadata.canUseMagnet)
+    }
+
+    @Test
+    fun privateTorrentIsNotConvertedToMagnet() {
+        val metadata = parse("d" + s("announce") + s(TRACKER) + s("info") + privateInfo + "e")
+
+        assertEquals(PRIVATE_HASH, metadata.infoHash)
+        assertTrue(metadata.isPrivate)
+        assertFalse(metadata.canUseMagnet)
+    }
+
+    @Test
+    fun v2OnlyTorrentHasNoV1Pieces() {
+        val metadata = parse("d" + s("info") + v2Info + "e")
+
+        assertEquals(V2_HASH, metadata.infoHash)
+        assertFalse(metadata.hasV1Pieces)
+        assertFalse(metadata.canUseMagnet)
+    }
+
+    @Test
+    fun truncatedTorrentFails() {
+        val torrent = "d" + s("announce") + s(TRACKER) + s("info") + singleInfo + "e"
+        val bytes = torrent.toByteArray()
+
+        for (cut in listOf(1, 20, bytes.size / 2, bytes.size - 2)) {
+            assertThrows(TorrentParseException::class.java) {
+                TorrentParser.parse(Buffer().write(bytes, 0, cut), MAX_BYTES)
+            }
+        }
+    }
+
+    @Test
+    fun torrentWithoutInfoFails() {
+        assertThrows(TorrentParseException::class.java) {
+            parse("d" + s("announce") + s(TRACKER) + "e")
+        }
+    }
+
+    @Test
+    fun oversizeTorrentFails() {
+        val torrent = "d" + s("announce") + s(TRACKER) + s("info") + singleInfo + "e"
+
+        assertThrows(TorrentTooLargeException::class.java) {
+            TorrentParser.parse(Buffer().writeUtf8(torrent), 64)
+        }
+    }
+
+    @Test
+    fun hugeDeclaredLengthFailsBeforeReading() {
+        // Claims a 1 GB pieces string but carries none of it
+        val torrent = "d" + s("info") + "d" + s("pieces") + "1073741824:"
+
+        assertThrows(TorrentTooLargeException::class.java) {
+            parse(torrent)
+        }
+    }
+
+    @Test
+    fun magnetInfoHash() {
+        assertEquals(SINGLE_HASH, TorrentMetadata.infoHashOf("magnet:?xt=urn:btih:${SINGLE_HASH.uppercase()}&dn=x"))
+        assertNull(TorrentMetadata.infoHashOf("magnet:?xt=urn:btih:MFRGGZDFMZTWQ2LKNNWG23TPOBYXE43U"))
+        assertNull(TorrentMetadata.infoHashOf("https://example.com/file.torrent"))
+    }
+
+    /**
+     * Timing harness rather than an assertion: parses a torrent with ~4 MB of
+     * piece hashes and prints the average, to compare runs of the parser.
+     */
+    @Test
+    fun parseLargeTorrentTiming() {
+        val pieces = Random(7).nextBytes(200_000 * 20)
+        val torrent = Buffer()
+            .writeUtf8("d" + s("announce") + s(TRACKER) + s("info") + "d")
+            .writeUtf8(s("name") + s("big.mkv") + s("piece length") + "i16384e")
+            .writeUtf8(s("pieces") + "${pieces.size}:")
+            .write(pieces)
+            .writeUtf8("ee")
+            .readByteArray()
+
+        val runs = 20
+        var hash: String? = null
+        repeat(3) { TorrentParser.parse(Buffer().write(torrent), MAX_BYTES) }
+        val start = System.nanoTime()
+        repeat(runs) {
+            val metadata = TorrentParser.parse(Buffer().write(torrent), MAX_BYTES)
+            if (hash != null) assertEquals(hash, metadata.infoHash)
+            hash = metadata.infoHash
+        }
+        val avgMs = (System.nanoTime() - start) / runs / 1_000_000.0
+        println("TorrentParser: ${torrent.size / 1024} KiB in %.2f ms".format(avgMs))
+    }
+
+    private fun parse(torrent: String): TorrentMetadata {
+        return TorrentParser.parse(Buffer().writeUtf8(torrent), MAX_BYTES)
+    }
+
+    // Bencoded string: UTF-8 byte length, colon, content
+    private fun s(value: String): String = "${value.toByteArray().size}:$value"
+}